@@ -0,0 +1,211 @@
+package com.netflix.lipstick.client;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.lipstick.graph.Graph;
+import com.netflix.lipstick.template.Template;
+
+/**
+ * Non-blocking counterpart of Client.
+ *
+ * Requests run on a fixed pool of worker threads sharing the wrapped
+ * Client's connection pool, and results are returned as ListenableFutures.
+ * At most threads + maxPending requests are accepted at a time; once that
+ * limit is reached callers block until a request completes, so a producer
+ * can't queue up work faster than the server absorbs it.
+ *
+ * Futures complete with the same values the blocking Client returns,
+ * including null when no server could be reached.
+ */
+public class AsyncClient implements Closeable {
+    private static final Log LOG = LogFactory.getLog(AsyncClient.class);
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_MAX_PENDING = 100;
+
+    protected final Client client;
+    protected final ListeningExecutorService executor;
+    protected final int maxRequests;
+    protected final Semaphore permits;
+
+    public AsyncClient(String serviceUrl) {
+        this(new Client(serviceUrl), DEFAULT_THREADS, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * @param client the client requests are made with, closed along with this one
+     * @param threads number of requests run concurrently
+     * @param maxPending number of requests waiting for a thread before callers block
+     */
+    public AsyncClient(Client client, int threads, int maxPending) {
+        this.client = client;
+        this.maxRequests = threads + maxPending;
+        this.permits = new Semaphore(maxRequests);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder().setNameFormat("lipstick-client-%d").setDaemon(true).build());
+        this.executor = MoreExecutors.listeningDecorator(pool);
+    }
+
+    public ListenableFuture<Graph> get(final String graphId) {
+        return submit(new Callable<Graph>() {
+            @Override
+            public Graph call() {
+                return client.get(graphId);
+            }
+        });
+    }
+
+    public ListenableFuture<String> list() {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return client.list();
+            }
+        });
+    }
+
+    /**
+     * Saves a copy of graph taken on the calling thread, so the caller can
+     * keep changing graph. Once the copy is saved graph is marked as synced
+     * in the state it was copied in.
+     */
+    public ListenableFuture<String> save(final Graph graph) {
+        final Graph snapshot = graph.copy();
+        final Graph.SyncState state = graph.syncState();
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return synced(graph, state, client.save(snapshot));
+            }
+        });
+    }
+
+    /**
+     * Updates the server with a copy of graph taken on the calling thread,
+     * see save(Graph).
+     */
+    public ListenableFuture<String> update(final Graph graph) {
+        final Graph snapshot = graph.copy();
+        final Graph.SyncState state = graph.syncState();
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return synced(graph, state, client.update(snapshot));
+            }
+        });
+    }
+
+    public ListenableFuture<Template> getTemplate(final String name) {
+        return submit(new Callable<Template>() {
+            @Override
+            public Template call() {
+                return client.getTemplate(name);
+            }
+        });
+    }
+
+    public ListenableFuture<String> saveTemplate(final Template template) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return client.saveTemplate(template);
+            }
+        });
+    }
+
+    public ListenableFuture<String> listTemplates() {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return client.listTemplates();
+            }
+        });
+    }
+
+    /**
+     * Returns the number of requests accepted but not yet completed.
+     *
+     * @return
+     */
+    public int getPendingRequests() {
+        return maxRequests - permits.availablePermits();
+    }
+
+    /**
+     * Stops accepting requests, waits for accepted ones to complete and
+     * closes the wrapped client.
+     *
+     * @param timeout maximum time to wait
+     * @param unit unit of timeout
+     * @return true if all accepted requests completed in time
+     */
+    public boolean close(long timeout, TimeUnit unit) {
+        executor.shutdown();
+        boolean completed = false;
+        try {
+            completed = executor.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!completed) {
+            LOG.warn("Closing Lipstick client with requests still running.");
+            executor.shutdownNow();
+        }
+        client.close();
+        return completed;
+    }
+
+    @Override
+    public void close() {
+        close(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Marks graph as synced in state if response shows it was sent.
+     */
+    protected String synced(Graph graph, Graph.SyncState state, String response) {
+        if (response != null) {
+            graph.markSynced(state);
+        }
+        return response;
+    }
+
+    /**
+     * Blocks until a request slot is free, then runs task on the pool.
+     */
+    protected <T> ListenableFuture<T> submit(Callable<T> task) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Futures.immediateFailedFuture(e);
+        }
+        try {
+            ListenableFuture<T> future = executor.submit(task);
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    permits.release();
+                }
+            }, MoreExecutors.sameThreadExecutor());
+            return future;
+        } catch (RuntimeException e) {
+            permits.release();
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package com.netflix.lipstick.client;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
 
 import javax.ws.rs.client.ClientBuilder;
@@ -10,27 +12,52 @@ import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
 import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.lipstick.graph.Json;
 
-
-public class BaseClient {
+/**
+ * Base class for clients of the Lipstick server.
+ *
+ * Each BaseClient owns a single Jersey client backed by a bounded pool of
+ * persistent connections, shared by all requests made through it. Call
+ * close() when done with the client to release its connections.
+ */
+public class BaseClient implements Closeable {
     protected enum RequestVerb {
         POST, PUT, GET
     };
     
     private static final Log LOG = LogFactory.getLog(BaseClient.class);
     private static int DEFAULT_TIMEOUT = 1500;
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
+    public static final long HEALTH_CHECK_INTERVAL = 10000L;
     
     protected String serviceUrl;
     protected ClientConfig config;    
-    protected ObjectMapper om = new ObjectMapper();
+    protected PoolingHttpClientConnectionManager connectionManager;
+    protected javax.ws.rs.client.Client client;
+    protected volatile boolean closed = false;
+    protected ObjectMapper om = Json.MAPPER;
     
+    protected ServerSelector serverSelector = null;
+
+    /**
+     * @deprecated Servers are picked by the ServerSelector in serverSelector.
+     */
+    @Deprecated
     public static class Server implements Comparable<Server> {
         public String url;
         public Long penalty;
@@ -48,6 +75,12 @@ public class BaseClient {
             return penalty.compareTo(other.penalty);
         }
     }
+
+    /**
+     * @deprecated Holds one entry per configured server for subclasses that
+     * still read it, but is no longer used to pick servers; see serverSelector.
+     */
+    @Deprecated
     protected PriorityQueue<Server> servers = null;
     
     public BaseClient(String serviceUrls) {
@@ -55,53 +88,128 @@ public class BaseClient {
     }
     
     public BaseClient(String serviceUrls, int connectTimeout, int readTimeout) {
+        this(serviceUrls, connectTimeout, readTimeout, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param serviceUrls comma separated list of Lipstick server urls
+     * @param connectTimeout connect timeout in milliseconds
+     * @param readTimeout read timeout in milliseconds
+     * @param maxConnections maximum number of pooled connections; requests
+     *        wait up to connectTimeout for a connection when all are in use
+     */
+    public BaseClient(String serviceUrls, int connectTimeout, int readTimeout, int maxConnections) {
         LOG.info("Initializing " + this.getClass() + " with serviceUrls: " + serviceUrls);        
         initializeServers(serviceUrls);
+        if (serverSelector == null) {
+            // a subclass initialized only the deprecated servers queue
+            serverSelector = new ServerSelector(serviceUrls);
+        }
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
         config = new ClientConfig();
+        config.connectorProvider(new ApacheConnectorProvider());
+        config.property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager);
+        config.property(ApacheClientProperties.REQUEST_CONFIG,
+                        RequestConfig.custom().setConnectionRequestTimeout(connectTimeout).build());
         config.property(ClientProperties.CONNECT_TIMEOUT, connectTimeout);
         config.property(ClientProperties.READ_TIMEOUT, readTimeout);        
+        config.property(ClientProperties.REQUEST_ENTITY_PROCESSING, RequestEntityProcessing.CHUNKED);
+        client = ClientBuilder.newClient(config);
+        serverSelector.startHealthChecks(new ServerSelector.HealthCheck() {
+            @Override
+            public boolean isHealthy(String url) {
+                Response response = client.target(url).request().get();
+                response.close();
+                return response.getStatus() < 500;
+            }
+        }, HEALTH_CHECK_INTERVAL);
+    }
+
+    /**
+     * Returns usage statistics of the connection pool: connections leased,
+     * available for reuse, requests waiting for a connection and the pool's
+     * maximum size.
+     *
+     * @return
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Closes the client and all its pooled connections. Requests made after
+     * closing fail with an IllegalStateException.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            serverSelector.stopHealthChecks();
+            client.close();
+            connectionManager.shutdown();
+        }
     }
     
     protected void initializeServers(String serviceUrls) {
-        String[] urls = serviceUrls.split(",");
-        servers = new PriorityQueue<Server>(urls.length);        
-        for (String url : urls) {
-            servers.add(new Server(url, 1l));
+        serverSelector = new ServerSelector(serviceUrls);
+        List<ServerSelector.Server> selected = serverSelector.getServers();
+        servers = new PriorityQueue<Server>(selected.size());
+        for (ServerSelector.Server s : selected) {
+            servers.add(new Server(s.getUrl(), 1l));
         }
     }
     
+    protected String getServiceUrl() {
+        return serverSelector.getBest().getUrl();
+    }
+
+    /**
+     * @deprecated Adds servers back to the deprecated servers queue.
+     */
+    @Deprecated
     protected void rebuildServers(List<Server> servers) {
         for (Server s : servers) {
             this.servers.add(s);
-        }        
-    }
-    
-    protected String getServiceUrl() {
-        Server s = servers.peek();
-        return s.url;
+        }
     }
     
     protected String makeRequest(String resource, Object requestObj, RequestVerb verb) {
-        List<Server> penalized = new ArrayList<Server>();
-        
-        javax.ws.rs.client.Client c = ClientBuilder.newClient(config);
-        Response response = null;
+        return makeRequest(resource, null, requestObj, verb);
+    }
+
+    protected String makeRequest(String resource, Map<String, String> queryParams, Object requestObj, RequestVerb verb) {
+        Response response = makeBufferedRequest(resource, queryParams, requestObj, verb);
+        return (response != null) ? response.readEntity(String.class) : null;
+    }
+
+    /**
+     * Like makeRequest, but returns the response with its entity buffered
+     * so callers can parse it as a stream.
+     */
+    protected Response makeBufferedRequest(String resource, Map<String, String> queryParams, Object requestObj, RequestVerb verb) {
+        if (closed) {
+            throw new IllegalStateException("Client has been closed");
+        }
         
-        while (servers.size() > 0) {
-            String serviceUrl = getServiceUrl();
-            LOG.info("Trying Lipstick server "+serviceUrl);
-            WebTarget target = c.target(serviceUrl).path(resource);            
-            response = sendRequest(target, requestObj, verb);
+        for (ServerSelector.Server s : serverSelector.getServers()) {
+            LOG.info("Trying Lipstick server "+s.getUrl());
+            WebTarget target = client.target(s.getUrl()).path(resource);            
+            if (queryParams != null) {
+                for (Map.Entry<String, String> param : queryParams.entrySet()) {
+                    target = target.queryParam(param.getKey(), param.getValue());
+                }
+            }
+            long start = System.currentTimeMillis();
+            Response response = sendRequest(target, requestObj, verb);
             if (response != null) {
-                rebuildServers(penalized);
-                return response.readEntity(String.class);
+                serverSelector.success(s, System.currentTimeMillis() - start);
+                return response;
             } else {
-                Server s = servers.poll();
-                s.penalize();
-                penalized.add(s);
+                serverSelector.failure(s);
             }                
         }
-        rebuildServers(penalized);
         return null;
     }
     
@@ -110,10 +218,10 @@ public class BaseClient {
         try {
             switch(verb) {
             case POST:
-                response = target.request().post(Entity.entity(om.writeValueAsString(requestObj), MediaType.APPLICATION_JSON_TYPE));
+                response = target.request().post(jsonEntity(requestObj));
                 break;
             case PUT:
-                response = target.request().put(Entity.entity(om.writeValueAsString(requestObj), MediaType.APPLICATION_JSON_TYPE));
+                response = target.request().put(jsonEntity(requestObj));
                 break;
             case GET:
                 response = target.request().get();
@@ -128,6 +236,7 @@ public class BaseClient {
         } catch (Exception e) {
             if (response != null) {
                 LOG.error(String.format("Error contacting Lipstick server. code: [%d], message: [%s]", response.getStatus(), response.readEntity(String.class)));
+                response.close();
             } else {
                 LOG.error(String.format("Error contacting Lipstick server."));
             }
@@ -136,6 +245,20 @@ public class BaseClient {
         return null;
     }
     
+    /**
+     * Wraps requestObj in an entity that serializes it straight onto the
+     * request stream, so large graphs are never held in memory as a string.
+     */
+    protected Entity<StreamingOutput> jsonEntity(final Object requestObj) {
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                om.writeValue(out, requestObj);
+            }
+        };
+        return Entity.entity(output, MediaType.APPLICATION_JSON_TYPE);
+    }
+    
     protected void handleStatus(int status, String message) throws IOException {
         switch(status) {
         case 404:
@@ -1,6 +1,15 @@
 package com.netflix.lipstick.client;
 
+import java.io.InputStream;
+import java.util.Map;
+
+import javax.ws.rs.core.Response;
+
+import com.google.common.collect.Maps;
+import com.netflix.lipstick.graph.Edge;
 import com.netflix.lipstick.graph.Graph;
+import com.netflix.lipstick.graph.Node;
+import com.netflix.lipstick.graph.NodeGroup;
 import com.netflix.lipstick.template.Template;
 
 public class Client extends BaseClient {
@@ -15,12 +24,20 @@ public class Client extends BaseClient {
     public Client(String serviceUrl, int connectTimeout, int readTimeout) {
         super(serviceUrl, connectTimeout, readTimeout);
     }
+
+    public Client(String serviceUrl, int connectTimeout, int readTimeout, int maxConnections) {
+        super(serviceUrl, connectTimeout, readTimeout, maxConnections);
+    }
     
     public Graph get(String graphId) {
         String path = String.format("%s/%s", JOB_PATH, graphId);
-        String response = makeRequest(path, null, RequestVerb.GET);
+        Response response = makeBufferedRequest(path, null, null, RequestVerb.GET);
         if (response != null) {
-            return Graph.fromJson(response);
+            Graph graph = Graph.fromJson(response.readEntity(InputStream.class));
+            if (graph != null) {
+                graph.markSynced();
+            }
+            return graph;
         }
         return null;
     }
@@ -30,12 +47,74 @@ public class Client extends BaseClient {
     }
     
     public String save(Graph graph) {
-        return makeRequest(JOB_PATH, graph, RequestVerb.POST);
+        String response = makeRequest(JOB_PATH, graph, RequestVerb.POST);
+        if (response != null) {
+            graph.markSynced();
+        }
+        return response;
     }
     
     public String update(Graph graph) {
         String path = String.format("%s/%s", JOB_PATH, graph.id);
-        return makeRequest(path, graph, RequestVerb.PUT);
+        String response = makeRequest(path, graph, RequestVerb.PUT);
+        if (response != null) {
+            graph.markSynced();
+        }
+        return response;
+    }
+
+    /**
+     * Sends only the parts of graph that changed since it was last saved,
+     * updated, fetched or flushed: the graph status, and every changed node,
+     * edge and node group through its own endpoint. Elements that fail to
+     * send stay changed and are retried by the next flush.
+     *
+     * Changes are found by comparing a hash of each element's json with
+     * the hash kept when it was last sent, so every element is serialized
+     * on each flush, but only a fixed size digest per element is kept.
+     *
+     * @param graph a graph previously saved to the server
+     * @return true if all changes were sent
+     */
+    public boolean flushChanges(Graph graph) {
+        boolean flushed = true;
+        String graphPath = String.format("%s/%s", JOB_PATH, graph.id);
+
+        if (graph.statusChanged()) {
+            Graph statusOnly = new Graph(graph.id, graph.name, graph.user).status(graph.status);
+            if (makeRequest(graphPath, statusOnly, RequestVerb.PUT) != null) {
+                graph.markStatusSynced();
+            } else {
+                flushed = false;
+            }
+        }
+        for (NodeGroup nodeGroup : graph.changedNodeGroups()) {
+            String path = String.format("%s/nodeGroup/%s", graphPath, nodeGroup.id);
+            if (makeRequest(path, nodeGroup, RequestVerb.PUT) != null) {
+                graph.markSynced(nodeGroup);
+            } else {
+                flushed = false;
+            }
+        }
+        for (Node node : graph.changedNodes()) {
+            String path = String.format("%s/node/%s", graphPath, node.id);
+            if (makeRequest(path, node, RequestVerb.PUT) != null) {
+                graph.markSynced(node);
+            } else {
+                flushed = false;
+            }
+        }
+        for (Edge edge : graph.changedEdges()) {
+            Map<String, String> params = Maps.newLinkedHashMap();
+            params.put("u", edge.u);
+            params.put("v", edge.v);
+            if (makeRequest(graphPath + "/edge", params, edge, RequestVerb.PUT) != null) {
+                graph.markSynced(edge);
+            } else {
+                flushed = false;
+            }
+        }
+        return flushed;
     }
     
     public Template getTemplate(String name) {
@@ -67,10 +67,10 @@ public class Edge {
         Edge e = (Edge)other;
         
         return
-                this.u == null ? e.u == null : this.u.equals(e.u) &&
-                this.v == null ? e.v == null : this.v.equals(e.v) &&
-                this.type == null ? e.type == null : this.type.equals(e.type) &&
-                this.label == null ? e.label == null : this.label.equals(e.label) &&
+                (this.u == null ? e.u == null : this.u.equals(e.u)) &&
+                (this.v == null ? e.v == null : this.v.equals(e.v)) &&
+                (this.type == null ? e.type == null : this.type.equals(e.type)) &&
+                (this.label == null ? e.label == null : this.label.equals(e.label)) &&
                 this.properties.equals(e.properties);
     }
 }
@@ -0,0 +1,144 @@
+package com.netflix.lipstick.graph;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Adjacency index of the edges in a Graph.
+ *
+ * Every node id seen on an edge gets a compact int id. Edges are stored in
+ * per-node maps of outgoing and incoming edges keyed by the int id of the
+ * other end, so looking up an edge is two hash lookups, and finding a
+ * node's successors or predecessors costs O(degree). Edges are also kept
+ * in insertion order, keyed by the pair of int ids, for iteration.
+ */
+class EdgeIndex {
+    private final Map<String, Integer> ids = Maps.newHashMap();
+    private final List<String> nodeIds = Lists.newArrayList();
+    private final List<Map<Integer, Edge>> out = Lists.newArrayList();
+    private final List<Map<Integer, Edge>> in = Lists.newArrayList();
+    private final Map<Long, Edge> ordered = new LinkedHashMap<Long, Edge>();
+
+    /**
+     * Adds edge, replacing any edge between the same nodes.
+     *
+     * @return the replaced edge, or null
+     */
+    public Edge put(Edge edge) {
+        int u = idFor(edge.u);
+        int v = idFor(edge.v);
+        outEdges(u).put(v, edge);
+        inEdges(v).put(u, edge);
+        return ordered.put(key(u, v), edge);
+    }
+
+    public Edge get(String u, String v) {
+        Integer uid = ids.get(u);
+        Integer vid = ids.get(v);
+        if (uid == null || vid == null || out.get(uid) == null) {
+            return null;
+        }
+        return out.get(uid).get(vid);
+    }
+
+    /**
+     * Returns a key identifying the edge between u and v, or -1 if there
+     * is no such edge. Keys stay valid as long as the index exists.
+     */
+    public long key(String u, String v) {
+        Integer uid = ids.get(u);
+        Integer vid = ids.get(v);
+        if (uid == null || vid == null) {
+            return -1L;
+        }
+        return key(uid, vid);
+    }
+
+    private static long key(int u, int v) {
+        return ((long) u << 32) | v;
+    }
+
+    public Collection<Edge> outEdges(String nodeId) {
+        Integer id = ids.get(nodeId);
+        if (id == null || out.get(id) == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableCollection(out.get(id).values());
+    }
+
+    public Collection<Edge> inEdges(String nodeId) {
+        Integer id = ids.get(nodeId);
+        if (id == null || in.get(id) == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableCollection(in.get(id).values());
+    }
+
+    public List<String> successors(String nodeId) {
+        Integer id = ids.get(nodeId);
+        if (id == null || out.get(id) == null) {
+            return Collections.emptyList();
+        }
+        return namesOf(out.get(id).keySet());
+    }
+
+    public List<String> predecessors(String nodeId) {
+        Integer id = ids.get(nodeId);
+        if (id == null || in.get(id) == null) {
+            return Collections.emptyList();
+        }
+        return namesOf(in.get(id).keySet());
+    }
+
+    public Collection<Edge> values() {
+        return Collections.unmodifiableCollection(ordered.values());
+    }
+
+    public int size() {
+        return ordered.size();
+    }
+
+    private List<String> namesOf(Collection<Integer> nodes) {
+        List<String> names = Lists.newArrayListWithCapacity(nodes.size());
+        for (Integer node : nodes) {
+            names.add(nodeIds.get(node));
+        }
+        return names;
+    }
+
+    private int idFor(String nodeId) {
+        Integer id = ids.get(nodeId);
+        if (id == null) {
+            id = nodeIds.size();
+            ids.put(nodeId, id);
+            nodeIds.add(nodeId);
+            out.add(null);
+            in.add(null);
+        }
+        return id;
+    }
+
+    private Map<Integer, Edge> outEdges(int id) {
+        Map<Integer, Edge> edges = out.get(id);
+        if (edges == null) {
+            edges = new LinkedHashMap<Integer, Edge>(4);
+            out.set(id, edges);
+        }
+        return edges;
+    }
+
+    private Map<Integer, Edge> inEdges(int id) {
+        Map<Integer, Edge> edges = in.get(id);
+        if (edges == null) {
+            edges = new LinkedHashMap<Integer, Edge>(4);
+            in.set(id, edges);
+        }
+        return edges;
+    }
+}
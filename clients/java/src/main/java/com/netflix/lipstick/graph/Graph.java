@@ -2,9 +2,11 @@ package com.netflix.lipstick.graph;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -13,14 +15,18 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 
 @JsonInclude(value=JsonInclude.Include.NON_EMPTY)
 @JsonIgnoreProperties(ignoreUnknown=true)
 public class Graph {
     
     private static final Log LOG = LogFactory.getLog(Graph.class);
+    private static final HashFunction FINGERPRINT = Hashing.murmur3_128();
     
     public String id;
     public String name;
@@ -32,15 +38,37 @@ public class Graph {
     private Map<String, Node> nodeMap;
     
     @JsonIgnore
-    private Map<String, Edge> edgeMap;
+    private EdgeIndex edgeIndex;
     
     @JsonIgnore
     private Map<String, NodeGroup> nodeGroupMap;
+
+    /*
+     * Digest of the serialized form of each element as last sent to the
+     * server, used to find the elements that changed since. Elements are
+     * plain objects with public fields, so comparing against their last
+     * sent form is the only way to notice changes made to them directly.
+     * Only a fixed size 128 bit murmur3 hash is kept per element rather
+     * than a second copy of the graph, but every element is still
+     * serialized on each check. The digests may be updated from another
+     * thread than the one changing the graph, see markSynced(SyncState).
+     */
+    @JsonIgnore
+    private final Map<String, HashCode> syncedNodes = Maps.newConcurrentMap();
+
+    @JsonIgnore
+    private final Map<Long, HashCode> syncedEdges = Maps.newConcurrentMap();
+
+    @JsonIgnore
+    private final Map<String, HashCode> syncedNodeGroups = Maps.newConcurrentMap();
+
+    @JsonIgnore
+    private volatile HashCode syncedStatus;
     
     public Graph() {
         this.status = new Status();
         this.nodeMap = Maps.newHashMap();
-        this.edgeMap = Maps.newHashMap();
+        this.edgeIndex = new EdgeIndex();
         this.nodeGroupMap = Maps.newHashMap();
         this.properties = Maps.newHashMap();
     }        
@@ -55,7 +83,7 @@ public class Graph {
         this.user = user;
         this.status = new Status();
         this.nodeMap = Maps.newHashMap();
-        this.edgeMap = Maps.newHashMap();
+        this.edgeIndex = new EdgeIndex();
         this.nodeGroupMap = Maps.newHashMap();
         this.properties = Maps.newHashMap();
     }
@@ -69,7 +97,7 @@ public class Graph {
     }
     
     public int numEdges() {
-        return this.edgeMap.size();
+        return this.edgeIndex.size();
     }
     
     public Graph(String id) {
@@ -120,14 +148,34 @@ public class Graph {
     }
     
     public Graph edge(Edge edge) {
-        String edgeId = edge.u + edge.v;
-        this.edgeMap.put(edgeId, edge);
+        this.edgeIndex.put(edge);
         return this;
     }
     
     public Edge edge(String u, String v) {
-        String edgeId = u + v;
-        return this.edgeMap.get(edgeId);
+        return this.edgeIndex.get(u, v);
+    }
+
+    /**
+     * Returns the ids of the nodes nodeId has an edge to.
+     */
+    public List<String> successors(String nodeId) {
+        return this.edgeIndex.successors(nodeId);
+    }
+
+    /**
+     * Returns the ids of the nodes that have an edge to nodeId.
+     */
+    public List<String> predecessors(String nodeId) {
+        return this.edgeIndex.predecessors(nodeId);
+    }
+
+    public Collection<Edge> outEdges(String nodeId) {
+        return this.edgeIndex.outEdges(nodeId);
+    }
+
+    public Collection<Edge> inEdges(String nodeId) {
+        return this.edgeIndex.inEdges(nodeId);
     }
     
     public Graph nodeGroup(NodeGroup nodeGroup) {
@@ -158,14 +206,18 @@ public class Graph {
         edges(edges);
     }
 
+    /**
+     * Returns a read only view of the edges, in insertion order.
+     *
+     * @return
+     */
     public Collection<Edge> getEdges() {
-        return this.edgeMap.values();
+        return this.edgeIndex.values();
     }
     
     public Graph edges(List<Edge> edges) {
         for (Edge edge : edges) {
-            String edgeId = edge.u + edge.v;
-            this.edgeMap.put(edgeId, edge);
+            this.edgeIndex.put(edge);
         }
         return this;
     }
@@ -187,6 +239,146 @@ public class Graph {
         return this;
     }
     
+    /**
+     * Returns the nodes that were added or changed since they were last
+     * marked as synced. Elements are compared by a murmur3 digest of their
+     * json, so this serializes every node.
+     */
+    public List<Node> changedNodes() {
+        List<Node> changed = Lists.newArrayList();
+        for (Entry<String, Node> e : nodeMap.entrySet()) {
+            if (!fingerprint(e.getValue()).equals(syncedNodes.get(e.getKey()))) {
+                changed.add(e.getValue());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the edges that were added or changed since they were last
+     * marked as synced.
+     */
+    public List<Edge> changedEdges() {
+        List<Edge> changed = Lists.newArrayList();
+        for (Edge edge : edgeIndex.values()) {
+            if (!fingerprint(edge).equals(syncedEdges.get(edgeIndex.key(edge.u, edge.v)))) {
+                changed.add(edge);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the node groups that were added or changed since they were
+     * last marked as synced.
+     */
+    public List<NodeGroup> changedNodeGroups() {
+        List<NodeGroup> changed = Lists.newArrayList();
+        for (Entry<String, NodeGroup> e : nodeGroupMap.entrySet()) {
+            if (!fingerprint(e.getValue()).equals(syncedNodeGroups.get(e.getKey()))) {
+                changed.add(e.getValue());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Checks if the graph's status changed since it was last marked as synced.
+     */
+    public boolean statusChanged() {
+        return !fingerprint(status).equals(syncedStatus);
+    }
+
+    public void markSynced(Node node) {
+        syncedNodes.put(node.id, fingerprint(node));
+    }
+
+    public void markSynced(Edge edge) {
+        syncedEdges.put(edgeIndex.key(edge.u, edge.v), fingerprint(edge));
+    }
+
+    public void markSynced(NodeGroup nodeGroup) {
+        syncedNodeGroups.put(nodeGroup.id, fingerprint(nodeGroup));
+    }
+
+    public void markStatusSynced() {
+        syncedStatus = fingerprint(status);
+    }
+
+    /**
+     * Marks the whole graph as synced, eg. after it was sent in full.
+     */
+    public void markSynced() {
+        markSynced(syncState());
+    }
+
+    /**
+     * Returns the digests of the graph's elements as they are now. Taken
+     * along with a copy() of the graph, they let the copy be sent from
+     * another thread and the graph be marked as synced in the state it was
+     * copied in.
+     */
+    public SyncState syncState() {
+        SyncState state = new SyncState(fingerprint(status));
+        for (Node node : nodeMap.values()) {
+            state.nodes.put(node.id, fingerprint(node));
+        }
+        for (Edge edge : edgeIndex.values()) {
+            state.edges.put(edgeIndex.key(edge.u, edge.v), fingerprint(edge));
+        }
+        for (NodeGroup nodeGroup : nodeGroupMap.values()) {
+            state.nodeGroups.put(nodeGroup.id, fingerprint(nodeGroup));
+        }
+        return state;
+    }
+
+    /**
+     * Marks the graph as synced in the state it was in when state was taken.
+     * Changes made since still show as changed. Unlike the rest of the
+     * graph this is safe to call from another thread than the one changing
+     * the graph.
+     */
+    public void markSynced(SyncState state) {
+        syncedStatus = state.status;
+        syncedNodes.putAll(state.nodes);
+        syncedEdges.putAll(state.edges);
+        syncedNodeGroups.putAll(state.nodeGroups);
+    }
+
+    /**
+     * Returns a deep copy of the graph, made by serializing it. The copy
+     * isn't marked as synced.
+     */
+    public Graph copy() {
+        try {
+            return Json.GRAPH_READER.readValue(Json.GRAPH_WRITER.writeValueAsBytes(this));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Digests of a graph's elements at one point in time.
+     */
+    public static class SyncState {
+        private final HashCode status;
+        private final Map<String, HashCode> nodes = Maps.newHashMap();
+        private final Map<Long, HashCode> edges = Maps.newHashMap();
+        private final Map<String, HashCode> nodeGroups = Maps.newHashMap();
+
+        private SyncState(HashCode status) {
+            this.status = status;
+        }
+    }
+
+    private static HashCode fingerprint(Object element) {
+        try {
+            return FINGERPRINT.hashBytes(Json.MAPPER.writeValueAsBytes(element));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public boolean equals(Object other) {        
         if (this == other) return true;
         if (!(other instanceof Graph)) return false;
@@ -194,19 +386,58 @@ public class Graph {
         Graph g = (Graph)other;
         
         return
-                this.id == null ? g.id == null : this.id.equals(g.id) &&
-                this.name == null ? g.name == null : this.name.equals(g.name) &&
-                this.status == null ? g.status == null : this.status.equals(g.status) &&
-                this.getNodes().equals(g.getNodes()) &&
-                this.getEdges().equals(g.getEdges()) &&
-                this.getNodeGroups().equals(g.getNodeGroups()) &&
+                (this.id == null ? g.id == null : this.id.equals(g.id)) &&
+                (this.name == null ? g.name == null : this.name.equals(g.name)) &&
+                (this.status == null ? g.status == null : this.status.equals(g.status)) &&
+                this.nodeMap.equals(g.nodeMap) &&
+                this.sameEdges(g) &&
+                this.nodeGroupMap.equals(g.nodeGroupMap) &&
                 this.properties.equals(g.properties);
     }
+
+    /**
+     * Checks whether g has the same edges as this graph, regardless of the
+     * order they were added in. There is at most one edge between any two
+     * nodes, so each edge is looked up by its ends instead of comparing the
+     * edge lists.
+     */
+    private boolean sameEdges(Graph g) {
+        if (this.numEdges() != g.numEdges()) {
+            return false;
+        }
+        for (Edge edge : this.getEdges()) {
+            if (!edge.equals(g.edge(edge.u, edge.v))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Serializes the graph as json straight onto out, without building the
+     * json in memory first. The stream is not closed.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        Json.GRAPH_WRITER.writeValue(out, this);
+    }
+
+    /**
+     * Reads a graph from json in is. The stream is not closed.
+     *
+     * @param is
+     * @return
+     * @throws IOException
+     */
+    public static Graph readFrom(InputStream is) throws IOException {
+        return Json.GRAPH_READER.readValue(is);
+    }
     
     public static Graph fromJson(InputStream is) {
         try {
-            Graph g = (new ObjectMapper()).readValue(is, Graph.class);
-            return g;
+            return readFrom(is);
         } catch (IOException e) {
             LOG.error("Error deserializing Graph", e);
         }
@@ -215,7 +446,7 @@ public class Graph {
     
     public static Graph fromJson(String json) {
         try {
-            Graph g = (new ObjectMapper()).readValue(json, Graph.class);
+            Graph g = Json.GRAPH_READER.readValue(json);
             return g;
         } catch (IOException e) {
             LOG.error("Error deserializing Graph", e);
@@ -226,7 +457,7 @@ public class Graph {
     public String toString() {
         String result = null;
         try {
-            result = (new ObjectMapper()).writeValueAsString(this);
+            result = Json.GRAPH_WRITER.writeValueAsString(this);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,30 @@
+package com.netflix.lipstick.graph;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * The ObjectMapper shared by the client classes.
+ *
+ * ObjectMapper is thread safe and caches the serializers it builds, so one
+ * instance is kept instead of creating a new one per call. Streams passed
+ * to it are left open so callers can write to and read from streams they
+ * don't own, such as HTTP entity streams.
+ */
+public final class Json {
+    public static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static {
+        MAPPER.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        MAPPER.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+    }
+
+    static final ObjectWriter GRAPH_WRITER = MAPPER.writerWithType(Graph.class);
+    static final ObjectReader GRAPH_READER = MAPPER.reader(Graph.class);
+
+    private Json() {
+    }
+}
@@ -7,8 +7,8 @@ import java.nio.charset.Charset;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.io.Files;
+import com.netflix.lipstick.graph.Json;
 
 public class Template {
     
@@ -56,7 +56,7 @@ public class Template {
     
     public static Template fromJson(String json) {
         try {
-            Template t = (new ObjectMapper()).readValue(json, Template.class);
+            Template t = Json.MAPPER.readValue(json, Template.class);
             return t;
         } catch (IOException e) {
             LOG.error("Error deserializing Template", e);
@@ -67,7 +67,7 @@ public class Template {
     public String toString() {
         String result = null;
         try {
-            result = (new ObjectMapper()).writeValueAsString(this);
+            result = Json.MAPPER.writeValueAsString(this);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
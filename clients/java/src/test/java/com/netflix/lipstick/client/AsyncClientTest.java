@@ -0,0 +1,129 @@
+package com.netflix.lipstick.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.netflix.lipstick.graph.Graph;
+import com.netflix.lipstick.graph.Node;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class AsyncClientTest {
+
+    HttpServer server;
+    CountDownLatch release;
+    List<String> bodies;
+
+    @BeforeMethod
+    public void startServer() throws IOException {
+        release = new CountDownLatch(1);
+        bodies = Lists.newCopyOnWriteArrayList();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                bodies.add(new String(ByteStreams.toByteArray(in), "UTF-8"));
+                in.close();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] response = "{\"id\":\"1\"}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testRequestsDoNotBlock() throws Exception {
+        Client client = new Client("http://localhost:" + server.getAddress().getPort(), 5000, 5000);
+        AsyncClient async = new AsyncClient(client, 4, 16);
+
+        List<ListenableFuture<String>> futures = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            futures.add(async.update(new Graph(Integer.toString(i), "test")));
+        }
+        Assert.assertEquals(async.getPendingRequests(), 20);
+        Assert.assertFalse(futures.get(0).isDone());
+
+        release.countDown();
+        for (ListenableFuture<String> future : futures) {
+            Assert.assertEquals(future.get(10, TimeUnit.SECONDS), "{\"id\":\"1\"}");
+        }
+        Assert.assertTrue(async.close(10, TimeUnit.SECONDS));
+        Assert.assertEquals(async.getPendingRequests(), 0);
+    }
+
+    @Test
+    public void testCallersBlockWhenFull() throws Exception {
+        Client client = new Client("http://localhost:" + server.getAddress().getPort(), 5000, 5000);
+        final AsyncClient async = new AsyncClient(client, 1, 1);
+        async.update(new Graph("0", "test"));
+        async.update(new Graph("1", "test"));
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                async.update(new Graph("2", "test"));
+                submitted.countDown();
+            }
+        });
+        producer.start();
+
+        Assert.assertFalse(submitted.await(500, TimeUnit.MILLISECONDS));
+        release.countDown();
+        Assert.assertTrue(submitted.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(async.close(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testChangesAfterSaveStayUnsynced() throws Exception {
+        Client client = new Client("http://localhost:" + server.getAddress().getPort(), 5000, 5000);
+        AsyncClient async = new AsyncClient(client, 1, 1);
+
+        Graph graph = new Graph("1", "test").node(new Node("a").property("state", "before"));
+        ListenableFuture<String> future = async.save(graph);
+        graph.node("a").property("state", "after");
+        graph.node(new Node("b"));
+
+        release.countDown();
+        Assert.assertNotNull(future.get(10, TimeUnit.SECONDS));
+        Assert.assertTrue(bodies.get(0).contains("before"));
+        Assert.assertFalse(bodies.get(0).contains("after"));
+        Assert.assertEquals(graph.changedNodes().size(), 2);
+
+        graph.node("a").property("state", "before");
+        graph.node("b").property("state", "new");
+        Assert.assertEquals(graph.changedNodes(), Lists.newArrayList(graph.node("b")));
+        Assert.assertTrue(async.close(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,137 @@
+package com.netflix.lipstick.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.http.pool.PoolStats;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.io.ByteStreams;
+import com.netflix.lipstick.graph.Edge;
+import com.netflix.lipstick.graph.Graph;
+import com.netflix.lipstick.graph.Node;
+import com.netflix.lipstick.graph.Status;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ClientTest {
+
+    HttpServer server;
+    Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+    @BeforeMethod
+    public void startServer() throws IOException {
+        clientPorts.clear();
+        requests.clear();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI());
+                InputStream in = exchange.getRequestBody();
+                ByteStreams.toByteArray(in);
+                in.close();
+                byte[] response = "{\"id\":\"1\"}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionsArePooled() {
+        Client client = new Client("http://localhost:" + server.getAddress().getPort());
+        Graph graph = new Graph("1", "test");
+        for (int i = 0; i < 20; i++) {
+            Assert.assertNotNull(client.update(graph));
+        }
+
+        Assert.assertEquals(clientPorts.size(), 1);
+        PoolStats stats = client.getPoolStats();
+        Assert.assertEquals(stats.getLeased(), 0);
+        Assert.assertEquals(stats.getAvailable(), 1);
+        Assert.assertEquals(stats.getMax(), BaseClient.DEFAULT_MAX_CONNECTIONS);
+
+        client.close();
+        Assert.assertEquals(client.getPoolStats().getAvailable(), 0);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testDeprecatedServersStillAvailable() {
+        String url = "http://localhost:" + server.getAddress().getPort();
+        Client client = new Client(url + ",http://localhost:1");
+        Assert.assertEquals(client.servers.size(), 2);
+        Assert.assertEquals(client.servers.peek().url, url);
+
+        BaseClient.Server penalized = client.servers.poll();
+        penalized.penalize();
+        client.rebuildServers(Arrays.asList(penalized));
+        Assert.assertEquals(client.servers.size(), 2);
+        Assert.assertEquals(client.servers.peek().url, "http://localhost:1");
+
+        // requests are still served through the selector
+        Assert.assertNotNull(client.list());
+        client.close();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testClosedClientRejectsRequests() {
+        Client client = new Client("http://localhost:" + server.getAddress().getPort());
+        client.close();
+        client.list();
+    }
+
+    @Test
+    public void testFlushChangesSendsOnlyChangedElements() {
+        Client client = new Client("http://localhost:" + server.getAddress().getPort());
+        Graph graph = new Graph("1", "test")
+            .node(new Node("a"))
+            .node(new Node("b"))
+            .edge(new Edge("a", "b"));
+        Assert.assertNotNull(client.save(graph));
+        Assert.assertTrue(client.flushChanges(graph));
+        Assert.assertEquals(requests.size(), 1);
+
+        graph.node("b").status(new Status().statusText("running"));
+        graph.edge("a", "b").label("10 records");
+        Assert.assertTrue(client.flushChanges(graph));
+        Assert.assertEquals(requests.subList(1, requests.size()),
+                            Arrays.asList("PUT /v1/job/1/node/b", "PUT /v1/job/1/edge?u=a&v=b"));
+
+        Assert.assertTrue(client.flushChanges(graph));
+        Assert.assertEquals(requests.size(), 3);
+        client.close();
+    }
+
+    @Test
+    public void testGetReadsGraph() {
+        Client client = new Client("http://localhost:" + server.getAddress().getPort());
+        Graph graph = client.get("1");
+        Assert.assertEquals(graph.id, "1");
+        Assert.assertFalse(graph.statusChanged());
+        client.close();
+    }
+}
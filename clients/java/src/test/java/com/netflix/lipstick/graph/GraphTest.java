@@ -1,5 +1,7 @@
 package com.netflix.lipstick.graph;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Map;
@@ -153,4 +155,94 @@ public class GraphTest {
         Assert.assertEquals(graph.numEdges(), 14);
         Assert.assertEquals(graph.numNodeGroups(), 5);
     }
+
+    @Test
+    public void testChangeTracking() {
+        Graph graph = new Graph("0", "test")
+            .node(new Node("a"))
+            .node(new Node("b"))
+            .edge(new Edge("a", "b"))
+            .nodeGroup(new NodeGroup("g").child("a"));
+        Assert.assertEquals(graph.changedNodes().size(), 2);
+        Assert.assertEquals(graph.changedEdges().size(), 1);
+        Assert.assertEquals(graph.changedNodeGroups().size(), 1);
+        Assert.assertTrue(graph.statusChanged());
+
+        graph.markSynced();
+        Assert.assertTrue(graph.changedNodes().isEmpty());
+        Assert.assertTrue(graph.changedEdges().isEmpty());
+        Assert.assertTrue(graph.changedNodeGroups().isEmpty());
+        Assert.assertFalse(graph.statusChanged());
+
+        graph.node("b").status(new Status().statusText("running"));
+        graph.edge("a", "b").label("records");
+        Assert.assertEquals(graph.changedNodes(), Lists.newArrayList(graph.node("b")));
+        Assert.assertEquals(graph.changedEdges().size(), 1);
+        Assert.assertTrue(graph.changedNodeGroups().isEmpty());
+
+        graph.markSynced(graph.node("b"));
+        Assert.assertTrue(graph.changedNodes().isEmpty());
+        Assert.assertEquals(graph.changedEdges().size(), 1);
+    }
+
+    @Test
+    public void testEdgeIndex() {
+        Graph graph = new Graph("0", "test")
+            .edge(new Edge("1", "23").label("first"))
+            .edge(new Edge("12", "3").label("second"))
+            .edge(new Edge("1", "2"))
+            .edge(new Edge("2", "23"));
+        Assert.assertEquals(graph.numEdges(), 4);
+        Assert.assertEquals(graph.edge("1", "23").label, "first");
+        Assert.assertEquals(graph.edge("12", "3").label, "second");
+        Assert.assertNull(graph.edge("23", "1"));
+        Assert.assertNull(graph.edge("1", "missing"));
+
+        Assert.assertEquals(graph.successors("1"), Lists.newArrayList("23", "2"));
+        Assert.assertEquals(graph.predecessors("23"), Lists.newArrayList("1", "2"));
+        Assert.assertTrue(graph.successors("3").isEmpty());
+        Assert.assertTrue(graph.predecessors("unknown").isEmpty());
+        Assert.assertEquals(graph.outEdges("12").iterator().next().label, "second");
+
+        graph.edge(new Edge("1", "23").label("replaced"));
+        Assert.assertEquals(graph.numEdges(), 4);
+        Assert.assertEquals(graph.getEdges().size(), 4);
+        Assert.assertEquals(graph.inEdges("23").iterator().next().label, "replaced");
+    }
+
+    @Test
+    public void testEdgeOrderDoesNotAffectEquality() {
+        Graph a = new Graph("0", "test")
+            .edge(new Edge("1", "2").label("first"))
+            .edge(new Edge("2", "3").label("second"));
+        Graph b = new Graph("0", "test")
+            .edge(new Edge("2", "3").label("second"))
+            .edge(new Edge("1", "2").label("first"));
+        Assert.assertEquals(a, b);
+
+        b.edge(new Edge("2", "3").label("changed"));
+        Assert.assertFalse(a.equals(b));
+        b.edge(new Edge("2", "3").label("second")).edge(new Edge("3", "4"));
+        Assert.assertFalse(a.equals(b));
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testEdgesAreReadOnly() {
+        new Graph("0", "test").edge(new Edge("1", "2")).getEdges().clear();
+    }
+
+    @Test
+    public void testStreamingRoundTrip() throws Exception {
+        Graph graph = Graph.fromJson(GraphTest.class.getResourceAsStream("/graph.json"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        graph.writeTo(out);
+        out.write(' ');
+        Assert.assertEquals(new String(out.toByteArray(), "UTF-8").trim(), graph.toString());
+
+        Graph read = Graph.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        Assert.assertEquals(read.numNodes(), graph.numNodes());
+        Assert.assertEquals(read.numEdges(), graph.numEdges());
+        Assert.assertEquals(read.numNodeGroups(), graph.numNodeGroups());
+        Assert.assertEquals(read.toString(), graph.toString());
+    }
 }
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.adaptors;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.newplan.logical.expression.AddExpression;
+import org.apache.pig.newplan.logical.expression.AndExpression;
+import org.apache.pig.newplan.logical.expression.ConstantExpression;
+import org.apache.pig.newplan.logical.expression.EqualExpression;
+import org.apache.pig.newplan.logical.expression.LogicalExpression;
+import org.apache.pig.newplan.logical.expression.LogicalExpressionPlan;
+import org.apache.pig.newplan.logical.expression.OrExpression;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.netflix.lipstick.adaptors.LOJsonAdaptor.LogicalExpressionPlanSerializer;
+
+/**
+ * Serialization of logical expression plans to strings. Lives in the
+ * adaptors package as the serializer is package private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExpressionSerializerBenchmark {
+
+    /** deep: a chain of additions; wide: a balanced tree of comparisons. */
+    @Param({ "deep", "wide" })
+    public String shape;
+
+    @Param({ "16", "1024" })
+    public int size;
+
+    protected LogicalExpressionPlan plan;
+
+    @Setup
+    public void setUp() throws Exception {
+        plan = new LogicalExpressionPlan();
+        if ("deep".equals(shape)) {
+            LogicalExpression expr = new ConstantExpression(plan, 0);
+            for (int i = 1; i < size; i++) {
+                expr = new AddExpression(plan, new ConstantExpression(plan, i), expr);
+            }
+        } else {
+            balanced(0, size);
+        }
+    }
+
+    /**
+     * Builds a balanced tree of and/or expressions over the leaves in
+     * [from, to).
+     */
+    protected LogicalExpression balanced(int from, int to) throws Exception {
+        if (to - from <= 1) {
+            return new EqualExpression(plan, new ConstantExpression(plan, "col" + from),
+                                       new ConstantExpression(plan, from));
+        }
+        int mid = (from + to) >>> 1;
+        LogicalExpression left = balanced(from, mid);
+        LogicalExpression right = balanced(mid, to);
+        if ((to - from) % 2 == 0) {
+            return new AndExpression(plan, left, right);
+        }
+        return new OrExpression(plan, left, right);
+    }
+
+    @Benchmark
+    public String serialize() {
+        return LogicalExpressionPlanSerializer.serialize(plan, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.netflix.lipstick.MRPlanCalculator;
+import com.netflix.lipstick.MRStageIndex;
+import com.netflix.lipstick.P2jPlanGenerator;
+import com.netflix.lipstick.model.P2jPlan;
+import com.netflix.lipstick.model.operators.P2jLogicalRelationalOperator;
+import com.netflix.lipstick.model.operators.P2jLogicalRelationalOperator.MRStage;
+
+/**
+ * Assignment of map/reduce stages to the operators of a P2jPlan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MRPlanCalculatorBenchmark {
+
+    @Param({ "test.pig", "generated-500", "generated-5000" })
+    public String plan;
+
+    @Param({ "20" })
+    public int columns;
+
+    protected PlanFixtures.CompiledPlan compiled;
+    protected P2jPlanGenerator generator;
+    protected MRStageIndex stageIndex;
+
+    @Setup
+    public void setUp() throws Exception {
+        compiled = PlanFixtures.compile(plan, columns);
+        generator = new P2jPlanGenerator(compiled.logicalPlan);
+        stageIndex = new MRStageIndex(compiled.mrPlan, compiled.phy2LogMap);
+    }
+
+    /**
+     * Clears the stages assigned by the previous invocation.
+     */
+    @Setup(Level.Invocation)
+    public void reset() {
+        for (P2jLogicalRelationalOperator op : generator.getP2jPlan().getPlan().values()) {
+            op.setMapReduce((MRStage) null);
+        }
+    }
+
+    @Benchmark
+    public P2jPlan calculate() {
+        return new MRPlanCalculator(generator.getP2jPlan(), compiled.mrPlan,
+                                    compiled.phy2LogMap, generator.getReverseMap()).getP2jPlan();
+    }
+
+    @Benchmark
+    public P2jPlan calculateWithSharedIndex() {
+        return new MRPlanCalculator(generator.getP2jPlan(), stageIndex, generator.getReverseMap()).getP2jPlan();
+    }
+}
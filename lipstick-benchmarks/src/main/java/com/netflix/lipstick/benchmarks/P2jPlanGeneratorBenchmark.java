@@ -0,0 +1,61 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.newplan.logical.relational.LogicalPlan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.netflix.lipstick.P2jPlanGenerator;
+import com.netflix.lipstick.model.P2jPlan;
+
+/**
+ * Conversion of a logical plan to a P2jPlan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class P2jPlanGeneratorBenchmark {
+
+    @Param({ "test.pig", "generated-500", "generated-5000" })
+    public String plan;
+
+    @Param({ "20" })
+    public int columns;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    protected LogicalPlan lp;
+
+    @Setup
+    public void setUp() throws Exception {
+        lp = PlanFixtures.logicalPlan(plan, columns);
+    }
+
+    @Benchmark
+    public P2jPlan generate() throws Exception {
+        return new P2jPlanGenerator(lp, threads).getP2jPlan();
+    }
+}
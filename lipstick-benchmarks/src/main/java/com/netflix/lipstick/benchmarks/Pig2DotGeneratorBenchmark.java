@@ -0,0 +1,104 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.kohsuke.graphviz.Graph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.netflix.lipstick.MRPlanCalculator;
+import com.netflix.lipstick.P2jPlanGenerator;
+import com.netflix.lipstick.Pig2DotGenerator;
+import com.netflix.lipstick.SvgCache;
+import com.netflix.lipstick.model.P2jPlan;
+
+/**
+ * Construction of the graphviz graph of a P2jPlan, in process svg
+ * rendering, in full and incrementally from a previous svg of the plan,
+ * and svg cache hits. Running dot itself is left out, as it
+ * depends on the graphviz installation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Pig2DotGeneratorBenchmark {
+
+    /** Exposes the graph generation step. */
+    static class GraphGenerator extends Pig2DotGenerator {
+        GraphGenerator(P2jPlan plan) {
+            super(plan, Renderer.JAVA);
+        }
+
+        Graph graph() {
+            return generateGraph();
+        }
+    }
+
+    @Param({ "test.pig", "generated-500", "generated-5000" })
+    public String plan;
+
+    @Param({ "20" })
+    public int columns;
+
+    protected GraphGenerator generator;
+    protected GraphGenerator cachedGenerator;
+    protected GraphGenerator incrementalGenerator;
+
+    @Setup
+    public void setUp() throws Exception {
+        PlanFixtures.CompiledPlan compiled = PlanFixtures.compile(plan, columns);
+        P2jPlanGenerator p2j = new P2jPlanGenerator(compiled.logicalPlan);
+        P2jPlan p2jPlan = new MRPlanCalculator(p2j.getP2jPlan(), compiled.mrPlan,
+                                               compiled.phy2LogMap, p2j.getReverseMap()).getP2jPlan();
+        generator = new GraphGenerator(p2jPlan);
+        generator.setCache(null);
+        generator.setIncremental(false);
+        cachedGenerator = new GraphGenerator(p2jPlan);
+        cachedGenerator.setCache(new SvgCache(1, Long.MAX_VALUE));
+        cachedGenerator.generatePlan("svg");
+        p2jPlan.setSvg(generator.generatePlan("svg"));
+        incrementalGenerator = new GraphGenerator(p2jPlan);
+        incrementalGenerator.setCache(null);
+    }
+
+    @Benchmark
+    public Graph generateGraph() {
+        return generator.graph();
+    }
+
+    @Benchmark
+    public String generateSvg() throws Exception {
+        return generator.generatePlan("svg");
+    }
+
+    @Benchmark
+    public String incrementalSvg() throws Exception {
+        return incrementalGenerator.generatePlan("svg");
+    }
+
+    @Benchmark
+    public String cachedSvg() throws Exception {
+        return cachedGenerator.generatePlan("svg");
+    }
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.pig.LipstickPigServer;
+import org.apache.pig.PigServer;
+import org.apache.pig.backend.hadoop.executionengine.HExecutionEngine;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MRCompiler;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.newplan.Operator;
+import org.apache.pig.newplan.logical.relational.LogicalPlan;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Builds the Pig plans the benchmarks run on.
+ *
+ * A plan is named either after a script in lipstick-console's test
+ * resources, e.g. "test.pig", or "generated-N" for a synthetic script of
+ * roughly N logical operators.
+ */
+public final class PlanFixtures {
+
+    private static final String GENERATED = "generated-";
+
+    private PlanFixtures() { }
+
+    /**
+     * A logical plan compiled down to a map/reduce plan.
+     */
+    public static class CompiledPlan {
+        public final LipstickPigServer server;
+        public final LogicalPlan logicalPlan;
+        public final MROperPlan mrPlan;
+        public final Map<PhysicalOperator, Operator> phy2LogMap;
+
+        CompiledPlan(LipstickPigServer server, LogicalPlan logicalPlan,
+                     MROperPlan mrPlan, Map<PhysicalOperator, Operator> phy2LogMap) {
+            this.server = server;
+            this.logicalPlan = logicalPlan;
+            this.mrPlan = mrPlan;
+            this.phy2LogMap = phy2LogMap;
+        }
+    }
+
+    /**
+     * Returns the text of the named script.
+     *
+     * @param name a fixture name or generated-N
+     * @param columns the number of columns in generated scripts
+     * @return
+     * @throws IOException
+     */
+    public static String script(String name, int columns) throws IOException {
+        if (name.startsWith(GENERATED)) {
+            return generateScript(Integer.parseInt(name.substring(GENERATED.length())), columns);
+        }
+        InputStream in = PlanFixtures.class.getResourceAsStream("/" + name);
+        if (in == null) {
+            throw new IOException("No such fixture: " + name);
+        }
+        try {
+            return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Registers the named script with a new local LipstickPigServer.
+     *
+     * @param name a fixture name or generated-N
+     * @param columns the number of columns in generated scripts
+     * @return
+     * @throws IOException
+     */
+    public static LipstickPigServer register(String name, int columns) throws IOException {
+        LipstickPigServer lps = new LipstickPigServer("local");
+        lps.setBatchOn();
+        lps.registerScript(new ByteArrayInputStream(script(name, columns).getBytes(Charsets.UTF_8)));
+        return lps;
+    }
+
+    /**
+     * Returns the unoptimized logical plan of the named script.
+     *
+     * @param name a fixture name or generated-N
+     * @param columns the number of columns in generated scripts
+     * @return
+     * @throws IOException
+     */
+    public static LogicalPlan logicalPlan(String name, int columns) throws IOException {
+        return register(name, columns).getLP(null);
+    }
+
+    /**
+     * Compiles the named script the way LipstickPigServer does before
+     * launching it: the logical plan is optimized and compiled to a physical
+     * plan, and then to a map/reduce plan.
+     *
+     * @param name a fixture name or generated-N
+     * @param columns the number of columns in generated scripts
+     * @return
+     * @throws IOException
+     */
+    public static CompiledPlan compile(String name, int columns) throws IOException {
+        LipstickPigServer lps = register(name, columns);
+        LogicalPlan lp = compiledLogicalPlan(lps);
+        HExecutionEngine he = (HExecutionEngine) lps.getPigContext().getExecutionEngine();
+        PhysicalPlan pp = he.compile(lp, lps.getPigContext().getProperties());
+
+        Map<PhysicalOperator, Operator> p2lMap = Maps.newHashMap();
+        for (Entry<Operator, PhysicalOperator> e : he.getLogToPhyMap().entrySet()) {
+            p2lMap.put(e.getValue(), e.getKey());
+        }
+
+        try {
+            MRCompiler mrc = new MRCompiler(pp, lps.getPigContext());
+            mrc.compile();
+            return new CompiledPlan(lps, lp, mrc.getMRPlan(), p2lMap);
+        } catch (Exception e) {
+            throw new IOException("Failed to compile " + name, e);
+        }
+    }
+
+    /**
+     * Returns the logical plan of the current batch after the Graph has
+     * compiled it, which inserts the implicit splits MRCompiler relies on.
+     * The Graph keeps these steps private, so they are invoked reflectively.
+     */
+    private static LogicalPlan compiledLogicalPlan(LipstickPigServer lps) throws IOException {
+        try {
+            Field f = PigServer.class.getDeclaredField("currDAG");
+            f.setAccessible(true);
+            Object graph = f.get(lps);
+            invoke(graph, "parseQuery", new Class<?>[0]);
+            invoke(graph, "buildPlan", new Class<?>[] { String.class }, (Object) null);
+            invoke(graph, "compile", new Class<?>[0]);
+            return (LogicalPlan) invoke(graph, "getPlan", new Class<?>[] { String.class }, (Object) null);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to compile logical plan", e);
+        }
+    }
+
+    private static Object invoke(Object target, String name, Class<?>[] types, Object... args) throws Exception {
+        Method m = target.getClass().getDeclaredMethod(name, types);
+        m.setAccessible(true);
+        return m.invoke(target, args);
+    }
+
+    /**
+     * Generates a script of about operators logical operators over relations
+     * with the given number of columns. Chains of foreach, filter and limit
+     * statements are broken up by joins and groups, so the plan compiles to
+     * several map/reduce jobs, and intermediate results are stored along
+     * the way. Relations have at least two columns.
+     *
+     * @param operators
+     * @param columns
+     * @return
+     */
+    public static String generateScript(int operators, int columns) {
+        columns = Math.max(columns, 2);
+        StringBuilder script = new StringBuilder();
+        script.append("r0 = load 'input' as (").append(schema(columns)).append(");\n");
+        int count = 1;
+        int rel = 0;
+        while (count < operators) {
+            String prev = "r" + rel;
+            String next = "r" + (++rel);
+            switch (rel % 8) {
+            case 1:
+            case 5:
+                script.append(next).append(" = foreach ").append(prev).append(" generate ");
+                for (int c = 0; c < columns; c++) {
+                    if (c > 0) {
+                        script.append(", ");
+                    }
+                    if (c % 2 == 0) {
+                        script.append("(c").append(c).append(" > 0 ? c").append(c).append(" * 2 : c")
+                              .append(c).append(" + 1) as c").append(c);
+                    } else {
+                        script.append("UPPER(c").append(c).append(") as c").append(c);
+                    }
+                }
+                script.append(";\n");
+                count++;
+                break;
+            case 2:
+            case 6:
+                script.append(next).append(" = filter ").append(prev)
+                      .append(" by c0 > ").append(rel)
+                      .append(" and (c1 == 'x").append(rel).append("' or c0 % 3 == 0);\n");
+                count++;
+                break;
+            case 3:
+                String side = "s" + rel;
+                String joined = "j" + rel;
+                script.append(side).append(" = load 'side").append(rel).append("' as (k:int, v:chararray);\n");
+                script.append(joined).append(" = join ").append(prev).append(" by c0, ")
+                      .append(side).append(" by k;\n");
+                script.append(next).append(" = foreach ").append(joined).append(" generate ");
+                for (int c = 0; c < columns; c++) {
+                    if (c > 0) {
+                        script.append(", ");
+                    }
+                    script.append(prev).append("::c").append(c).append(" as c").append(c);
+                }
+                script.append(";\n");
+                count += 3;
+                break;
+            case 4:
+                String grouped = "g" + rel;
+                script.append(grouped).append(" = group ").append(prev).append(" by c1;\n");
+                script.append(next).append(" = foreach ").append(grouped).append(" generate flatten(")
+                      .append(prev).append(") as (").append(schema(columns)).append(");\n");
+                count += 2;
+                break;
+            case 7:
+                script.append(next).append(" = limit ").append(prev).append(" 1000;\n");
+                count++;
+                break;
+            default:
+                script.append(next).append(" = distinct ").append(prev).append(";\n");
+                script.append("store ").append(next).append(" into 'output").append(rel).append("';\n");
+                count += 2;
+                break;
+            }
+        }
+        script.append("store r").append(rel).append(" into 'output';\n");
+        return script.toString();
+    }
+
+    private static String schema(int columns) {
+        StringBuilder schema = new StringBuilder();
+        for (int c = 0; c < columns; c++) {
+            if (c > 0) {
+                schema.append(", ");
+            }
+            schema.append('c').append(c).append(c % 2 == 0 ? ":int" : ":chararray");
+        }
+        return schema.toString();
+    }
+}
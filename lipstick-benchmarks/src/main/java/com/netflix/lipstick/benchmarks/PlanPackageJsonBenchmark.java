@@ -0,0 +1,86 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.netflix.lipstick.MRStageIndex;
+import com.netflix.lipstick.MRPlanCalculator;
+import com.netflix.lipstick.P2jPlanGenerator;
+import com.netflix.lipstick.model.P2jPlan;
+import com.netflix.lipstick.model.P2jPlanPackage;
+
+/**
+ * Jackson serialization of the plan package sent to the Lipstick server
+ * when a script starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PlanPackageJsonBenchmark {
+
+    @Param({ "test.pig", "generated-500", "generated-5000" })
+    public String plan;
+
+    @Param({ "20", "300" })
+    public int columns;
+
+    protected P2jPlanPackage plans;
+    protected ObjectWriter writer;
+    protected ObjectReader reader;
+    protected byte[] json;
+
+    @Setup
+    public void setUp() throws Exception {
+        P2jPlanGenerator unoptimized = new P2jPlanGenerator(PlanFixtures.logicalPlan(plan, columns));
+        PlanFixtures.CompiledPlan compiled = PlanFixtures.compile(plan, columns);
+        P2jPlanGenerator optimized = new P2jPlanGenerator(compiled.logicalPlan);
+
+        MRStageIndex stageIndex = new MRStageIndex(compiled.mrPlan, compiled.phy2LogMap);
+        P2jPlan opPlan = new MRPlanCalculator(optimized.getP2jPlan(), stageIndex,
+                                              optimized.getReverseMap()).getP2jPlan();
+        P2jPlan unopPlan = new MRPlanCalculator(unoptimized.getP2jPlan(), stageIndex,
+                                                unoptimized.getReverseMap()).getP2jPlan();
+        plans = new P2jPlanPackage(opPlan, unopPlan, PlanFixtures.script(plan, columns), "benchmark");
+
+        ObjectMapper om = new ObjectMapper();
+        writer = om.writer();
+        reader = om.reader(P2jPlanPackage.class);
+        json = writer.writeValueAsBytes(plans);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return writer.writeValueAsBytes(plans);
+    }
+
+    @Benchmark
+    public P2jPlanPackage deserialize() throws Exception {
+        return reader.readValue(json);
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.common.collect.Maps;
+import com.netflix.lipstick.model.P2jCounters;
+import com.netflix.lipstick.model.P2jJobStatus;
+import com.netflix.lipstick.model.P2jPlanStatus;
+
+/**
+ * Merging of job status updates into a plan status, as done on every
+ * progress update.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlanStatusBenchmark {
+
+    @Param({ "10", "200" })
+    public int jobs;
+
+    @Param({ "50" })
+    public int counters;
+
+    protected P2jPlanStatus status;
+    protected P2jPlanStatus update;
+
+    @Setup
+    public void setUp() {
+        status = createStatus(0.25f);
+        update = createStatus(0.5f);
+    }
+
+    protected P2jPlanStatus createStatus(float progress) {
+        P2jPlanStatus planStatus = new P2jPlanStatus();
+        planStatus.setProgress((int) (progress * 100));
+        for (int j = 0; j < jobs; j++) {
+            P2jJobStatus job = new P2jJobStatus();
+            job.setJobId("job_" + j);
+            job.setScope("scope-" + j);
+            job.setMapProgress(progress);
+            job.setReduceProgress(progress / 2);
+            Map<String, P2jCounters> groups = Maps.newHashMap();
+            P2jCounters group = new P2jCounters();
+            for (int c = 0; c < counters; c++) {
+                group.getCounters().put("COUNTER_" + c, (long) (c * progress * 1000));
+            }
+            groups.put("org.apache.hadoop.mapreduce.TaskCounter", group);
+            job.setCounters(groups);
+            planStatus.updateWith(job);
+        }
+        return planStatus;
+    }
+
+    @Benchmark
+    public P2jPlanStatus updateWith() {
+        return status.updateWith(update);
+    }
+}
@@ -15,6 +15,10 @@
  */
 package com.netflix.lipstick;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -22,23 +26,20 @@ import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator.OriginalLocation;
-import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
-import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PODemux;
-import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
-import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPreCombinerLocalRearrange;
-import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSplit;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
 import org.apache.pig.impl.io.FileSpec;
 import org.apache.pig.newplan.Operator;
 import org.apache.pig.newplan.logical.relational.LogicalRelationalOperator;
 
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
+import com.google.common.collect.Table;
 import com.netflix.lipstick.model.P2jPlan;
 import com.netflix.lipstick.model.operators.P2jLOStore;
 import com.netflix.lipstick.model.operators.P2jLogicalRelationalOperator;
@@ -55,10 +56,12 @@ public class MRPlanCalculator {
 
     protected MROperPlan mrp;
     protected Map<PhysicalOperator, Operator> phy2LogMap;
+    protected MRStageIndex stageIndex;
     protected Map<String, P2jLogicalRelationalOperator> p2jMap;
     protected P2jPlan p2jPlan;
     protected Map<Operator, String> reverseMap;
     protected Map<String, Operator> locationMap;
+    protected Table<String, String, P2jLOStore> storeIndex;
 
     /**
      * Possible map/reduce job phases.
@@ -85,12 +88,32 @@ public class MRPlanCalculator {
                             MROperPlan mrp,
                             Map<PhysicalOperator, Operator> phy2LogMap,
                             Map<Operator, String> reverseMap) {
-        this.mrp = mrp;
-        this.phy2LogMap = phy2LogMap;
+        this(p2jPlan, new MRStageIndex(mrp, phy2LogMap), reverseMap);
+    }
+
+    /**
+     * Instantiates a new map/reduce plan calculator from an index of the
+     * map/reduce plan, which may be shared with other calculators. Assigns
+     * map/reduce plans to p2jPlan.
+     *
+     * @param p2jPlan
+     *            the P2jPlan
+     * @param stageIndex
+     *            the index of the MROperPlan
+     * @param reverseMap
+     *            reverse map of logical operator to operator uid
+     */
+    public MRPlanCalculator(P2jPlan p2jPlan,
+                            MRStageIndex stageIndex,
+                            Map<Operator, String> reverseMap) {
+        this.mrp = stageIndex.getMROperPlan();
+        this.phy2LogMap = stageIndex.getPhy2LogMap();
+        this.stageIndex = stageIndex;
         this.p2jMap = p2jPlan.getPlan();
         this.p2jPlan = p2jPlan;
         this.reverseMap = reverseMap;
         this.locationMap = generateLocationMap();
+        this.storeIndex = generateStoreIndex();
         p2jPlan.setPlan(assignMRStagesToNodes());
     }
 
@@ -121,9 +144,30 @@ public class MRPlanCalculator {
         return locationMap;
     }
 
+    /**
+     * Generate a table of the store operators in p2jMap, keyed by storage
+     * location and storage function. When several stores share both, the
+     * first one in p2jMap wins.
+     *
+     * @return table of location and function to store operator
+     */
+    protected Table<String, String, P2jLOStore> generateStoreIndex() {
+        Table<String, String, P2jLOStore> index = HashBasedTable.create();
+        for (P2jLogicalRelationalOperator op : p2jMap.values()) {
+            if (op instanceof P2jLOStore) {
+                P2jLOStore store = (P2jLOStore) op;
+                if (store.getStorageLocation() != null && store.getStorageFunction() != null
+                    && !index.contains(store.getStorageLocation(), store.getStorageFunction())) {
+                    index.put(store.getStorageLocation(), store.getStorageFunction(), store);
+                }
+            }
+        }
+        return index;
+    }
+
     /**
      * Assign map/reduce jobs to P2jLogicalRelationalOperators, first by
-     * iterating through the MROperPlan and mapping physical operators to
+     * iterating through the indexed physical operators and mapping them to
      * P2jLogicalRelationalOperators. Finally assign operators that could not be
      * mapped by using information from the unassigned operators successors and
      * predecessors via assignMRStagesToUnknownNodes.
@@ -131,11 +175,8 @@ public class MRPlanCalculator {
      * @return the p2jMap with map/reduce jobs assigned to all nodes
      */
     protected Map<String, P2jLogicalRelationalOperator> assignMRStagesToNodes() {
-        for (MapReduceOper job : mrp) {
-            String jid = job.getOperatorKey().toString();
-            assignMRStagesToPlan(job.mapPlan, jid, MRStepType.MAPPER);
-            assignMRStagesToPlan(job.reducePlan, jid, MRStepType.REDUCER);
-            assignMRStagesToPlan(job.combinePlan, jid, MRStepType.COMBINER);
+        for (MRStageIndex.Stage stage : stageIndex.getStages()) {
+            assignMRStage(stage);
         }
         // assign to the operators that were not assigned previously
         assignMRStagesToUnknownNodes();
@@ -152,71 +193,38 @@ public class MRPlanCalculator {
      */
     protected P2jLogicalRelationalOperator getOpForStore(POStore pop) {
         FileSpec pofs = pop.getSFile();
-        for (Entry<String, P2jLogicalRelationalOperator> entry : p2jMap.entrySet()) {
-            if (entry.getValue() instanceof P2jLOStore) {
-                P2jLOStore store = (P2jLOStore) entry.getValue();
-                if (store.getStorageLocation().equals(pofs.getFileName())
-                    && pofs.getFuncName().endsWith(store.getStorageFunction())) {
-                    return store;
-                }
+        if (pofs == null || pofs.getFileName() == null) {
+            return null;
+        }
+        Map<String, P2jLOStore> stores = storeIndex.row(pofs.getFileName());
+        if (stores.isEmpty()) {
+            return null;
+        }
+        String funcName = pofs.getFuncName();
+        P2jLOStore store = stores.get(funcName.substring(funcName.lastIndexOf('.') + 1));
+        if (store != null) {
+            return store;
+        }
+        for (P2jLOStore candidate : stores.values()) {
+            if (funcName.endsWith(candidate.getStorageFunction())) {
+                return candidate;
             }
         }
         return null;
     }
 
     /**
-     * Assign map/reduce job and step to logical operators identifiable through
-     * a physical plan.
+     * Given an indexed physical operator, attempts to map it to a logical
+     * operator. If a suitable mapping can be found, assign the stage's map
+     * reduce phase to the logical operator.
      *
-     * @param pp
-     *            the PhysicalPlan
-     * @param jid
-     *            a string representing the M/R job id of the plan
-     * @param stepType
-     *            map/reduce phase for the physical plan
+     * @param stage
+     *            the physical operator with its map/reduce job id and step
      */
-    protected void assignMRStagesToPlan(PhysicalPlan pp, String jid, MRStepType stepType) {
-        for (PhysicalOperator pop : pp) {
-            assignMRStage(pop, jid, stepType);
-        }
-    }
-
-    /**
-     * Given a physical operator, attempts to map it to a logical operator. If a
-     * suitable mapping can be found, assign map reduce phase "jid, stepType" to
-     * the logical operator.
-     *
-     * @param pop
-     *            the physical operator
-     * @param jid
-     *            the map/reduce job id
-     * @param stepType
-     *            the map/reduce step (MAPPER, REDUCER, COMBINER, UNKNOWN)
-     */
-    protected void assignMRStage(PhysicalOperator pop, String jid, MRStepType stepType) {
-
-        // special cases - find other operators inside these that need to be
-        // assigned
-       
-        if (pop instanceof POLocalRearrange) {
-            for (PhysicalPlan ipl : ((POLocalRearrange) pop).getPlans()) {
-                assignMRStagesToPlan(ipl, jid, stepType);
-            }
-        } else if (pop instanceof PODemux) {
-            for (PhysicalPlan ipl : ((PODemux) pop).getPlans()) {
-                assignMRStagesToPlan(ipl, jid, stepType);
-            }
-        } else if (pop instanceof POPreCombinerLocalRearrange) {
-            for (PhysicalPlan ipl : ((POPreCombinerLocalRearrange) pop).getPlans()) {
-                assignMRStagesToPlan(ipl, jid, stepType);
-            }       
-        } else if (pop instanceof POSplit) {
-            for (PhysicalPlan ipl : ((POSplit) pop).getPlans()) {
-                assignMRStagesToPlan(ipl, jid, stepType);
-            }
-        }
-
-        String stepTypeString = stepType.toString();
+    protected void assignMRStage(MRStageIndex.Stage stage) {
+        PhysicalOperator pop = stage.getPhysicalOperator();
+        String jid = stage.getJobId();
+        String stepTypeString = stage.getStepType().toString();
 
         if (pop instanceof POStore) {
             P2jLogicalRelationalOperator node = getOpForStore((POStore) pop);
@@ -224,8 +232,8 @@ public class MRPlanCalculator {
                 node.setMapReduce(jid, stepTypeString);
                 return;
             }
-        } else if (phy2LogMap.containsKey(pop) && reverseMap.containsKey(phy2LogMap.get(pop))) {
-            String nodeId = reverseMap.get(phy2LogMap.get(pop));
+        } else if (stage.getLogicalOperator() != null && reverseMap.containsKey(stage.getLogicalOperator())) {
+            String nodeId = reverseMap.get(stage.getLogicalOperator());
             P2jLogicalRelationalOperator node = p2jMap.get(nodeId);
             node.setMapReduce(jid, stepTypeString);
             LOG.debug("Found key for: " + pop.toString());
@@ -233,10 +241,10 @@ public class MRPlanCalculator {
         } else {
             LOG.debug("No node for pop: " + pop + pop.getClass() + " ... Searching locationMap.");
             boolean didAssign = false;
-            for (OriginalLocation loc : pop.getOriginalLocations()) {
+            for (String loc : stage.getLocations()) {
                 LOG.debug("Checking location: " + loc);
-                if (locationMap.containsKey(loc.toString())) {
-                    P2jLogicalRelationalOperator node = p2jMap.get(reverseMap.get(locationMap.get(loc.toString())));
+                if (locationMap.containsKey(loc)) {
+                    P2jLogicalRelationalOperator node = p2jMap.get(reverseMap.get(locationMap.get(loc)));
                     LOG.debug("Found location... " + node);
                     if (node.getMapReduce() == null) {
                         if (node.getOperator().equalsIgnoreCase("LOJoin")
@@ -260,40 +268,47 @@ public class MRPlanCalculator {
      * Assign map/reduce jobs to previously unassigned
      * P2jLogicalRelationalOperators in the plan, using information from the
      * operator's successors and predecessors.
-     */
-    protected void assignMRStagesToUnknownNodes() {
-        for (P2jLogicalRelationalOperator node : p2jMap.values()) {
-            if (node.getMapReduce() == null || node.getMapReduce().getJobId() == null) {
-                String jobId = resolveJobForNode(node);
-                if (jobId != null) {
-                    node.setMapReduce(jobId, MRStepType.UNKNOWN.toString());
-                }
-            }
-        }
-    }
-
-    /**
-     * Attempts to determine a map/reduce job that is responsible for a
-     * P2jLogicalOperator, via the job information from the operator's
-     * predecessors and successors.
      *
-     * @param node
-     *            the P2jLogicalRelationalOperator
-     * @return a String representing the map/reduce job id
+     * The jobs reachable from each unassigned operator are computed up front,
+     * in one pass over the plan in topological order for predecessors and one
+     * in reverse order for successors, so every operator is visited once per
+     * direction. Resolution only considers the jobs assigned from the
+     * physical plan, not the ones guessed here for other unassigned operators.
      */
-    protected String resolveJobForNode(P2jLogicalRelationalOperator node) {
-        Set<String> pred = generateScopesForNode(node, new ScopeGetter() {
+    protected void assignMRStagesToUnknownNodes() {
+        List<String> order = generateTopologicalOrder();
+        Map<String, Set<String>> predScopes = generateScopes(order, new ScopeGetter() {
             @Override
             public List<String> getScopes(P2jLogicalRelationalOperator node) {
                 return node.getPredecessors();
             }
         });
-        Set<String> succ = generateScopesForNode(node, new ScopeGetter() {
+        Map<String, Set<String>> succScopes = generateScopes(Lists.reverse(order), new ScopeGetter() {
             @Override
             public List<String> getScopes(P2jLogicalRelationalOperator node) {
                 return node.getSuccessors();
             }
         });
+        for (Entry<String, Set<String>> entry : predScopes.entrySet()) {
+            String jobId = resolveJob(entry.getValue(), succScopes.get(entry.getKey()));
+            if (jobId != null) {
+                p2jMap.get(entry.getKey()).setMapReduce(jobId, MRStepType.UNKNOWN.toString());
+            }
+        }
+    }
+
+    /**
+     * Attempts to determine a map/reduce job that is responsible for a
+     * P2jLogicalOperator, via the jobs reachable from the operator's
+     * predecessors and successors.
+     *
+     * @param pred
+     *            the jobs reachable through the operator's predecessors
+     * @param succ
+     *            the jobs reachable through the operator's successors
+     * @return a String representing the map/reduce job id
+     */
+    protected String resolveJob(Set<String> pred, Set<String> succ) {
         SetView<String> intersect = Sets.intersection(pred, succ);
         if (intersect.size() > 0) {
             return intersect.iterator().next();
@@ -312,26 +327,111 @@ public class MRPlanCalculator {
     }
 
     /**
-     * Generate the set of map reduce jobs accessible from node in the direction
-     * defined by ScopeGetter.
+     * Order the operator ids in p2jMap so that every operator comes after its
+     * predecessors. Operators that are part of a cycle, should there be any,
+     * are appended in p2jMap order.
+     *
+     * @return list of operator ids in topological order
+     */
+    protected List<String> generateTopologicalOrder() {
+        Map<String, Integer> pending = Maps.newHashMapWithExpectedSize(p2jMap.size());
+        Map<String, List<String>> children = Maps.newHashMapWithExpectedSize(p2jMap.size());
+        Deque<String> ready = new ArrayDeque<String>();
+        for (Entry<String, P2jLogicalRelationalOperator> entry : p2jMap.entrySet()) {
+            int count = 0;
+            for (String pred : neighbors(entry.getValue().getPredecessors())) {
+                List<String> predChildren = children.get(pred);
+                if (predChildren == null) {
+                    predChildren = Lists.newArrayList();
+                    children.put(pred, predChildren);
+                }
+                predChildren.add(entry.getKey());
+                count++;
+            }
+            pending.put(entry.getKey(), count);
+            if (count == 0) {
+                ready.add(entry.getKey());
+            }
+        }
+
+        List<String> order = Lists.newArrayListWithCapacity(p2jMap.size());
+        while (!ready.isEmpty()) {
+            String id = ready.poll();
+            order.add(id);
+            List<String> idChildren = children.get(id);
+            if (idChildren != null) {
+                for (String child : idChildren) {
+                    int count = pending.get(child) - 1;
+                    pending.put(child, count);
+                    if (count == 0) {
+                        ready.add(child);
+                    }
+                }
+            }
+        }
+
+        if (order.size() < p2jMap.size()) {
+            LOG.warn("Plan contains a cycle, resolving remaining operators in plan order");
+            for (String id : p2jMap.keySet()) {
+                if (pending.get(id) > 0) {
+                    order.add(id);
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Generate the set of map reduce jobs accessible from every unassigned
+     * node in the direction defined by ScopeGetter. Each node is visited
+     * once; order must list a node's neighbors in that direction before the
+     * node itself.
      *
-     * @param node
-     *            the P2jLogicalRelationalOperator to search from
+     * @param order
+     *            the operator ids to visit
      * @param scopeGetter
      *            the ScopeGetter defining the direction of the search
-     * @return a set of map/reduce job scopes
+     * @return map of unassigned operator id to its set of map/reduce job scopes
      */
-    protected Set<String> generateScopesForNode(P2jLogicalRelationalOperator node, ScopeGetter scopeGetter) {
-        Set<String> scopes = Sets.newHashSet();
-        for (String id : scopeGetter.getScopes(node)) {
-            P2jLogicalRelationalOperator job = p2jMap.get(id);
-            if (job.getMapReduce() != null && job.getMapReduce().getJobId() != null) {
-                scopes.add(job.getMapReduce().getJobId());
-            } else {
-                scopes.addAll(generateScopesForNode(job, scopeGetter));
+    protected Map<String, Set<String>> generateScopes(List<String> order, ScopeGetter scopeGetter) {
+        Map<String, Set<String>> scopes = new LinkedHashMap<String, Set<String>>();
+        for (String id : order) {
+            P2jLogicalRelationalOperator node = p2jMap.get(id);
+            if (hasJob(node)) {
+                continue;
             }
+            Set<String> nodeScopes = Sets.newHashSet();
+            for (String neighbor : neighbors(scopeGetter.getScopes(node))) {
+                P2jLogicalRelationalOperator op = p2jMap.get(neighbor);
+                if (hasJob(op)) {
+                    nodeScopes.add(op.getMapReduce().getJobId());
+                } else if (scopes.containsKey(neighbor)) {
+                    nodeScopes.addAll(scopes.get(neighbor));
+                }
+            }
+            scopes.put(id, nodeScopes);
         }
         return scopes;
     }
 
+    /**
+     * Returns the ids in ids that refer to operators in p2jMap.
+     */
+    protected List<String> neighbors(List<String> ids) {
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        List<String> known = Lists.newArrayListWithCapacity(ids.size());
+        for (String id : ids) {
+            if (p2jMap.containsKey(id)) {
+                known.add(id);
+            }
+        }
+        return known;
+    }
+
+    protected static boolean hasJob(P2jLogicalRelationalOperator node) {
+        return node.getMapReduce() != null && node.getMapReduce().getJobId() != null;
+    }
+
 }
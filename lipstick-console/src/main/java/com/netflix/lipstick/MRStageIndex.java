@@ -0,0 +1,164 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator.OriginalLocation;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.PODemux;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POPreCombinerLocalRearrange;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POSplit;
+import org.apache.pig.newplan.Operator;
+
+import com.google.common.collect.Lists;
+import com.netflix.lipstick.MRPlanCalculator.MRStepType;
+
+/**
+ * Index of the physical operators in a map/reduce plan and the job and
+ * step each one runs in.
+ *
+ * The MROperPlan is walked once, including the plans nested inside local
+ * rearranges, demuxes and splits, and the result can be shared by every
+ * MRPlanCalculator working on the same plan, e.g. for the optimized and
+ * unoptimized P2jPlans.
+ */
+public class MRStageIndex {
+
+    /**
+     * A physical operator together with the map/reduce job and step it
+     * belongs to.
+     */
+    public static class Stage {
+        protected final PhysicalOperator pop;
+        protected final String jobId;
+        protected final MRStepType stepType;
+        protected final Operator logicalOp;
+        protected final List<String> locations;
+
+        public Stage(PhysicalOperator pop, String jobId, MRStepType stepType, Operator logicalOp) {
+            this.pop = pop;
+            this.jobId = jobId;
+            this.stepType = stepType;
+            this.logicalOp = logicalOp;
+            List<String> locations = Lists.newArrayList();
+            if (pop.getOriginalLocations() != null) {
+                for (OriginalLocation loc : pop.getOriginalLocations()) {
+                    locations.add(loc.toString());
+                }
+            }
+            this.locations = Collections.unmodifiableList(locations);
+        }
+
+        public PhysicalOperator getPhysicalOperator() {
+            return pop;
+        }
+
+        public String getJobId() {
+            return jobId;
+        }
+
+        public MRStepType getStepType() {
+            return stepType;
+        }
+
+        /**
+         * @return the logical operator pop was compiled from, or null if unknown
+         */
+        public Operator getLogicalOperator() {
+            return logicalOp;
+        }
+
+        /**
+         * @return the string form of pop's original script locations
+         */
+        public List<String> getLocations() {
+            return locations;
+        }
+    }
+
+    protected final MROperPlan mrp;
+    protected final Map<PhysicalOperator, Operator> phy2LogMap;
+    protected final List<Stage> stages = Lists.newArrayList();
+
+    /**
+     * Instantiates a new index of the physical operators in mrp.
+     *
+     * @param mrp
+     *            the MROperPlan
+     * @param phy2LogMap
+     *            physical to logical operator map
+     */
+    public MRStageIndex(MROperPlan mrp, Map<PhysicalOperator, Operator> phy2LogMap) {
+        this.mrp = mrp;
+        this.phy2LogMap = phy2LogMap;
+        for (MapReduceOper job : mrp) {
+            String jid = job.getOperatorKey().toString();
+            addPlan(job.mapPlan, jid, MRStepType.MAPPER);
+            addPlan(job.reducePlan, jid, MRStepType.REDUCER);
+            addPlan(job.combinePlan, jid, MRStepType.COMBINER);
+        }
+    }
+
+    /**
+     * Get the indexed operators, in plan order. Operators nested inside
+     * another operator are listed before it.
+     *
+     * @return
+     */
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    public MROperPlan getMROperPlan() {
+        return mrp;
+    }
+
+    public Map<PhysicalOperator, Operator> getPhy2LogMap() {
+        return phy2LogMap;
+    }
+
+    protected void addPlan(PhysicalPlan pp, String jid, MRStepType stepType) {
+        for (PhysicalOperator pop : pp) {
+            addOperator(pop, jid, stepType);
+        }
+    }
+
+    protected void addOperator(PhysicalOperator pop, String jid, MRStepType stepType) {
+        List<PhysicalPlan> nested = null;
+        if (pop instanceof POLocalRearrange) {
+            nested = ((POLocalRearrange) pop).getPlans();
+        } else if (pop instanceof PODemux) {
+            nested = ((PODemux) pop).getPlans();
+        } else if (pop instanceof POPreCombinerLocalRearrange) {
+            nested = ((POPreCombinerLocalRearrange) pop).getPlans();
+        } else if (pop instanceof POSplit) {
+            nested = ((POSplit) pop).getPlans();
+        }
+        if (nested != null) {
+            for (PhysicalPlan ipl : nested) {
+                addPlan(ipl, jid, stepType);
+            }
+        }
+        stages.add(new Stage(pop, jid, stepType, phy2LogMap.get(pop)));
+    }
+}
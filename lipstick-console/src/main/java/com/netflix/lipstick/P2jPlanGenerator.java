@@ -19,6 +19,11 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.pig.impl.logicalLayer.FrontendException;
 import org.apache.pig.newplan.Operator;
@@ -34,6 +39,7 @@ import org.apache.pig.newplan.logical.relational.LogicalRelationalOperator;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.netflix.lipstick.adaptors.LOCogroupJsonAdaptor;
 import com.netflix.lipstick.adaptors.LOFilterJsonAdaptor;
 import com.netflix.lipstick.adaptors.LOJoinJsonAdaptor;
@@ -67,12 +73,88 @@ public class P2jPlanGenerator {
      *             the frontend exception
      */
     public P2jPlanGenerator(LogicalPlan lp) throws FrontendException {
+        this(lp, 1);
+    }
+
+    /**
+     * Instantiates a new p2j plan generator, converting operators on up to
+     * threads threads. Generates reverseMap and p2jPlan.
+     *
+     * @param lp
+     *            the logical plan
+     * @param threads
+     *            the number of threads to convert operators on, 1 to convert
+     *            them on the calling thread
+     * @throws FrontendException
+     *             the frontend exception
+     */
+    public P2jPlanGenerator(LogicalPlan lp, int threads) throws FrontendException {
         reverseMap = generateReverseMap(lp);
-        Map<String, P2jLogicalRelationalOperator> nodeMap = Maps.newHashMap();
-        for (Entry<Operator, String> entry : reverseMap.entrySet()) {
-            nodeMap.put(entry.getValue(), convertNodeToP2j((LogicalRelationalOperator) entry.getKey(), lp, reverseMap));
+        Map<String, P2jLogicalRelationalOperator> nodeMap;
+        if (threads > 1 && reverseMap.size() > 1) {
+            nodeMap = convertNodesInParallel(lp, Math.min(threads, reverseMap.size()));
+        } else {
+            nodeMap = Maps.newHashMapWithExpectedSize(reverseMap.size());
+            for (Entry<Operator, String> entry : reverseMap.entrySet()) {
+                nodeMap.put(entry.getValue(), convertNodeToP2j((LogicalRelationalOperator) entry.getKey(), lp, reverseMap));
+            }
         }
         p2jPlan = new P2jPlan(nodeMap);
+        p2jPlan.internSchemas();
+    }
+
+    /**
+     * Convert every operator in reverseMap on a pool of threads. Operator
+     * schemas are computed and cached on the calling thread first, since
+     * Pig computes them lazily and an operator's schema depends on its
+     * predecessors'. After that each conversion only touches its own
+     * operator. Results are merged in reverseMap order.
+     *
+     * @param lp
+     *            the logical plan
+     * @param threads
+     *            the number of threads to use
+     * @return map of p2j operator id to converted operator
+     * @throws FrontendException
+     */
+    protected Map<String, P2jLogicalRelationalOperator> convertNodesInParallel(final LogicalPlan lp, int threads)
+            throws FrontendException {
+        for (Operator op : reverseMap.keySet()) {
+            ((LogicalRelationalOperator) op).getSchema();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setNameFormat("lipstick-plan-generator-%d").setDaemon(true).build());
+        try {
+            List<Future<P2jLogicalRelationalOperator>> futures = Lists.newArrayListWithCapacity(reverseMap.size());
+            for (final Operator op : reverseMap.keySet()) {
+                futures.add(executor.submit(new Callable<P2jLogicalRelationalOperator>() {
+                    @Override
+                    public P2jLogicalRelationalOperator call() throws FrontendException {
+                        return convertNodeToP2j((LogicalRelationalOperator) op, lp, reverseMap);
+                    }
+                }));
+            }
+
+            Map<String, P2jLogicalRelationalOperator> nodeMap = Maps.newHashMapWithExpectedSize(reverseMap.size());
+            Iterator<Future<P2jLogicalRelationalOperator>> results = futures.iterator();
+            for (String id : reverseMap.values()) {
+                nodeMap.put(id, results.next().get());
+            }
+            return nodeMap;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FrontendException("Interrupted while generating p2j plan", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof FrontendException) {
+                throw (FrontendException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new FrontendException("Failed to generate p2j plan", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     /**
@@ -37,6 +37,10 @@ import org.kohsuke.graphviz.Style;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.googlecode.jatl.Html;
+import com.netflix.lipstick.layout.HtmlLabel;
+import com.netflix.lipstick.layout.LayeredLayout;
+import com.netflix.lipstick.layout.SvgReader;
+import com.netflix.lipstick.layout.SvgWriter;
 import com.netflix.lipstick.model.P2jPlan;
 import com.netflix.lipstick.model.operators.P2jLOCogroup;
 import com.netflix.lipstick.model.operators.P2jLOFilter;
@@ -53,6 +57,19 @@ import com.netflix.lipstick.model.operators.elements.SchemaElement;
 /**
  * Transforms P2jPlan into graphviz output.
  *
+ * SVG is rendered in process by default, with a layered layout of the same
+ * node labels and clusters. Other formats, or every format when the
+ * lipstick.graph.renderer system property is set to "dot", are rendered by
+ * running the graphviz dot binary. Rendered graphics are kept in the shared
+ * SvgCache, so plans that did not change are not rendered again.
+ *
+ * When the plan already has an svg, as after combining plans or updating
+ * map/reduce stages, the in process layout keeps the nodes where they are
+ * in that svg, reusing their labels with the header recolored for their
+ * current job, and only lays out and labels the new operators. Set the
+ * lipstick.graph.incremental system property to false to always lay out
+ * plans in full.
+ *
  * @author jmagnusson
  *
  */
@@ -60,6 +77,17 @@ public class Pig2DotGenerator {
 
     private static final Log LOG = LogFactory.getLog(Pig2DotGenerator.class);
 
+    public static final String RENDERER_PROP = "lipstick.graph.renderer";
+    public static final String INCREMENTAL_PROP = "lipstick.graph.incremental";
+
+    /** The available renderers. */
+    public enum Renderer {
+        /** In process layout; renders SVG only. */
+        JAVA,
+        /** The graphviz dot binary. */
+        DOT
+    }
+
     protected static final String BG_CLUSTER = "#E9E9E9";
     protected static final String BG_ALIAS = "#424242";
     protected static final String BG_EXPRESSION = "#BCBCBC";
@@ -70,17 +98,50 @@ public class Pig2DotGenerator {
 
     protected Map<String, P2jLogicalRelationalOperator> p2jMap = null;
     protected P2jPlan p2jPlan;
+    protected Renderer renderer;
+    protected SvgCache cache = SvgCache.getDefault();
+    protected boolean incremental = Boolean.parseBoolean(System.getProperty(INCREMENTAL_PROP, "true"));
 
     /**
-     * Instantiates a new Pig2DotGenerator.
+     * Instantiates a new Pig2DotGenerator using the renderer configured by
+     * the lipstick.graph.renderer system property.
      *
      * @param p2jPlan the P2jPlan to convert to dot / graphical format
      */
     public Pig2DotGenerator(P2jPlan p2jPlan) {
+        this(p2jPlan, getDefaultRenderer());
+    }
+
+    /**
+     * Instantiates a new Pig2DotGenerator.
+     *
+     * @param p2jPlan the P2jPlan to convert to dot / graphical format
+     * @param renderer the renderer to use for svg
+     */
+    public Pig2DotGenerator(P2jPlan p2jPlan, Renderer renderer) {
         this.p2jPlan = p2jPlan;
+        this.renderer = renderer;
         p2jMap = p2jPlan.getPlan();
     }
 
+    /**
+     * Returns the renderer set by the lipstick.graph.renderer system
+     * property, JAVA by default.
+     *
+     * @return
+     */
+    public static Renderer getDefaultRenderer() {
+        String value = System.getProperty(RENDERER_PROP);
+        if (value != null) {
+            try {
+                return Renderer.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Unknown " + RENDERER_PROP + " '" + value + "', using " + Renderer.JAVA);
+            }
+        }
+        return Renderer.JAVA;
+    }
+
     /**
      * Returns the column span for the html representation of a logical operator.
      *
@@ -132,6 +193,10 @@ public class Pig2DotGenerator {
             String operString = oper.getSchemaString();
             for (String predName : oper.getPredecessors()) {
                 P2jLogicalRelationalOperator pred = p2jMap.get(predName);
+                if (pred.getSchemaId() != null && pred.getSchema() == oper.getSchema()) {
+                    // equal interned schemas are the same instance
+                    continue;
+                }
                 try {
                     if (pred.getSchemaString() != null) {
                         String predString = pred.getSchemaString();
@@ -363,6 +428,19 @@ public class Pig2DotGenerator {
         node.attr("shape", "none");
     }
 
+    /**
+     * Returns the id of the subgraph of a logical operator's map/reduce job.
+     *
+     * @param oper the logical operator
+     * @return the subgraph id, or null if the operator has no job
+     */
+    protected String getClusterId(P2jLogicalRelationalOperator oper) {
+        if (oper.getMapReduce() != null && oper.getMapReduce().getJobId() != null) {
+            return "cluster_" + oper.getMapReduce().getJobId().replaceAll("-", "");
+        }
+        return null;
+    }
+
     /**
      * Append a node to the proper subgraph based on map/reduce job.
      *
@@ -377,7 +455,7 @@ public class Pig2DotGenerator {
             jid = oper.getMapReduce().getJobId();
             if (!subgraphs.containsKey(jid)) {
                 Graph g = new Graph();
-                g.id("cluster_" + jid.replaceAll("-", ""));
+                g.id(getClusterId(oper));
                 g.attr("bgcolor", BG_CLUSTER);
                 Style s = new Style();
                 s.attr("rounded");
@@ -433,13 +511,141 @@ public class Pig2DotGenerator {
      * @throws IOException Signals that an I/O exception has occurred.
      */
     public String generatePlan(String format) throws InterruptedException, IOException {
+        String key = null;
+        if (cache != null) {
+            key = getCacheKey(format);
+            String cached = cache.get(key);
+            if (cached != null) {
+                LOG.info("Using cached script graphic of type " + format + ", " + cache);
+                return cached;
+            }
+        }
         LOG.info("Generating script graphic of type " + format);
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        List<String> args = Lists.newArrayList();
-        args.add("dot");
-        args.add("-T" + format);
-        Graph g = generateGraph();
-        g.generateTo(args, os);
-        return os.toString();
+        String graphic;
+        if (renderer == Renderer.JAVA && "svg".equalsIgnoreCase(format)) {
+            graphic = generateSvg();
+        } else {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            List<String> args = Lists.newArrayList();
+            args.add("dot");
+            args.add("-T" + format);
+            Graph g = generateGraph();
+            g.generateTo(args, os);
+            graphic = os.toString();
+        }
+        if (cache != null) {
+            cache.put(key, graphic);
+        }
+        return graphic;
+    }
+
+    /**
+     * Returns the key of the plan's graphic in the cache: the structural
+     * hash of the plan, qualified by generator class, renderer and format.
+     *
+     * @param format the format
+     * @return the cache key
+     */
+    protected String getCacheKey(String format) {
+        return getClass().getName() + ":" + renderer + ":" + format.toLowerCase() + ":"
+               + SvgCache.structuralHash(p2jPlan);
+    }
+
+    /**
+     * Sets the cache for rendered graphics, or null to always render.
+     *
+     * @param cache the cache
+     */
+    public void setCache(SvgCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Sets whether svg is laid out incrementally from the plan's previous
+     * svg, if it has one.
+     *
+     * @param incremental
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Reads the plan's previous svg when laying out incrementally.
+     *
+     * @return the previous drawing, or null to lay out the plan in full
+     */
+    protected SvgReader getPreviousLayout() {
+        if (!incremental || p2jPlan.getSvg() == null) {
+            return null;
+        }
+        SvgReader previous = SvgReader.read(p2jPlan.getSvg());
+        return previous.getNodeCenters().isEmpty() ? null : previous;
+    }
+
+    /**
+     * Sets the header color of a label reused from the previous svg to the
+     * color of the operator's current map/reduce step. The rest of the
+     * label of an operator does not change once it is drawn.
+     *
+     * @param label the label
+     * @param oper the logical operator
+     * @return true if the color changed
+     */
+    protected boolean recolor(HtmlLabel label, P2jLogicalRelationalOperator oper) {
+        if (label.getRows().isEmpty() || label.getRows().get(0).isEmpty()) {
+            return false;
+        }
+        HtmlLabel.Cell header = label.getRows().get(0).get(0);
+        String color = getJobColor(oper);
+        if (color.equalsIgnoreCase(header.getBgcolor())) {
+            return false;
+        }
+        header.setBgcolor(color);
+        return true;
+    }
+
+    /**
+     * Lay out the plan and render it as svg without graphviz.
+     *
+     * @return the svg document
+     * @throws IOException if a node label can not be parsed
+     */
+    protected String generateSvg() throws IOException {
+        SvgReader previous = getPreviousLayout();
+        HtmlLabel.Parser parser = new HtmlLabel.Parser();
+        LayeredLayout layout = new LayeredLayout();
+        Map<String, HtmlLabel> labels = Maps.newHashMapWithExpectedSize(p2jMap.size());
+        int reused = 0;
+        int recolored = 0;
+        for (P2jLogicalRelationalOperator oper : p2jMap.values()) {
+            HtmlLabel label = (previous != null) ? previous.getNodeLabel(oper.getUid()) : null;
+            if (label != null) {
+                reused++;
+                if (recolor(label, oper)) {
+                    recolored++;
+                }
+            } else {
+                label = parser.parse(genNodeHtml(oper));
+            }
+            labels.put(oper.getUid(), label);
+            layout.addNode(oper.getUid(), label.getWidth(), label.getHeight(), getClusterId(oper));
+        }
+        for (P2jLogicalRelationalOperator oper : p2jMap.values()) {
+            for (String i : oper.getSuccessors()) {
+                P2jLogicalRelationalOperator dst = p2jMap.get(i);
+                if (dst != null) {
+                    layout.addEdge(oper.getUid(), dst.getUid());
+                }
+            }
+        }
+        if (previous != null) {
+            LOG.info("Laying out " + p2jMap.size() + " operators incrementally: " + reused + " labels reused, "
+                     + recolored + " recolored");
+            layout.layout(previous.getNodeCenters(), previous.getEdgeRoutes());
+        } else {
+            layout.layout();
+        }
+        return new SvgWriter(BG_CLUSTER).write(layout, labels);
     }
 }
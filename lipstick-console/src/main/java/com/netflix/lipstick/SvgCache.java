@@ -0,0 +1,231 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ObjectNode;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.netflix.lipstick.model.P2jPlan;
+import com.netflix.lipstick.model.operators.P2jLogicalRelationalOperator;
+
+/**
+ * Content addressed cache of rendered plan graphics.
+ *
+ * Graphics are keyed by a structural hash of the plan they were rendered
+ * from, so a resubmitted or recombined plan with the same operators, edges,
+ * schemas and map/reduce assignments is not laid out again. Entries are
+ * evicted in least recently used order once either the number of entries
+ * or their total size exceeds its limit. Hits, misses and evictions are
+ * counted for monitoring.
+ *
+ * All methods are thread safe.
+ */
+public class SvgCache {
+
+    public static final String MAX_ENTRIES_PROP = "lipstick.svg.cache.entries";
+    public static final String MAX_CHARS_PROP = "lipstick.svg.cache.chars";
+    public static final int DEFAULT_MAX_ENTRIES = 500;
+    public static final long DEFAULT_MAX_CHARS = 64L * 1024 * 1024;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static SvgCache defaultCache = null;
+
+    protected final int maxEntries;
+    protected final long maxChars;
+    protected final LinkedHashMap<String, String> entries = new LinkedHashMap<String, String>(16, 0.75f, true);
+    protected long chars = 0;
+    protected final AtomicLong hits = new AtomicLong();
+    protected final AtomicLong misses = new AtomicLong();
+    protected final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries maximum number of graphics kept
+     * @param maxChars maximum total length of the graphics kept
+     */
+    public SvgCache(int maxEntries, long maxChars) {
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Returns the cache shared by all Pig2DotGenerators, sized by the
+     * lipstick.svg.cache.entries and lipstick.svg.cache.chars system
+     * properties.
+     *
+     * @return
+     */
+    public static synchronized SvgCache getDefault() {
+        if (defaultCache == null) {
+            defaultCache = new SvgCache(Integer.getInteger(MAX_ENTRIES_PROP, DEFAULT_MAX_ENTRIES),
+                                        Long.getLong(MAX_CHARS_PROP, DEFAULT_MAX_CHARS));
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Returns the graphic cached for key, or null.
+     *
+     * @param key
+     * @return
+     */
+    public synchronized String get(String key) {
+        String value = entries.get(key);
+        if (value != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Caches a graphic, evicting the least recently used ones as needed.
+     * Graphics larger than the whole cache are not kept.
+     *
+     * @param key
+     * @param value
+     */
+    public synchronized void put(String key, String value) {
+        if (value == null || value.length() > maxChars || maxEntries <= 0) {
+            return;
+        }
+        String old = entries.put(key, value);
+        if (old != null) {
+            chars -= old.length();
+        }
+        chars += value.length();
+        Iterator<Map.Entry<String, String>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || chars > maxChars) && eldest.hasNext()) {
+            chars -= eldest.next().getValue().length();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        chars = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the total length of the cached graphics
+     */
+    public synchronized long getChars() {
+        return chars;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the fraction of lookups that were hits, 0 if there were none
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return (total == 0) ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SvgCache(entries=%d, chars=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.2f)",
+                             size(), getChars(), getHits(), getMisses(), getEvictions(), getHitRate());
+    }
+
+    /**
+     * Computes a hash of everything in a plan that is drawn: each operator
+     * with its successors, schema and map/reduce assignment, in uid order.
+     * Persistence ids and the plan's svg are left out, so a plan hashes the
+     * same before and after being saved.
+     *
+     * @param plan
+     * @return the hex encoded hash
+     */
+    public static String structuralHash(P2jPlan plan) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        if (plan.getPlan() != null) {
+            Map<String, P2jLogicalRelationalOperator> sorted =
+                new TreeMap<String, P2jLogicalRelationalOperator>(plan.getPlan());
+            for (Map.Entry<String, P2jLogicalRelationalOperator> e : sorted.entrySet()) {
+                putString(hasher, e.getKey());
+                P2jLogicalRelationalOperator op = e.getValue();
+                JsonNode node = MAPPER.valueToTree(op);
+                if (node.isObject()) {
+                    // hashed below, whether interned or inline
+                    ((ObjectNode) node).remove("schema");
+                    ((ObjectNode) node).remove("schemaId");
+                }
+                putNode(hasher, node);
+                putNode(hasher, MAPPER.valueToTree(op.getSchema()));
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        hasher.putInt(value.length()).putString(value, Charsets.UTF_8);
+    }
+
+    private static void putNode(Hasher hasher, JsonNode node) {
+        if (node == null || node.isNull()) {
+            hasher.putByte((byte) 0);
+        } else if (node.isObject()) {
+            List<String> names = Lists.newArrayList(node.getFieldNames());
+            Collections.sort(names);
+            hasher.putByte((byte) '{');
+            for (String name : names) {
+                if (!"id".equals(name)) {
+                    putString(hasher, name);
+                    putNode(hasher, node.get(name));
+                }
+            }
+            hasher.putByte((byte) '}');
+        } else if (node.isArray()) {
+            hasher.putByte((byte) '[').putInt(node.size());
+            for (JsonNode element : node) {
+                putNode(hasher, element);
+            }
+        } else {
+            putString(hasher, node.toString());
+        }
+    }
+}
@@ -15,14 +15,15 @@
  */
 package com.netflix.lipstick.adaptors;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.pig.data.DataType;
@@ -127,7 +128,12 @@ public class LOJsonAdaptor {
      */
     static class LogicalExpressionPlanSerializer {
 
+        /** Expressions are cut off after this many characters by default. */
+        public static final int DEFAULT_MAX_LENGTH = 16384;
+
+        private static final String TRUNCATED = "...";
         private static final Map<String, Op> SPECOPS = createMap();
+        private static final ConcurrentMap<String, String> SIMPLE_NAMES = new ConcurrentHashMap<String, String>();
 
         private static class Op {
             protected String string;
@@ -157,94 +163,151 @@ public class LOJsonAdaptor {
             return Collections.unmodifiableMap(aMap);
         }
 
-        private static String paren(String str, Operator parent, Operator child) {
-
-            String pKey = parent.getName();
-            String cKey = child.getName();
+        private static boolean needsParen(Operator parent, Operator child) {
+            Op pOp = SPECOPS.get(parent.getName());
+            Op cOp = SPECOPS.get(child.getName());
+            return pOp != null && cOp != null && pOp.priority > cOp.priority;
+        }
 
-            if (SPECOPS.containsKey(cKey) && SPECOPS.containsKey(pKey)) {
-                if (SPECOPS.get(pKey).priority > SPECOPS.get(cKey).priority) {
-                    return "(" + str + ")";
-                }
+        private static String simpleClassName(String className) {
+            String simpleName = SIMPLE_NAMES.get(className);
+            if (simpleName == null) {
+                simpleName = className.substring(className.lastIndexOf('.') + 1);
+                SIMPLE_NAMES.putIfAbsent(className, simpleName);
             }
-            return str;
+            return simpleName;
         }
 
-        private static String nodeToString(LogicalExpression node, LogicalExpressionPlan plan) throws FrontendException {
-            if (node instanceof ConstantExpression) {
-                Object value = ((ConstantExpression) node).getValue();
-                if (value != null) {
-                    return value.toString();
-                } else {
-                    // This should ONLY happen in edge cases when the constant expression is built
+        /**
+         * Writes node and its successors to out. Instead of recursing, the
+         * pieces still to be written are kept on a stack: either a String to
+         * append or a LogicalExpression to expand, so arbitrarily deep
+         * expressions only cost heap. Stops once out holds more than
+         * maxLength characters and returns false.
+         */
+        private static boolean writeNode(LogicalExpression root, LogicalExpressionPlan plan,
+                                         StringBuilder out, int maxLength) throws FrontendException {
+            Deque<Object> stack = new ArrayDeque<Object>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                if (out.length() > maxLength) {
+                    return false;
+                }
+                Object item = stack.pop();
+                if (item instanceof String) {
+                    out.append((String) item);
+                    continue;
+                }
+                LogicalExpression node = (LogicalExpression) item;
+                if (node instanceof ConstantExpression) {
+                    // A null value should ONLY happen in edge cases when the constant expression is built
                     // incorrectly, eg with the ASSERT operator in the case where there's no message
-                    return "null"; 
-                }                
-            }
-            
-            List<String> outList = Lists.newArrayList();
-            List<Operator> s = plan.getSuccessors(node);
-            if (s != null && !s.isEmpty()) {
-                ListIterator<Operator> iter = s.listIterator();
-                if (node instanceof BinCondExpression) {
-                    BinCondExpression n = (BinCondExpression) node;
-                    return "("
-                           + nodeToString(n.getCondition(), plan)
-                           + " ? "
-                           + nodeToString(n.getLhs(), plan)
-                           + " : "
-                           + nodeToString(n.getRhs(), plan)
-                           + ")";
+                    out.append(((ConstantExpression) node).getValue());
+                    continue;
                 }
-                while (iter.hasNext()) {
-                    Operator op = iter.next();
-                    String outString = nodeToString((LogicalExpression) op, plan);
-                    if (node instanceof MapLookupExpression) {
-                        outString += "#'" + ((MapLookupExpression) node).getLookupKey() + "'";
+
+                List<Operator> s = plan.getSuccessors(node);
+                if (s == null || s.isEmpty()) {
+                    if (node.getFieldSchema().alias != null) {
+                        out.append(node.getFieldSchema().alias);
+                    } else if (node instanceof ProjectExpression) {
+                        out.append('$').append(((ProjectExpression) node).getColNum());
+                    } else {
+                        out.append('?');
                     }
-                    outList.add(paren(outString, node, op));
+                    continue;
                 }
+
+                if (node instanceof BinCondExpression) {
+                    BinCondExpression n = (BinCondExpression) node;
+                    out.append('(');
+                    stack.push(")");
+                    stack.push(n.getRhs());
+                    stack.push(" : ");
+                    stack.push(n.getLhs());
+                    stack.push(" ? ");
+                    stack.push(n.getCondition());
+                    continue;
+                }
+
+                String name = node.getName();
+                Op op = SPECOPS.get(name);
+                String separator = ", ";
+                String suffix = null;
+                String childSuffix = null;
+                int children = s.size();
                 if (node instanceof MapLookupExpression) {
-                    return StringUtils.join(outList, ", ");
+                    childSuffix = "#'" + ((MapLookupExpression) node).getLookupKey() + "'";
+                } else if (node instanceof UserFuncExpression) {
+                    out.append(simpleClassName(((UserFuncExpression) node).getFuncSpec().getClassName())).append('(');
+                    suffix = ")";
+                } else if (op != null) {
+                    if (children == 1) {
+                        out.append(op.string);
+                    }
+                    separator = op.string;
+                } else if (name.equals("Cast")) {
+                    children = 1;
+                } else {
+                    out.append(name).append('(');
+                    suffix = ")";
                 }
-                if (node instanceof UserFuncExpression) {
-                    String className = ((UserFuncExpression) node).getFuncSpec().getClassName();
-                    ArrayList<String> split = Lists.newArrayList(StringUtils.split(className, "."));
-                    className = split.get(split.size() - 1);
-                    return className + '(' + StringUtils.join(outList, ", ") + ')';
+
+                // push in reverse so the first successor is written first
+                if (suffix != null) {
+                    stack.push(suffix);
                 }
-                if (SPECOPS.containsKey(node.getName())) {
-                    if (outList.size() == 1) {
-                        return SPECOPS.get(node.getName()).string + outList.get(0);
+                for (int i = children - 1; i >= 0; i--) {
+                    Operator child = s.get(i);
+                    boolean paren = needsParen(node, child);
+                    if (paren) {
+                        stack.push(")");
+                    }
+                    if (childSuffix != null) {
+                        stack.push(childSuffix);
+                    }
+                    stack.push(child);
+                    if (paren) {
+                        stack.push("(");
+                    }
+                    if (i > 0) {
+                        stack.push(separator);
                     }
-                    return StringUtils.join(outList, SPECOPS.get(node.getName()).string);
-                }
-                String name = node.getName();
-                if (name.equals("Cast")) {
-                    return outList.get(0);
                 }
-                return name + '(' + StringUtils.join(outList, ", ") + ')';
-            }
-            if (node.getFieldSchema().alias != null) {
-                return node.getFieldSchema().alias;
             }
-            if (node instanceof ProjectExpression) {
-                return '$' + ((Integer) ((ProjectExpression) node).getColNum()).toString();
-            }
-            return "?";
+            return true;
         }
 
         /**
-         * Convert a LogicalExpressionPlan to a human readable string.
+         * Convert a LogicalExpressionPlan to a human readable string, of at
+         * most DEFAULT_MAX_LENGTH characters.
          *
          * @param src the LogicalExpressionPlan
          * @return a human readable string
          */
         public static String serialize(LogicalExpressionPlan src) {
+            return serialize(src, DEFAULT_MAX_LENGTH);
+        }
+
+        /**
+         * Convert a LogicalExpressionPlan to a human readable string. Strings
+         * longer than maxLength are cut off and end in "...".
+         *
+         * @param src the LogicalExpressionPlan
+         * @param maxLength the maximum length of the string
+         * @return a human readable string
+         */
+        public static String serialize(LogicalExpressionPlan src, int maxLength) {
             List<Operator> sources = src.getSources();
             if (!sources.isEmpty()) {
                 try {
-                    return nodeToString((LogicalExpression) src.getSources().get(0), src);
+                    StringBuilder out = new StringBuilder();
+                    if (!writeNode((LogicalExpression) sources.get(0), src, out, maxLength)
+                        || out.length() > maxLength) {
+                        out.setLength(Math.max(0, maxLength - TRUNCATED.length()));
+                        out.append(TRUNCATED);
+                    }
+                    return out.toString();
                 } catch (FrontendException e) {
                     LOG.error(e);
                     throw new RuntimeException(e);
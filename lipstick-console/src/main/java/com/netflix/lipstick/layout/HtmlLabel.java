@@ -0,0 +1,268 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.layout;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A graphviz html-like table label, measured for drawing.
+ *
+ * Only the subset of the label language used by Pig2DotGenerator is
+ * understood: table rows of cells with a background color, a column span
+ * and text, optionally wrapped in a font color. Text widths are estimated
+ * from per character widths of a 12 point serif font, which is close
+ * enough to size the cells without any font metrics being available.
+ */
+public class HtmlLabel {
+
+    public static final double FONT_SIZE = 12;
+    public static final double ROW_HEIGHT = 20;
+    public static final double CELL_PADDING = 5;
+    public static final double MIN_WIDTH = 40;
+
+    /** A table cell, positioned relative to the top left corner of the label. */
+    public static class Cell {
+        protected final StringBuilder text = new StringBuilder();
+        protected String bgcolor = null;
+        protected String color = null;
+        protected int colspan = 1;
+        protected int column;
+        protected double x;
+        protected double y;
+        protected double width;
+
+        public String getText() {
+            return text.toString();
+        }
+
+        public String getBgcolor() {
+            return bgcolor;
+        }
+
+        public void setBgcolor(String bgcolor) {
+            this.bgcolor = bgcolor;
+        }
+
+        /**
+         * @return the font color, or null for the default
+         */
+        public String getColor() {
+            return color;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+
+        public double getWidth() {
+            return width;
+        }
+
+        public double getHeight() {
+            return ROW_HEIGHT;
+        }
+    }
+
+    /**
+     * Parses labels. A parser is not thread safe, but can be reused for any
+     * number of labels.
+     */
+    public static class Parser {
+        protected final SAXParser parser;
+
+        public Parser() {
+            try {
+                parser = SAXParserFactory.newInstance().newSAXParser();
+            } catch (ParserConfigurationException e) {
+                throw new IllegalStateException(e);
+            } catch (SAXException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public HtmlLabel parse(String html) throws IOException {
+            final HtmlLabel label = new HtmlLabel();
+            DefaultHandler handler = new DefaultHandler() {
+                private List<Cell> row = null;
+                private Cell cell = null;
+
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                    if ("tr".equals(qName)) {
+                        row = Lists.newArrayList();
+                        label.rows.add(row);
+                    } else if ("td".equals(qName) && row != null) {
+                        cell = new Cell();
+                        cell.bgcolor = attributes.getValue("bgcolor");
+                        String colspan = attributes.getValue("colspan");
+                        if (colspan != null) {
+                            try {
+                                cell.colspan = Math.max(1, Integer.parseInt(colspan.trim()));
+                            } catch (NumberFormatException e) {
+                                cell.colspan = 1;
+                            }
+                        }
+                        row.add(cell);
+                    } else if ("font".equals(qName) && cell != null && attributes.getValue("color") != null) {
+                        cell.color = attributes.getValue("color");
+                    }
+                }
+
+                @Override
+                public void endElement(String uri, String localName, String qName) {
+                    if ("td".equals(qName)) {
+                        cell = null;
+                    } else if ("tr".equals(qName)) {
+                        row = null;
+                    }
+                }
+
+                @Override
+                public void characters(char[] ch, int start, int length) {
+                    if (cell != null) {
+                        cell.text.append(ch, start, length);
+                    }
+                }
+            };
+            try {
+                parser.reset();
+                parser.parse(new InputSource(new StringReader(html)), handler);
+            } catch (SAXException e) {
+                throw new IOException("Invalid node label: " + html, e);
+            }
+            label.measure();
+            return label;
+        }
+    }
+
+    protected final List<List<Cell>> rows = Lists.newArrayList();
+    protected double width = MIN_WIDTH;
+    protected double height = ROW_HEIGHT;
+
+    public List<List<Cell>> getRows() {
+        return Collections.unmodifiableList(rows);
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    /**
+     * Sizes the columns of the table like an html table with automatic
+     * layout: single column cells set the width of their column, and cells
+     * spanning several columns widen those columns evenly when needed.
+     */
+    protected void measure() {
+        int columns = 0;
+        for (List<Cell> row : rows) {
+            int column = 0;
+            for (Cell cell : row) {
+                String text = cell.text.toString().trim();
+                cell.text.setLength(0);
+                cell.text.append(text);
+                cell.column = column;
+                column += cell.colspan;
+            }
+            columns = Math.max(columns, column);
+        }
+        double[] widths = new double[columns];
+        for (int span = 1; span <= columns; span++) {
+            for (List<Cell> row : rows) {
+                for (Cell cell : row) {
+                    if (cell.colspan != span) {
+                        continue;
+                    }
+                    double needed = textWidth(cell.text) + 2 * CELL_PADDING;
+                    double current = 0;
+                    for (int c = cell.column; c < cell.column + span; c++) {
+                        current += widths[c];
+                    }
+                    if (needed > current) {
+                        double extra = (needed - current) / span;
+                        for (int c = cell.column; c < cell.column + span; c++) {
+                            widths[c] += extra;
+                        }
+                    }
+                }
+            }
+        }
+        double total = 0;
+        for (double w : widths) {
+            total += w;
+        }
+        double scale = (total < MIN_WIDTH && total > 0) ? MIN_WIDTH / total : 1;
+        double[] starts = new double[columns + 1];
+        for (int c = 0; c < columns; c++) {
+            starts[c + 1] = starts[c] + widths[c] * scale;
+        }
+        for (int r = 0; r < rows.size(); r++) {
+            for (Cell cell : rows.get(r)) {
+                cell.x = starts[cell.column];
+                cell.y = r * ROW_HEIGHT;
+                cell.width = starts[cell.column + cell.colspan] - cell.x;
+            }
+        }
+        width = Math.max(MIN_WIDTH, starts[columns]);
+        height = Math.max(1, rows.size()) * ROW_HEIGHT;
+    }
+
+    /**
+     * Estimates the width of text in a 12 point serif font.
+     *
+     * @param text
+     * @return
+     */
+    public static double textWidth(CharSequence text) {
+        double width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ("iljtfrI.,:;'|!()[] ".indexOf(c) >= 0) {
+                width += 3.6;
+            } else if (c == 'm' || c == 'w') {
+                width += 9.2;
+            } else if (c == 'M' || c == 'W') {
+                width += 11;
+            } else if (Character.isUpperCase(c)) {
+                width += 8.2;
+            } else {
+                width += 6.2;
+            }
+        }
+        return width;
+    }
+}
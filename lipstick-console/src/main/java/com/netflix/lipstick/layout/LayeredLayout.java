@@ -0,0 +1,1193 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.layout;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Layered layout of a directed graph, drawn top to bottom in the style of
+ * dot.
+ *
+ * The layout runs the usual steps of a Sugiyama layout: back edges are
+ * reversed to break cycles, nodes are put on layers by longest path, edges
+ * spanning several layers are split by dummy nodes, and the order within
+ * each layer is improved by barycenter sweeps, keeping the order with the
+ * fewest crossings. X coordinates are then placed layer by layer as close
+ * to the median of the neighbouring nodes as the minimum separation allows.
+ * Nodes in the same cluster are kept next to each other, and clusters in
+ * the same left to right order on every layer, so that clusters can be
+ * drawn as non-overlapping boxes around their nodes.
+ *
+ * Every step is linear or n log n in the size of the layered graph, so
+ * plans with thousands of operators are laid out in milliseconds. A graph
+ * that changed since it was last drawn can also be laid out incrementally
+ * from the previous node positions and edge routes, see layout(Map, Map).
+ */
+public class LayeredLayout {
+
+    public static final double NODE_SEP = 20;
+    public static final double RANK_SEP = 40;
+    public static final double CLUSTER_PAD = 8;
+    public static final double DUMMY_WIDTH = 8;
+
+    private static final int ORDER_SWEEPS = 12;
+    private static final int POSITION_SWEEPS = 8;
+    private static final double DUMMY_WEIGHT = 4;
+
+    /** A point in the layout. */
+    public static class Point {
+        protected final double x;
+        protected final double y;
+
+        public Point(double x, double y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+    }
+
+    /** A rectangle in the layout. */
+    public static class Box {
+        protected final double x1;
+        protected final double y1;
+        protected final double x2;
+        protected final double y2;
+
+        public Box(double x1, double y1, double x2, double y2) {
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+        }
+
+        public double getX1() {
+            return x1;
+        }
+
+        public double getY1() {
+            return y1;
+        }
+
+        public double getX2() {
+            return x2;
+        }
+
+        public double getY2() {
+            return y2;
+        }
+    }
+
+    /** A node of the graph; dummy nodes have no id. */
+    public static class Node {
+        protected final String id;
+        protected final double width;
+        protected final double height;
+        protected final String cluster;
+        protected final int index;
+        protected final List<Node> up = Lists.newArrayListWithCapacity(2);
+        protected final List<Node> down = Lists.newArrayListWithCapacity(2);
+        protected int layer;
+        protected int order;
+        protected double x;
+        protected double y;
+
+        Node(String id, double width, double height, String cluster, int index) {
+            this.id = id;
+            this.width = width;
+            this.height = height;
+            this.cluster = cluster;
+            this.index = index;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public double getWidth() {
+            return width;
+        }
+
+        public double getHeight() {
+            return height;
+        }
+
+        public String getCluster() {
+            return cluster;
+        }
+
+        public int getLayer() {
+            return layer;
+        }
+
+        /**
+         * @return the x coordinate of the center of the node
+         */
+        public double getX() {
+            return x;
+        }
+
+        /**
+         * @return the y coordinate of the center of the node
+         */
+        public double getY() {
+            return y;
+        }
+
+        boolean isDummy() {
+            return id == null;
+        }
+    }
+
+    /** An edge of the graph, routed through the dummy nodes of its chain. */
+    public static class Edge {
+        protected final Node source;
+        protected final Node target;
+        protected boolean reversed = false;
+        protected List<Node> chain = Collections.emptyList();
+        protected List<Point> points = Collections.emptyList();
+
+        Edge(Node source, Node target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        public String getSource() {
+            return source.id;
+        }
+
+        public String getTarget() {
+            return target.id;
+        }
+
+        /**
+         * Get the points the edge runs through, from the bottom of its
+         * source to the top of its target. Empty for self loops.
+         *
+         * @return
+         */
+        public List<Point> getPoints() {
+            return points;
+        }
+    }
+
+    protected final List<Node> nodes = Lists.newArrayList();
+    protected final Map<String, Node> byId = Maps.newHashMap();
+    protected final List<Edge> edges = Lists.newArrayList();
+    protected final Map<String, Box> clusters = Maps.newLinkedHashMap();
+    protected List<List<Node>> layers = Lists.newArrayList();
+    protected double width = 0;
+    protected double height = 0;
+
+    /**
+     * Adds a node of the given size.
+     *
+     * @param id unique id of the node
+     * @param width
+     * @param height
+     * @param cluster the cluster the node is drawn in, or null
+     * @return
+     */
+    public Node addNode(String id, double width, double height, String cluster) {
+        if (id == null || byId.containsKey(id)) {
+            throw new IllegalArgumentException("Invalid or duplicate node id: " + id);
+        }
+        Node node = new Node(id, width, height, cluster, nodes.size());
+        nodes.add(node);
+        byId.put(id, node);
+        return node;
+    }
+
+    /**
+     * Adds an edge between two nodes that were already added.
+     *
+     * @param source
+     * @param target
+     * @return
+     */
+    public Edge addEdge(String source, String target) {
+        Node u = byId.get(source);
+        Node v = byId.get(target);
+        if (u == null || v == null) {
+            throw new IllegalArgumentException("Unknown node in edge " + source + " -> " + target);
+        }
+        Edge edge = new Edge(u, v);
+        edges.add(edge);
+        return edge;
+    }
+
+    public Node getNode(String id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Get the nodes that were added, in the order they were added.
+     *
+     * @return
+     */
+    public List<Node> getNodes() {
+        return Collections.unmodifiableList(nodes.subList(0, byId.size()));
+    }
+
+    public List<Edge> getEdges() {
+        return Collections.unmodifiableList(edges);
+    }
+
+    /**
+     * Get the bounding boxes of the clusters, by cluster name.
+     *
+     * @return
+     */
+    public Map<String, Box> getClusters() {
+        return Collections.unmodifiableMap(clusters);
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    /**
+     * Computes the layout. Coordinates start at 0,0 in the top left corner.
+     *
+     * @return this
+     */
+    public LayeredLayout layout() {
+        // drop the dummy nodes of a previous layout
+        nodes.subList(byId.size(), nodes.size()).clear();
+        breakCycles();
+        assignLayers();
+        insertDummies();
+        orderLayers();
+        orderClusters();
+        assignY();
+        assignX();
+        separateClusters();
+        finish();
+        return this;
+    }
+
+    /**
+     * Computes the layout incrementally, keeping nodes where they were in a
+     * previous layout of the graph.
+     *
+     * Nodes found in previous stay in their left to right order, as close
+     * to their previous x coordinate as node sizes and clusters allow, and
+     * edges spanning several layers keep their route where it is known. New
+     * nodes connected to previous ones are put at the mean x of their
+     * placed neighbours, and new parts of the graph that are not connected
+     * to any previous node are laid out on their own, to the right of the
+     * previous layout. This skips the crossing reduction and placement
+     * sweeps over the previous nodes, so adding nodes to or moving them
+     * between clusters of a large layout is cheap. Layers are assigned as
+     * in a full layout.
+     *
+     * @param previous x and y coordinates of node centers by node id, as
+     *        read by SvgReader from a previous drawing
+     * @param routes points the edges ran through by "source->target", or
+     *        null
+     * @return this
+     */
+    public LayeredLayout layout(Map<String, Point> previous, Map<String, List<Point>> routes) {
+        if (previous == null || previous.isEmpty()) {
+            return layout();
+        }
+        nodes.subList(byId.size(), nodes.size()).clear();
+        breakCycles();
+        assignLayers();
+        insertDummies();
+        double[] anchor = anchor(previous, routes);
+        if (anchor == null) {
+            // nothing to keep
+            orderLayers();
+            orderClusters();
+            assignY();
+            assignX();
+        } else {
+            orderByAnchor(anchor);
+            if (!clustersOrdered()) {
+                orderClusters();
+            }
+            assignY();
+            for (Node node : nodes) {
+                node.x = anchor[node.index];
+            }
+            for (List<Node> layer : layers) {
+                placeLayer(layer, false, false);
+            }
+        }
+        separateClusters();
+        finish();
+        return this;
+    }
+
+    /**
+     * Finds the desired x coordinate of every node of the layered graph
+     * from the previous positions of the nodes and routes of the edges.
+     *
+     * @param previous
+     * @param routes
+     * @return the desired x coordinates by node index, or null if no node
+     *         has a previous position
+     */
+    protected double[] anchor(Map<String, Point> previous, Map<String, List<Point>> routes) {
+        int real = byId.size();
+        double[] anchor = new double[nodes.size()];
+        Arrays.fill(anchor, Double.NaN);
+        // where the layers used to be, to find the dummy nodes on old routes
+        double[] layerY = new double[layers.size()];
+        Arrays.fill(layerY, Double.NaN);
+        double right = -Double.MAX_VALUE;
+        for (int i = 0; i < real; i++) {
+            Node node = nodes.get(i);
+            Point point = previous.get(node.id);
+            if (point != null) {
+                anchor[i] = point.x;
+                if (Double.isNaN(layerY[node.layer])) {
+                    layerY[node.layer] = point.y;
+                }
+                double pad = (node.cluster != null) ? CLUSTER_PAD : 0;
+                right = Math.max(right, point.x + node.width / 2 + pad);
+            }
+        }
+        if (right == -Double.MAX_VALUE) {
+            return null;
+        }
+
+        List<List<Node>> neighbors = Lists.newArrayListWithCapacity(real);
+        for (int i = 0; i < real; i++) {
+            neighbors.add(Lists.<Node>newArrayListWithCapacity(2));
+        }
+        for (Edge edge : edges) {
+            if (edge.source != edge.target) {
+                neighbors.get(edge.source.index).add(edge.target);
+                neighbors.get(edge.target.index).add(edge.source);
+            }
+        }
+
+        // breadth first from the previous nodes: new nodes go to the mean
+        // of their neighbours placed so far
+        boolean[] seen = new boolean[real];
+        Deque<Node> queue = new ArrayDeque<Node>();
+        for (int i = 0; i < real; i++) {
+            if (!Double.isNaN(anchor[i])) {
+                seen[i] = true;
+                queue.add(nodes.get(i));
+            }
+        }
+        while (!queue.isEmpty()) {
+            Node u = queue.poll();
+            if (Double.isNaN(anchor[u.index])) {
+                double sum = 0;
+                int count = 0;
+                for (Node v : neighbors.get(u.index)) {
+                    if (!Double.isNaN(anchor[v.index])) {
+                        sum += anchor[v.index];
+                        count++;
+                    }
+                }
+                anchor[u.index] = sum / count;
+            }
+            for (Node v : neighbors.get(u.index)) {
+                if (!seen[v.index]) {
+                    seen[v.index] = true;
+                    queue.add(v);
+                }
+            }
+        }
+
+        // the unreached parts of the graph are new, lay them out on their own
+        LayeredLayout added = new LayeredLayout();
+        for (int i = 0; i < real; i++) {
+            if (!seen[i]) {
+                Node node = nodes.get(i);
+                added.addNode(node.id, node.width, node.height, node.cluster);
+            }
+        }
+        if (!added.nodes.isEmpty()) {
+            for (Edge edge : edges) {
+                if (!seen[edge.source.index] && !seen[edge.target.index]) {
+                    added.addEdge(edge.source.id, edge.target.id);
+                }
+            }
+            added.layout();
+            for (Node node : added.getNodes()) {
+                anchor[byId.get(node.id).index] = right + NODE_SEP + node.x;
+            }
+        }
+
+        // dummy nodes go where the edge used to cross their layer, or on the
+        // straight line between the ends of the edge
+        for (Edge edge : edges) {
+            int last = edge.chain.size() - 1;
+            List<Point> route = (routes != null && last > 1) ? routes.get(edge.source.id + "->" + edge.target.id) : null;
+            for (int i = 1; i < last; i++) {
+                Node dummy = edge.chain.get(i);
+                double x = (route != null) ? crossing(route, layerY[dummy.layer]) : Double.NaN;
+                if (Double.isNaN(x)) {
+                    double top = anchor[edge.chain.get(0).index];
+                    double bottom = anchor[edge.chain.get(last).index];
+                    x = top + (bottom - top) * i / last;
+                }
+                anchor[dummy.index] = x;
+            }
+        }
+        return anchor;
+    }
+
+    /**
+     * Returns the x coordinate at which a polyline crosses y, or NaN.
+     */
+    private static double crossing(List<Point> route, double y) {
+        for (int i = 1; i < route.size(); i++) {
+            Point p = route.get(i - 1);
+            Point q = route.get(i);
+            if (p.y != q.y && (p.y - y) * (q.y - y) <= 0) {
+                return p.x + (q.x - p.x) * (y - p.y) / (q.y - p.y);
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Orders every layer by the desired x coordinates of its nodes.
+     */
+    protected void orderByAnchor(final double[] anchor) {
+        for (List<Node> layer : layers) {
+            Collections.sort(layer, new Comparator<Node>() {
+                @Override
+                public int compare(Node a, Node b) {
+                    int cmp = Double.compare(anchor[a.index], anchor[b.index]);
+                    return (cmp != 0) ? cmp : a.order - b.order;
+                }
+            });
+            for (int i = 0; i < layer.size(); i++) {
+                layer.get(i).order = i;
+            }
+        }
+    }
+
+    /**
+     * Marks the edges closing a cycle as reversed, found by a depth first
+     * search in insertion order.
+     */
+    protected void breakCycles() {
+        List<List<Edge>> out = Lists.newArrayListWithCapacity(nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            out.add(Lists.<Edge>newArrayListWithCapacity(2));
+        }
+        for (Edge edge : edges) {
+            edge.reversed = false;
+            out.get(edge.source.index).add(edge);
+        }
+        byte[] state = new byte[nodes.size()];
+        int[] next = new int[nodes.size()];
+        Deque<Node> stack = new ArrayDeque<Node>();
+        for (Node root : nodes) {
+            if (state[root.index] != 0) {
+                continue;
+            }
+            state[root.index] = 1;
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Node u = stack.peek();
+                List<Edge> outEdges = out.get(u.index);
+                if (next[u.index] == outEdges.size()) {
+                    state[u.index] = 2;
+                    stack.pop();
+                    continue;
+                }
+                Edge edge = outEdges.get(next[u.index]++);
+                Node v = edge.target;
+                if (state[v.index] == 1) {
+                    edge.reversed = (u != v);
+                } else if (state[v.index] == 0) {
+                    state[v.index] = 1;
+                    stack.push(v);
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts every node one layer below its lowest predecessor, then moves
+     * sources down to just above their highest successor so that side
+     * inputs do not stretch edges across the whole graph.
+     */
+    protected void assignLayers() {
+        int[] inDegree = new int[nodes.size()];
+        List<List<Node>> down = Lists.newArrayListWithCapacity(nodes.size());
+        for (Node node : nodes) {
+            down.add(Lists.<Node>newArrayListWithCapacity(2));
+            node.layer = 0;
+        }
+        for (Edge edge : edges) {
+            if (edge.source != edge.target) {
+                down.get(top(edge).index).add(bottom(edge));
+                inDegree[bottom(edge).index]++;
+            }
+        }
+        boolean[] source = new boolean[nodes.size()];
+        Deque<Node> ready = new ArrayDeque<Node>();
+        for (Node node : nodes) {
+            if (inDegree[node.index] == 0) {
+                source[node.index] = true;
+                ready.add(node);
+            }
+        }
+        while (!ready.isEmpty()) {
+            Node u = ready.poll();
+            for (Node v : down.get(u.index)) {
+                v.layer = Math.max(v.layer, u.layer + 1);
+                if (--inDegree[v.index] == 0) {
+                    ready.add(v);
+                }
+            }
+        }
+        for (Node node : nodes) {
+            if (source[node.index] && !down.get(node.index).isEmpty()) {
+                int layer = Integer.MAX_VALUE;
+                for (Node v : down.get(node.index)) {
+                    layer = Math.min(layer, v.layer - 1);
+                }
+                node.layer = Math.max(node.layer, layer);
+            }
+        }
+    }
+
+    /**
+     * Splits edges spanning more than one layer into chains of dummy nodes
+     * and builds the layers.
+     */
+    protected void insertDummies() {
+        for (Node node : nodes) {
+            node.up.clear();
+            node.down.clear();
+        }
+        for (Edge edge : edges) {
+            if (edge.source == edge.target) {
+                edge.chain = Collections.emptyList();
+                continue;
+            }
+            Node u = top(edge);
+            Node v = bottom(edge);
+            String cluster = Objects.equal(u.cluster, v.cluster) ? u.cluster : null;
+            List<Node> chain = Lists.newArrayListWithCapacity(v.layer - u.layer + 1);
+            chain.add(u);
+            for (int layer = u.layer + 1; layer < v.layer; layer++) {
+                Node dummy = new Node(null, DUMMY_WIDTH, 0, cluster, nodes.size());
+                dummy.layer = layer;
+                nodes.add(dummy);
+                chain.add(dummy);
+            }
+            chain.add(v);
+            for (int i = 1; i < chain.size(); i++) {
+                chain.get(i - 1).down.add(chain.get(i));
+                chain.get(i).up.add(chain.get(i - 1));
+            }
+            edge.chain = chain;
+        }
+
+        int layerCount = 0;
+        for (Node node : nodes) {
+            layerCount = Math.max(layerCount, node.layer + 1);
+        }
+        layers = Lists.newArrayListWithCapacity(layerCount);
+        for (int i = 0; i < layerCount; i++) {
+            layers.add(Lists.<Node>newArrayList());
+        }
+        // initial order: depth first from the nodes in insertion order
+        boolean[] seen = new boolean[nodes.size()];
+        Deque<Node> stack = new ArrayDeque<Node>();
+        for (Node root : nodes) {
+            if (seen[root.index]) {
+                continue;
+            }
+            seen[root.index] = true;
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Node u = stack.pop();
+                u.order = layers.get(u.layer).size();
+                layers.get(u.layer).add(u);
+                for (int i = u.down.size() - 1; i >= 0; i--) {
+                    Node v = u.down.get(i);
+                    if (!seen[v.index]) {
+                        seen[v.index] = true;
+                        stack.push(v);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reorders the layers with alternating barycenter sweeps, keeping the
+     * order with the fewest crossings.
+     */
+    protected void orderLayers() {
+        int[] best = currentOrder();
+        long bestCrossings = countCrossings();
+        for (int sweep = 0; sweep < ORDER_SWEEPS && bestCrossings > 0; sweep++) {
+            boolean downwards = (sweep % 2 == 0);
+            if (downwards) {
+                for (int i = 1; i < layers.size(); i++) {
+                    sortLayer(layers.get(i), true);
+                }
+            } else {
+                for (int i = layers.size() - 2; i >= 0; i--) {
+                    sortLayer(layers.get(i), false);
+                }
+            }
+            long crossings = countCrossings();
+            if (crossings < bestCrossings) {
+                bestCrossings = crossings;
+                best = currentOrder();
+            }
+        }
+        for (Node node : nodes) {
+            node.order = best[node.index];
+        }
+        for (List<Node> layer : layers) {
+            Collections.sort(layer, new Comparator<Node>() {
+                @Override
+                public int compare(Node a, Node b) {
+                    return a.order - b.order;
+                }
+            });
+        }
+    }
+
+    /**
+     * Puts the clusters in the same left to right order on every layer,
+     * ordered by the mean relative position of their nodes, keeping the
+     * nodes of a cluster together.
+     */
+    protected void orderClusters() {
+        final Map<String, double[]> sums = Maps.newHashMap();
+        for (List<Node> layer : layers) {
+            for (Node node : layer) {
+                if (node.cluster != null) {
+                    double[] sum = sums.get(node.cluster);
+                    if (sum == null) {
+                        sum = new double[2];
+                        sums.put(node.cluster, sum);
+                    }
+                    sum[0] += (node.order + 0.5) / layer.size();
+                    sum[1]++;
+                }
+            }
+        }
+        for (final List<Node> layer : layers) {
+            Collections.sort(layer, new Comparator<Node>() {
+                @Override
+                public int compare(Node a, Node b) {
+                    int cmp = Double.compare(key(a), key(b));
+                    if (cmp == 0) {
+                        cmp = (a.cluster == null ? "" : a.cluster).compareTo(b.cluster == null ? "" : b.cluster);
+                    }
+                    return (cmp != 0) ? cmp : a.order - b.order;
+                }
+
+                private double key(Node node) {
+                    if (node.cluster == null) {
+                        return (node.order + 0.5) / layer.size();
+                    }
+                    double[] sum = sums.get(node.cluster);
+                    return sum[0] / sum[1];
+                }
+            });
+            for (int i = 0; i < layer.size(); i++) {
+                layer.get(i).order = i;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the nodes of every cluster are next to each other on
+     * every layer, and the clusters in a consistent left to right order.
+     *
+     * @return
+     */
+    protected boolean clustersOrdered() {
+        Map<String, Integer> ids = Maps.newHashMap();
+        List<List<Integer>> rightOf = Lists.newArrayList();
+        List<Integer> inDegree = Lists.newArrayList();
+        for (List<Node> layer : layers) {
+            Map<String, Boolean> done = Maps.newHashMap();
+            String run = null;
+            Integer previous = null;
+            for (Node node : layer) {
+                if (Objects.equal(node.cluster, run)) {
+                    continue;
+                }
+                if (run != null) {
+                    done.put(run, Boolean.TRUE);
+                }
+                run = node.cluster;
+                if (run == null) {
+                    continue;
+                }
+                if (done.containsKey(run)) {
+                    return false;
+                }
+                Integer id = ids.get(run);
+                if (id == null) {
+                    id = ids.size();
+                    ids.put(run, id);
+                    rightOf.add(Lists.<Integer>newArrayListWithCapacity(1));
+                    inDegree.add(0);
+                }
+                if (previous != null) {
+                    rightOf.get(previous).add(id);
+                    inDegree.set(id, inDegree.get(id) + 1);
+                }
+                previous = id;
+            }
+        }
+        Deque<Integer> ready = new ArrayDeque<Integer>();
+        for (int i = 0; i < inDegree.size(); i++) {
+            if (inDegree.get(i) == 0) {
+                ready.add(i);
+            }
+        }
+        int sorted = 0;
+        while (!ready.isEmpty()) {
+            sorted++;
+            for (int b : rightOf.get(ready.poll())) {
+                inDegree.set(b, inDegree.get(b) - 1);
+                if (inDegree.get(b) == 0) {
+                    ready.add(b);
+                }
+            }
+        }
+        return sorted == ids.size();
+    }
+
+    private int[] currentOrder() {
+        int[] order = new int[nodes.size()];
+        for (Node node : nodes) {
+            order[node.index] = node.order;
+        }
+        return order;
+    }
+
+    /**
+     * Sorts a layer by the barycenter of each node's neighbours in the
+     * layer above (or below), grouping nodes of the same cluster around the
+     * mean barycenter of the group.
+     */
+    private void sortLayer(List<Node> layer, boolean useUp) {
+        final double[] bary = new double[layer.size()];
+        final double[] key = new double[layer.size()];
+        Map<String, double[]> clusterSums = Maps.newHashMap();
+        for (int i = 0; i < layer.size(); i++) {
+            Node node = layer.get(i);
+            List<Node> neighbors = useUp ? node.up : node.down;
+            if (neighbors.isEmpty()) {
+                bary[i] = node.order;
+            } else {
+                double sum = 0;
+                for (Node n : neighbors) {
+                    sum += n.order;
+                }
+                bary[i] = sum / neighbors.size();
+            }
+            if (node.cluster != null) {
+                double[] sums = clusterSums.get(node.cluster);
+                if (sums == null) {
+                    sums = new double[2];
+                    clusterSums.put(node.cluster, sums);
+                }
+                sums[0] += bary[i];
+                sums[1]++;
+            }
+        }
+        Integer[] positions = new Integer[layer.size()];
+        for (int i = 0; i < layer.size(); i++) {
+            Node node = layer.get(i);
+            positions[i] = i;
+            if (node.cluster != null) {
+                double[] sums = clusterSums.get(node.cluster);
+                key[i] = sums[0] / sums[1];
+            } else {
+                key[i] = bary[i];
+            }
+        }
+        final List<Node> nodesInLayer = layer;
+        Arrays.sort(positions, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int cmp = Double.compare(key[a], key[b]);
+                if (cmp == 0) {
+                    String ca = nodesInLayer.get(a).cluster;
+                    String cb = nodesInLayer.get(b).cluster;
+                    cmp = (ca == null ? "" : ca).compareTo(cb == null ? "" : cb);
+                }
+                if (cmp == 0) {
+                    cmp = Double.compare(bary[a], bary[b]);
+                }
+                return (cmp != 0) ? cmp : a - b;
+            }
+        });
+        List<Node> sorted = Lists.newArrayListWithCapacity(layer.size());
+        for (Integer position : positions) {
+            sorted.add(layer.get(position));
+        }
+        layer.clear();
+        layer.addAll(sorted);
+        for (int i = 0; i < layer.size(); i++) {
+            layer.get(i).order = i;
+        }
+    }
+
+    /**
+     * Counts the crossings between all pairs of adjacent layers, by
+     * counting inversions with a Fenwick tree.
+     *
+     * @return
+     */
+    protected long countCrossings() {
+        long crossings = 0;
+        for (int i = 0; i + 1 < layers.size(); i++) {
+            List<Node> upper = layers.get(i);
+            int lowerSize = layers.get(i + 1).size();
+            int[] tree = new int[lowerSize + 1];
+            int seen = 0;
+            for (Node u : upper) {
+                List<Node> targets = u.down;
+                int[] orders = new int[targets.size()];
+                for (int j = 0; j < orders.length; j++) {
+                    orders[j] = targets.get(j).order;
+                }
+                Arrays.sort(orders);
+                for (int order : orders) {
+                    // edges seen so far ending to the right of this one cross it
+                    int atOrBefore = 0;
+                    for (int k = order + 1; k > 0; k -= k & -k) {
+                        atOrBefore += tree[k];
+                    }
+                    crossings += seen - atOrBefore;
+                    for (int k = order + 1; k <= lowerSize; k += k & -k) {
+                        tree[k]++;
+                    }
+                    seen++;
+                }
+            }
+        }
+        return crossings;
+    }
+
+    /**
+     * Stacks the layers from the top, centering each node vertically on its
+     * layer.
+     */
+    protected void assignY() {
+        double top = 0;
+        for (List<Node> layer : layers) {
+            double layerHeight = 0;
+            for (Node node : layer) {
+                layerHeight = Math.max(layerHeight, node.height);
+            }
+            for (Node node : layer) {
+                node.y = top + layerHeight / 2;
+            }
+            top += layerHeight + RANK_SEP;
+        }
+    }
+
+    /**
+     * Packs every layer from the left, then repeatedly moves each node as
+     * close to the median x of its neighbours in the previous layer as the
+     * order and separation of the layer allow.
+     */
+    protected void assignX() {
+        for (List<Node> layer : layers) {
+            double x = 0;
+            for (int i = 0; i < layer.size(); i++) {
+                x += (i == 0) ? 0 : separation(layer.get(i - 1), layer.get(i));
+                layer.get(i).x = x;
+            }
+        }
+        for (int sweep = 0; sweep < POSITION_SWEEPS; sweep++) {
+            if (sweep % 2 == 0) {
+                for (int i = 1; i < layers.size(); i++) {
+                    placeLayer(layers.get(i), true, false);
+                }
+            } else {
+                for (int i = layers.size() - 2; i >= 0; i--) {
+                    placeLayer(layers.get(i), false, true);
+                }
+            }
+        }
+        for (List<Node> layer : layers) {
+            placeLayer(layer, true, true);
+        }
+    }
+
+    /**
+     * Moves clusters, as rigid blocks, and the nodes between them to the
+     * right until no cluster box overlaps its neighbours on any layer. As
+     * clusters are in the same order on every layer, the "left of"
+     * relation between blocks is acyclic and the shifts are found by a
+     * longest path in topological order.
+     */
+    protected void separateClusters() {
+        Map<String, Integer> clusterItems = Maps.newHashMap();
+        int[] item = new int[nodes.size()];
+        for (Node node : nodes) {
+            if (node.cluster == null) {
+                continue;
+            }
+            Integer id = clusterItems.get(node.cluster);
+            if (id == null) {
+                id = clusterItems.size();
+                clusterItems.put(node.cluster, id);
+            }
+            item[node.index] = id;
+        }
+        int items = clusterItems.size();
+        for (Node node : nodes) {
+            if (node.cluster == null) {
+                item[node.index] = items++;
+            }
+        }
+        if (clusterItems.isEmpty()) {
+            return;
+        }
+
+        double[] left = new double[items];
+        double[] right = new double[items];
+        Arrays.fill(left, Double.MAX_VALUE);
+        Arrays.fill(right, -Double.MAX_VALUE);
+        for (Node node : nodes) {
+            double pad = (node.cluster != null) ? CLUSTER_PAD : 0;
+            int i = item[node.index];
+            left[i] = Math.min(left[i], node.x - node.width / 2 - pad);
+            right[i] = Math.max(right[i], node.x + node.width / 2 + pad);
+        }
+
+        List<List<Integer>> successors = Lists.newArrayListWithCapacity(items);
+        for (int i = 0; i < items; i++) {
+            successors.add(Lists.<Integer>newArrayListWithCapacity(1));
+        }
+        int[] inDegree = new int[items];
+        for (List<Node> layer : layers) {
+            for (int i = 1; i < layer.size(); i++) {
+                int a = item[layer.get(i - 1).index];
+                int b = item[layer.get(i).index];
+                if (a != b) {
+                    successors.get(a).add(b);
+                    inDegree[b]++;
+                }
+            }
+        }
+
+        double[] shift = new double[items];
+        Deque<Integer> ready = new ArrayDeque<Integer>();
+        for (int i = 0; i < items; i++) {
+            if (inDegree[i] == 0) {
+                ready.add(i);
+            }
+        }
+        while (!ready.isEmpty()) {
+            int a = ready.poll();
+            for (int b : successors.get(a)) {
+                shift[b] = Math.max(shift[b], right[a] + shift[a] + NODE_SEP - left[b]);
+                if (--inDegree[b] == 0) {
+                    ready.add(b);
+                }
+            }
+        }
+        for (Node node : nodes) {
+            node.x += shift[item[node.index]];
+        }
+    }
+
+    private double separation(Node left, Node right) {
+        double sep = (left.width + right.width) / 2 + NODE_SEP;
+        if (!Objects.equal(left.cluster, right.cluster)) {
+            sep += (left.cluster != null ? CLUSTER_PAD : 0) + (right.cluster != null ? CLUSTER_PAD : 0);
+        }
+        return sep;
+    }
+
+    /**
+     * Places a layer by weighted isotonic regression: with o[i] the minimum
+     * offset of node i from the first node, minimizing the squared distance
+     * of x[i] - o[i] to desired[i] - o[i] under the constraint that these
+     * stay non-decreasing gives the closest non-overlapping placement, and
+     * pool adjacent violators solves it in linear time.
+     */
+    private void placeLayer(List<Node> layer, boolean useUp, boolean useDown) {
+        int n = layer.size();
+        if (n == 0) {
+            return;
+        }
+        double[] target = new double[n];
+        double[] weight = new double[n];
+        double offset = 0;
+        for (int i = 0; i < n; i++) {
+            Node node = layer.get(i);
+            offset += (i == 0) ? 0 : separation(layer.get(i - 1), node);
+            double desired = median(node, useUp, useDown);
+            target[i] = desired - offset;
+            weight[i] = node.isDummy() ? DUMMY_WEIGHT : 1;
+        }
+
+        double[] value = new double[n];
+        double[] blockWeight = new double[n];
+        int[] length = new int[n];
+        int blocks = 0;
+        for (int i = 0; i < n; i++) {
+            value[blocks] = target[i];
+            blockWeight[blocks] = weight[i];
+            length[blocks] = 1;
+            blocks++;
+            while (blocks > 1 && value[blocks - 2] >= value[blocks - 1]) {
+                double w = blockWeight[blocks - 2] + blockWeight[blocks - 1];
+                value[blocks - 2] = (value[blocks - 2] * blockWeight[blocks - 2]
+                                     + value[blocks - 1] * blockWeight[blocks - 1]) / w;
+                blockWeight[blocks - 2] = w;
+                length[blocks - 2] += length[blocks - 1];
+                blocks--;
+            }
+        }
+
+        offset = 0;
+        int i = 0;
+        for (int b = 0; b < blocks; b++) {
+            for (int j = 0; j < length[b]; j++, i++) {
+                offset += (i == 0) ? 0 : separation(layer.get(i - 1), layer.get(i));
+                layer.get(i).x = value[b] + offset;
+            }
+        }
+    }
+
+    private double median(Node node, boolean useUp, boolean useDown) {
+        int count = (useUp ? node.up.size() : 0) + (useDown ? node.down.size() : 0);
+        if (count == 0) {
+            return node.x;
+        }
+        double[] xs = new double[count];
+        int k = 0;
+        if (useUp) {
+            for (Node n : node.up) {
+                xs[k++] = n.x;
+            }
+        }
+        if (useDown) {
+            for (Node n : node.down) {
+                xs[k++] = n.x;
+            }
+        }
+        Arrays.sort(xs);
+        return (count % 2 == 1) ? xs[count / 2] : (xs[count / 2 - 1] + xs[count / 2]) / 2;
+    }
+
+    /**
+     * Shifts the layout to start at 0,0, computes the cluster boxes and
+     * routes the edges.
+     */
+    protected void finish() {
+        double minX = Double.MAX_VALUE;
+        for (Node node : nodes) {
+            double pad = (node.cluster != null) ? CLUSTER_PAD : 0;
+            minX = Math.min(minX, node.x - node.width / 2 - pad);
+        }
+        double minY = nodes.isEmpty() ? 0 : -CLUSTER_PAD;
+        minX = nodes.isEmpty() ? 0 : minX;
+        width = 0;
+        height = 0;
+        for (Node node : nodes) {
+            node.x -= minX;
+            node.y -= minY;
+            double pad = (node.cluster != null) ? CLUSTER_PAD : 0;
+            width = Math.max(width, node.x + node.width / 2 + pad);
+            height = Math.max(height, node.y + node.height / 2 + pad);
+        }
+
+        clusters.clear();
+        Map<String, double[]> bounds = Maps.newLinkedHashMap();
+        for (Node node : nodes) {
+            if (node.cluster == null) {
+                continue;
+            }
+            double[] b = bounds.get(node.cluster);
+            if (b == null) {
+                b = new double[] { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+                bounds.put(node.cluster, b);
+            }
+            b[0] = Math.min(b[0], node.x - node.width / 2);
+            b[1] = Math.min(b[1], node.y - node.height / 2);
+            b[2] = Math.max(b[2], node.x + node.width / 2);
+            b[3] = Math.max(b[3], node.y + node.height / 2);
+        }
+        for (Map.Entry<String, double[]> e : bounds.entrySet()) {
+            double[] b = e.getValue();
+            clusters.put(e.getKey(), new Box(b[0] - CLUSTER_PAD, b[1] - CLUSTER_PAD,
+                                             b[2] + CLUSTER_PAD, b[3] + CLUSTER_PAD));
+        }
+
+        for (Edge edge : edges) {
+            if (edge.chain.isEmpty()) {
+                edge.points = Collections.emptyList();
+                continue;
+            }
+            List<Point> points = Lists.newArrayListWithCapacity(edge.chain.size());
+            for (int i = 0; i < edge.chain.size(); i++) {
+                Node node = edge.chain.get(i);
+                if (i == 0) {
+                    points.add(new Point(node.x, node.y + node.height / 2));
+                } else if (i == edge.chain.size() - 1) {
+                    points.add(new Point(node.x, node.y - node.height / 2));
+                } else {
+                    points.add(new Point(node.x, node.y));
+                }
+            }
+            if (edge.reversed) {
+                Collections.reverse(points);
+            }
+            edge.points = points;
+        }
+    }
+
+    private static Node top(Edge edge) {
+        return edge.reversed ? edge.target : edge.source;
+    }
+
+    private static Node bottom(Edge edge) {
+        return edge.reversed ? edge.source : edge.target;
+    }
+}
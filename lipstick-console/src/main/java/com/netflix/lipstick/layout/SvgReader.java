@@ -0,0 +1,405 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.layout;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.lipstick.layout.LayeredLayout.Box;
+import com.netflix.lipstick.layout.LayeredLayout.Point;
+
+/**
+ * Reads a previous drawing of a graph back from its SVG, written by
+ * SvgWriter or by dot.
+ *
+ * A node is a group of class "node", identified by its element id, and its
+ * bounds are those of the polygons it is drawn with. An edge is a group of
+ * class "edge" titled "source->target", and its route is the sequence of
+ * points of its path, control points included. Coordinates are taken as
+ * written, without applying transforms, so they are only meaningful
+ * relative to each other. The labels of the nodes are read back as well
+ * from drawings written by SvgWriter.
+ *
+ * The document is scanned rather than parsed, which is much faster for the
+ * regular markup of both writers.
+ */
+public class SvgReader {
+
+    protected final Map<String, Box> nodeBounds = Maps.newHashMap();
+    protected final Map<String, Point> nodeCenters = Maps.newHashMap();
+    protected final Map<String, HtmlLabel> nodeLabels = Maps.newHashMap();
+    protected final Map<String, List<Point>> edgeRoutes = Maps.newHashMap();
+
+    private SvgReader() {
+    }
+
+    /**
+     * Reads a drawing. Groups that can not be read are skipped.
+     *
+     * @param svg the svg document
+     * @return
+     */
+    public static SvgReader read(String svg) {
+        SvgReader reader = new SvgReader();
+        boolean labels = svg.contains(SvgWriter.GENERATOR);
+        int pos = 0;
+        while ((pos = svg.indexOf("<g ", pos)) >= 0) {
+            int tagEnd = svg.indexOf('>', pos);
+            if (tagEnd < 0) {
+                break;
+            }
+            String tag = svg.substring(pos, tagEnd + 1);
+            String type = attribute(tag, "class");
+            if (!"node".equals(type) && !"edge".equals(type)) {
+                pos = tagEnd + 1;
+                continue;
+            }
+            int end = groupEnd(svg, tagEnd + 1);
+            String body = svg.substring(tagEnd + 1, end);
+            if ("node".equals(type)) {
+                reader.readNode(unescape(attribute(tag, "id")), body, labels);
+            } else {
+                reader.readEdge(body);
+            }
+            pos = end;
+        }
+        return reader;
+    }
+
+    /**
+     * @return the node centers by node id
+     */
+    public Map<String, Point> getNodeCenters() {
+        return nodeCenters;
+    }
+
+    /**
+     * @return the bounding boxes of the nodes by node id
+     */
+    public Map<String, Box> getNodeBounds() {
+        return nodeBounds;
+    }
+
+    /**
+     * Returns the label a node was drawn with.
+     *
+     * @param id
+     * @return the label, or null if it could not be read
+     */
+    public HtmlLabel getNodeLabel(String id) {
+        return nodeLabels.get(id);
+    }
+
+    /**
+     * @return the points of the edge paths by "source->target"
+     */
+    public Map<String, List<Point>> getEdgeRoutes() {
+        return edgeRoutes;
+    }
+
+    protected void readNode(String id, String body, boolean readLabel) {
+        if (id == null) {
+            return;
+        }
+        double x1 = Double.MAX_VALUE;
+        double y1 = Double.MAX_VALUE;
+        double x2 = -Double.MAX_VALUE;
+        double y2 = -Double.MAX_VALUE;
+        for (String polygon : elements(body, "polygon")) {
+            for (Point p : points(attribute(polygon, "points"))) {
+                x1 = Math.min(x1, p.x);
+                y1 = Math.min(y1, p.y);
+                x2 = Math.max(x2, p.x);
+                y2 = Math.max(y2, p.y);
+            }
+        }
+        if (x1 > x2) {
+            return;
+        }
+        nodeBounds.put(id, new Box(x1, y1, x2, y2));
+        nodeCenters.put(id, new Point((x1 + x2) / 2, (y1 + y2) / 2));
+        if (readLabel) {
+            HtmlLabel label = readLabel(body, x1, y1, x2, y2);
+            if (label != null) {
+                nodeLabels.put(id, label);
+            }
+        }
+    }
+
+    /**
+     * Reads back a label written by SvgWriter, where every cell is a
+     * polygon followed by its text.
+     *
+     * @return the label, or null if the node is not drawn as cells
+     */
+    protected HtmlLabel readLabel(String body, double left, double top, double right, double bottom) {
+        HtmlLabel label = new HtmlLabel();
+        List<HtmlLabel.Cell> row = null;
+        double rowY = Double.NaN;
+        int pos = 0;
+        while ((pos = body.indexOf("<polygon ", pos)) >= 0) {
+            int tagEnd = body.indexOf('>', pos);
+            int textStart = (tagEnd < 0) ? -1 : body.indexOf("<text ", tagEnd);
+            int next = (tagEnd < 0) ? -1 : body.indexOf("<polygon ", tagEnd);
+            if (textStart < 0 || (next >= 0 && next < textStart)) {
+                return null;
+            }
+            int textTagEnd = body.indexOf('>', textStart);
+            int textEnd = (textTagEnd < 0) ? -1 : body.indexOf("</text>", textTagEnd);
+            String polygon = body.substring(pos, tagEnd + 1);
+            List<Point> corners = points(attribute(polygon, "points"));
+            if (textEnd < 0 || corners.isEmpty()) {
+                return null;
+            }
+            double x1 = Double.MAX_VALUE;
+            double y1 = Double.MAX_VALUE;
+            double x2 = -Double.MAX_VALUE;
+            for (Point p : corners) {
+                x1 = Math.min(x1, p.x);
+                y1 = Math.min(y1, p.y);
+                x2 = Math.max(x2, p.x);
+            }
+            HtmlLabel.Cell cell = new HtmlLabel.Cell();
+            String fill = attribute(polygon, "fill");
+            cell.bgcolor = "none".equals(fill) ? null : fill;
+            cell.color = attribute(body.substring(textStart, textTagEnd + 1), "fill");
+            cell.text.append(unescape(body.substring(textTagEnd + 1, textEnd)));
+            cell.x = x1 - left;
+            cell.y = y1 - top;
+            cell.width = x2 - x1;
+            if (row == null || Math.abs(y1 - rowY) > 0.5) {
+                row = Lists.newArrayList();
+                label.rows.add(row);
+                rowY = y1;
+            }
+            row.add(cell);
+            pos = textEnd;
+        }
+        if (label.rows.isEmpty()) {
+            return null;
+        }
+        label.width = right - left;
+        label.height = bottom - top;
+        return label;
+    }
+
+    protected void readEdge(String body) {
+        int start = body.indexOf("<title>");
+        int end = (start < 0) ? -1 : body.indexOf("</title>", start);
+        List<String> paths = elements(body, "path");
+        if (end < 0 || paths.isEmpty()) {
+            return;
+        }
+        List<Point> route = points(attribute(paths.get(0), "d"));
+        if (!route.isEmpty()) {
+            edgeRoutes.put(unescape(body.substring(start + "<title>".length(), end)).trim(), route);
+        }
+    }
+
+    /**
+     * Returns the index just after the end tag of the group whose content
+     * starts at start.
+     */
+    private static int groupEnd(String svg, int start) {
+        int depth = 0;
+        int pos = start;
+        while (true) {
+            int open = svg.indexOf("<g", pos);
+            int close = svg.indexOf("</g>", pos);
+            if (close < 0) {
+                return svg.length();
+            }
+            if (open >= 0 && open < close) {
+                char c = svg.charAt(open + 2);
+                if (c == ' ' || c == '>') {
+                    depth++;
+                }
+                pos = open + 2;
+            } else if (depth > 0) {
+                depth--;
+                pos = close + 4;
+            } else {
+                return close + 4;
+            }
+        }
+    }
+
+    /**
+     * Returns the start tags of the elements with the given name.
+     */
+    private static List<String> elements(String body, String name) {
+        List<String> tags = Lists.newArrayList();
+        String open = "<" + name + " ";
+        int pos = 0;
+        while ((pos = body.indexOf(open, pos)) >= 0) {
+            int end = body.indexOf('>', pos);
+            if (end < 0) {
+                break;
+            }
+            tags.add(body.substring(pos, end + 1));
+            pos = end + 1;
+        }
+        return tags;
+    }
+
+    private static String attribute(String tag, String name) {
+        String key = " " + name + "=\"";
+        int start = tag.indexOf(key);
+        if (start < 0) {
+            return null;
+        }
+        start += key.length();
+        int end = tag.indexOf('"', start);
+        return (end < 0) ? null : tag.substring(start, end);
+    }
+
+    /**
+     * Parses the coordinate pairs of a polygon or path, ignoring commands.
+     */
+    private static List<Point> points(String value) {
+        List<Point> points = Lists.newArrayListWithCapacity(8);
+        if (value == null) {
+            return points;
+        }
+        double x = Double.NaN;
+        int pos = 0;
+        int length = value.length();
+        while (pos < length) {
+            char c = value.charAt(pos);
+            if (c != '-' && c != '.' && (c < '0' || c > '9')) {
+                pos++;
+                continue;
+            }
+            int start = pos;
+            boolean plain = true;
+            pos++;
+            while (pos < length) {
+                c = value.charAt(pos);
+                if ((c >= '0' && c <= '9') || c == '.') {
+                    pos++;
+                } else if (c == 'e' || c == 'E') {
+                    plain = false;
+                    pos++;
+                    if (pos < length && (value.charAt(pos) == '-' || value.charAt(pos) == '+')) {
+                        pos++;
+                    }
+                } else {
+                    break;
+                }
+            }
+            double number = plain ? decimal(value, start, pos) : Double.NaN;
+            if (Double.isNaN(number)) {
+                try {
+                    number = Double.parseDouble(value.substring(start, pos));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+            }
+            if (Double.isNaN(x)) {
+                x = number;
+            } else {
+                points.add(new Point(x, number));
+                x = Double.NaN;
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Parses a plain decimal number with a few fraction digits, as written
+     * by SvgWriter and dot, without going through Double.parseDouble.
+     *
+     * @return the number, or NaN if it is not that simple
+     */
+    private static double decimal(String value, int start, int end) {
+        boolean negative = value.charAt(start) == '-';
+        long mantissa = 0;
+        long scale = 1;
+        boolean fraction = false;
+        int digits = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c == '.') {
+                if (fraction) {
+                    return Double.NaN;
+                }
+                fraction = true;
+                continue;
+            }
+            if (++digits > 15) {
+                return Double.NaN;
+            }
+            mantissa = mantissa * 10 + (c - '0');
+            if (fraction) {
+                scale *= 10;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        // both exact, so the quotient is correctly rounded
+        double result = (double) mantissa / scale;
+        return negative ? -result : result;
+    }
+
+    /**
+     * Replaces the predefined and numeric character references in text.
+     */
+    private static String unescape(String text) {
+        if (text == null || text.indexOf('&') < 0) {
+            return text;
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        int pos = 0;
+        while (pos < text.length()) {
+            int semicolon = (text.charAt(pos) == '&') ? text.indexOf(';', pos) : -1;
+            String replacement = (semicolon < 0) ? null : entity(text.substring(pos + 1, semicolon));
+            if (replacement == null) {
+                sb.append(text.charAt(pos++));
+            } else {
+                sb.append(replacement);
+                pos = semicolon + 1;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String entity(String name) {
+        if ("amp".equals(name)) {
+            return "&";
+        } else if ("lt".equals(name)) {
+            return "<";
+        } else if ("gt".equals(name)) {
+            return ">";
+        } else if ("quot".equals(name)) {
+            return "\"";
+        } else if ("apos".equals(name)) {
+            return "'";
+        }
+        try {
+            if (name.startsWith("#x") || name.startsWith("#X")) {
+                return String.valueOf((char) Integer.parseInt(name.substring(2), 16));
+            } else if (name.startsWith("#")) {
+                return String.valueOf((char) Integer.parseInt(name.substring(1)));
+            }
+        } catch (NumberFormatException e) {
+            // not a character reference, keep it as it is
+        }
+        return null;
+    }
+}
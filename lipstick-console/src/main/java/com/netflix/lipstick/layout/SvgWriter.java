@@ -0,0 +1,248 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.layout;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.netflix.lipstick.layout.LayeredLayout.Box;
+import com.netflix.lipstick.layout.LayeredLayout.Edge;
+import com.netflix.lipstick.layout.LayeredLayout.Node;
+import com.netflix.lipstick.layout.LayeredLayout.Point;
+
+/**
+ * Writes a LayeredLayout of html labelled nodes as SVG.
+ *
+ * The document has the structure of the SVG written by dot, which the
+ * Lipstick graph view relies on: a "graph" group with a background
+ * polygon, "cluster" groups titled with the cluster name and drawn as a
+ * polygon, "node" groups with the node id as element id and title, and
+ * "edge" groups titled "source->target" holding a path starting with
+ * "Mx,yC" and an arrowhead polygon whose second point is the tip.
+ */
+public class SvgWriter {
+
+    /** Marks drawings whose labels SvgReader can read back. */
+    public static final String GENERATOR = "<!-- Generated by Lipstick -->";
+    public static final double MARGIN = 4;
+    public static final double ARROW_LENGTH = 10;
+    public static final double ARROW_WIDTH = 3.5;
+
+    protected final String clusterColor;
+
+    /**
+     * @param clusterColor fill color of cluster boxes
+     */
+    public SvgWriter(String clusterColor) {
+        this.clusterColor = clusterColor;
+    }
+
+    /**
+     * Writes the laid out graph.
+     *
+     * @param layout a layout on which layout() was called
+     * @param labels node labels by node id
+     * @return
+     */
+    public String write(LayeredLayout layout, Map<String, HtmlLabel> labels) {
+        StringBuilder svg = new StringBuilder(1024 + 512 * layout.getNodes().size());
+        double w = layout.getWidth() + 2 * MARGIN;
+        double h = layout.getHeight() + 2 * MARGIN;
+        svg.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n");
+        svg.append(GENERATOR).append('\n');
+        svg.append("<svg width=\"").append(num(w)).append("pt\" height=\"").append(num(h)).append("pt\"")
+           .append(" viewBox=\"0.00 0.00 ").append(num(w)).append(' ').append(num(h)).append('"')
+           .append(" xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">\n");
+        svg.append("<g id=\"graph0\" class=\"graph\" transform=\"translate(").append(num(MARGIN)).append(' ')
+           .append(num(MARGIN)).append(")\">\n");
+        svg.append("<polygon fill=\"white\" stroke=\"none\" points=\"");
+        rectangle(svg, -MARGIN, -MARGIN, w - MARGIN, h - MARGIN);
+        svg.append("\"/>\n");
+
+        int i = 1;
+        for (Entry<String, Box> e : layout.getClusters().entrySet()) {
+            Box box = e.getValue();
+            svg.append("<g id=\"clust").append(i++).append("\" class=\"cluster\"><title>");
+            escape(svg, e.getKey());
+            svg.append("</title>\n<polygon fill=\"").append(clusterColor).append("\" stroke=\"black\" points=\"");
+            rectangle(svg, box.getX1(), box.getY1(), box.getX2(), box.getY2());
+            svg.append("\"/>\n</g>\n");
+        }
+
+        for (Node node : layout.getNodes()) {
+            writeNode(svg, node, labels.get(node.getId()));
+        }
+
+        i = 1;
+        for (Edge edge : layout.getEdges()) {
+            writeEdge(svg, edge, i++);
+        }
+        svg.append("</g>\n</svg>\n");
+        return svg.toString();
+    }
+
+    protected void writeNode(StringBuilder svg, Node node, HtmlLabel label) {
+        svg.append("<g id=\"");
+        escape(svg, node.getId());
+        svg.append("\" class=\"node\"><title>");
+        escape(svg, node.getId());
+        svg.append("</title>\n");
+        double left = node.getX() - node.getWidth() / 2;
+        double top = node.getY() - node.getHeight() / 2;
+        if (label == null) {
+            svg.append("<polygon fill=\"none\" stroke=\"black\" points=\"");
+            rectangle(svg, left, top, left + node.getWidth(), top + node.getHeight());
+            svg.append("\"/>\n</g>\n");
+            return;
+        }
+        for (List<HtmlLabel.Cell> row : label.getRows()) {
+            for (HtmlLabel.Cell cell : row) {
+                double x1 = left + cell.getX();
+                double y1 = top + cell.getY();
+                double x2 = x1 + cell.getWidth();
+                double y2 = y1 + cell.getHeight();
+                svg.append("<polygon fill=\"").append(cell.getBgcolor() != null ? cell.getBgcolor() : "none")
+                   .append("\" stroke=\"black\" points=\"");
+                rectangle(svg, x1, y1, x2, y2);
+                svg.append("\"/>\n<text text-anchor=\"middle\" x=\"").append(num((x1 + x2) / 2))
+                   .append("\" y=\"").append(num(y2 - (cell.getHeight() - HtmlLabel.FONT_SIZE) / 2 - 2))
+                   .append("\" font-family=\"Times,serif\" font-size=\"").append(num(HtmlLabel.FONT_SIZE)).append('"');
+                if (cell.getColor() != null) {
+                    svg.append(" fill=\"").append(cell.getColor()).append('"');
+                }
+                svg.append('>');
+                escape(svg, cell.getText());
+                svg.append("</text>\n");
+            }
+        }
+        svg.append("</g>\n");
+    }
+
+    /**
+     * Writes an edge as a chain of vertical S curves through its points,
+     * shortened at the end to make room for the arrowhead.
+     */
+    protected void writeEdge(StringBuilder svg, Edge edge, int number) {
+        List<Point> points = edge.getPoints();
+        if (points.size() < 2) {
+            return;
+        }
+        svg.append("<g id=\"edge").append(number).append("\" class=\"edge\"><title>");
+        escape(svg, edge.getSource());
+        svg.append("-&gt;");
+        escape(svg, edge.getTarget());
+        svg.append("</title>\n<path fill=\"none\" stroke=\"black\" d=\"M");
+
+        Point tip = points.get(points.size() - 1);
+        double direction = Math.signum(tip.getY() - points.get(points.size() - 2).getY());
+        if (direction == 0) {
+            direction = 1;
+        }
+        double baseY = tip.getY() - direction * ARROW_LENGTH;
+
+        Point from = points.get(0);
+        point(svg, from.getX(), from.getY());
+        svg.append('C');
+        for (int i = 1; i < points.size(); i++) {
+            Point to = points.get(i);
+            double toY = (i == points.size() - 1) ? baseY : to.getY();
+            double midY = (from.getY() + toY) / 2;
+            if (i > 1) {
+                svg.append(' ');
+            }
+            point(svg, from.getX(), midY);
+            svg.append(' ');
+            point(svg, to.getX(), midY);
+            svg.append(' ');
+            point(svg, to.getX(), toY);
+            from = to;
+        }
+        svg.append("\"/>\n<polygon fill=\"black\" stroke=\"black\" points=\"");
+        point(svg, tip.getX() + ARROW_WIDTH, baseY);
+        svg.append(' ');
+        point(svg, tip.getX(), tip.getY());
+        svg.append(' ');
+        point(svg, tip.getX() - ARROW_WIDTH, baseY);
+        svg.append(' ');
+        point(svg, tip.getX() + ARROW_WIDTH, baseY);
+        svg.append("\"/>\n</g>\n");
+    }
+
+    private static void rectangle(StringBuilder svg, double x1, double y1, double x2, double y2) {
+        point(svg, x1, y1);
+        svg.append(' ');
+        point(svg, x1, y2);
+        svg.append(' ');
+        point(svg, x2, y2);
+        svg.append(' ');
+        point(svg, x2, y1);
+        svg.append(' ');
+        point(svg, x1, y1);
+    }
+
+    private static void point(StringBuilder svg, double x, double y) {
+        svg.append(num(x)).append(',').append(num(y));
+    }
+
+    /**
+     * Formats a coordinate with at most two decimals, independent of the
+     * default locale.
+     */
+    static String num(double value) {
+        long hundredths = Math.round(value * 100);
+        StringBuilder sb = new StringBuilder(12);
+        if (hundredths < 0) {
+            sb.append('-');
+            hundredths = -hundredths;
+        }
+        sb.append(hundredths / 100);
+        long fraction = hundredths % 100;
+        if (fraction != 0) {
+            sb.append('.');
+            if (fraction < 10) {
+                sb.append('0');
+            }
+            sb.append(fraction % 10 == 0 ? fraction / 10 : fraction);
+        }
+        return sb.toString();
+    }
+
+    private static void escape(StringBuilder svg, String text) {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '&':
+                svg.append("&amp;");
+                break;
+            case '<':
+                svg.append("&lt;");
+                break;
+            case '>':
+                svg.append("&gt;");
+                break;
+            case '"':
+                svg.append("&quot;");
+                break;
+            default:
+                svg.append(c);
+            }
+        }
+    }
+}
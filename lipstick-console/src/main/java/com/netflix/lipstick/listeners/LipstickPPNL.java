@@ -30,6 +30,7 @@ import org.apache.pig.tools.pigstats.PigProgressNotificationListener;
 
 import com.google.common.collect.Lists;
 import com.netflix.lipstick.P2jPlanGenerator;
+import com.netflix.lipstick.pigstatus.RestfulPigStatusClient;
 import com.netflix.lipstick.pigtolipstick.BasicP2LClient;
 import com.netflix.lipstick.pigtolipstick.P2LClient;
 
@@ -50,6 +51,8 @@ public class LipstickPPNL implements PigProgressNotificationListener {
     protected static final String LIPSTICK_UUID_PROP_DEFAULT = "lipstick.uuid";
 
     protected static final String LIPSTICK_URL_PROP = "lipstick.server.url";
+    protected static final String LIPSTICK_CONNECT_TIMEOUT_PROP = "lipstick.server.connect.timeout.ms";
+    protected static final String LIPSTICK_READ_TIMEOUT_PROP = "lipstick.server.read.timeout.ms";
 
     protected LipstickPigServer ps;
     protected PigContext context;
@@ -319,7 +322,24 @@ public class LipstickPPNL implements PigProgressNotificationListener {
         Properties props = ps.getPigContext().getProperties();
         if (clients.isEmpty() && props.containsKey(LIPSTICK_URL_PROP)) {
             // Initialize the client
-            clients.add(new BasicP2LClient(props.getProperty(LIPSTICK_URL_PROP)));
+            int connectTimeout = getIntProperty(props, LIPSTICK_CONNECT_TIMEOUT_PROP,
+                                                RestfulPigStatusClient.DEFAULT_CONNECT_TIMEOUT);
+            int readTimeout = getIntProperty(props, LIPSTICK_READ_TIMEOUT_PROP,
+                                             RestfulPigStatusClient.DEFAULT_READ_TIMEOUT);
+            clients.add(new BasicP2LClient(new RestfulPigStatusClient(props.getProperty(LIPSTICK_URL_PROP),
+                                                                      connectTimeout, readTimeout)));
         }
     }
+
+    protected static int getIntProperty(Properties props, String propName, int defaultValue) {
+        String strProp = props.getProperty(propName);
+        if (strProp != null) {
+            try {
+                return Integer.parseInt(strProp.trim());
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid value for " + propName + ": " + strProp + ", using " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
 }
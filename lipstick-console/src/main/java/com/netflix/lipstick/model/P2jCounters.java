@@ -22,6 +22,7 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 
+import com.google.common.base.Objects;
 import com.google.common.collect.Maps;
 /**
  * Container for Map/Reduce job counters.
@@ -52,4 +53,15 @@ public class P2jCounters {
         this.id = id;
     }
 
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof P2jCounters)) return false;
+        return Objects.equal(counters, ((P2jCounters) other).counters);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(counters);
+    }
 }
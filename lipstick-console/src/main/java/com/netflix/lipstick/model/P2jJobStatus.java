@@ -23,6 +23,9 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.OneToMany;
 
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+
 /**
  * Container for the status of an individual map/reduce job.
  * @author jmagnusson
@@ -56,6 +59,32 @@ public class P2jJobStatus {
     public P2jJobStatus() {
     }
 
+    /**
+     * Initialize a P2jJobStatus object with a snapshot of another's fields.
+     * The counters and warnings maps are copied, their values are shared.
+     *
+     * @param other the P2jJobStatus to copy
+     */
+    public P2jJobStatus(P2jJobStatus other) {
+        this.counters = (other.counters == null) ? null : Maps.newHashMap(other.counters);
+        this.warnings = (other.warnings == null) ? null : Maps.newHashMap(other.warnings);
+        this.scope = other.scope;
+        this.jobId = other.jobId;
+        this.jobName = other.jobName;
+        this.trackingUrl = other.trackingUrl;
+        this.isComplete = other.isComplete;
+        this.isSuccessful = other.isSuccessful;
+        this.mapProgress = other.mapProgress;
+        this.reduceProgress = other.reduceProgress;
+        this.totalMappers = other.totalMappers;
+        this.totalReducers = other.totalReducers;
+        this.id = other.id;
+        this.startTime = other.startTime;
+        this.finishTime = other.finishTime;
+        this.recordsWritten = other.recordsWritten;
+        this.bytesWritten = other.bytesWritten;
+    }
+
     @Id
     @GeneratedValue
     public long getId() {
@@ -195,4 +224,75 @@ public class P2jJobStatus {
     public void setBytesWritten(long bytesWritten) {
         this.bytesWritten = bytesWritten;
     }
+
+    /**
+     * Updates this job with the non-null fields of delta. Changed counters
+     * are merged into their groups, warnings are replaced as a whole.
+     *
+     * @param delta
+     */
+    public void applyDelta(P2jJobStatusDelta delta) {
+        if (delta.getScope() != null) scope = delta.getScope();
+        if (delta.getJobName() != null) jobName = delta.getJobName();
+        if (delta.getTrackingUrl() != null) trackingUrl = delta.getTrackingUrl();
+        if (delta.getIsComplete() != null) isComplete = delta.getIsComplete();
+        if (delta.getIsSuccessful() != null) isSuccessful = delta.getIsSuccessful();
+        if (delta.getMapProgress() != null) mapProgress = delta.getMapProgress();
+        if (delta.getReduceProgress() != null) reduceProgress = delta.getReduceProgress();
+        if (delta.getTotalMappers() != null) totalMappers = delta.getTotalMappers();
+        if (delta.getTotalReducers() != null) totalReducers = delta.getTotalReducers();
+        if (delta.getStartTime() != null) startTime = delta.getStartTime();
+        if (delta.getFinishTime() != null) finishTime = delta.getFinishTime();
+        if (delta.getRecordsWritten() != null) recordsWritten = delta.getRecordsWritten();
+        if (delta.getBytesWritten() != null) bytesWritten = delta.getBytesWritten();
+        if (delta.getWarnings() != null) warnings = delta.getWarnings();
+        if (delta.getCounters() != null) {
+            Map<String, P2jCounters> merged = (counters == null)
+                ? Maps.<String, P2jCounters>newHashMap() : Maps.newHashMap(counters);
+            for (Map.Entry<String, Map<String, Long>> group : delta.getCounters().entrySet()) {
+                // copy the group so counters shared with other snapshots aren't touched
+                P2jCounters updated = new P2jCounters();
+                P2jCounters existing = merged.get(group.getKey());
+                if (existing != null) {
+                    updated.getCounters().putAll(existing.getCounters());
+                }
+                updated.getCounters().putAll(group.getValue());
+                merged.put(group.getKey(), updated);
+            }
+            counters = merged;
+        }
+    }
+
+    /**
+     * Two job statuses are equal if they report the same state for the
+     * same job; the persistence id is not considered.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof P2jJobStatus)) return false;
+
+        P2jJobStatus js = (P2jJobStatus) other;
+        return isComplete == js.isComplete
+            && isSuccessful == js.isSuccessful
+            && mapProgress == js.mapProgress
+            && reduceProgress == js.reduceProgress
+            && totalMappers == js.totalMappers
+            && totalReducers == js.totalReducers
+            && startTime == js.startTime
+            && finishTime == js.finishTime
+            && recordsWritten == js.recordsWritten
+            && bytesWritten == js.bytesWritten
+            && Objects.equal(jobId, js.jobId)
+            && Objects.equal(scope, js.scope)
+            && Objects.equal(jobName, js.jobName)
+            && Objects.equal(trackingUrl, js.trackingUrl)
+            && Objects.equal(counters, js.counters)
+            && Objects.equal(warnings, js.warnings);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(jobId, scope, mapProgress, reduceProgress, finishTime);
+    }
 }
@@ -0,0 +1,271 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.model;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+
+/**
+ * The fields of a P2jJobStatus that changed between two updates.
+ * Unchanged fields are null and left out of the serialized form.
+ */
+@JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+public class P2jJobStatusDelta {
+
+    private String jobId;
+    private String scope;
+    private String jobName;
+    private String trackingUrl;
+    private Boolean isComplete;
+    private Boolean isSuccessful;
+    private Float mapProgress;
+    private Float reduceProgress;
+    private Integer totalMappers;
+    private Integer totalReducers;
+    private Long startTime;
+    private Long finishTime;
+    private Long recordsWritten;
+    private Long bytesWritten;
+    private Map<String, Map<String, Long>> counters;
+    private Map<String, P2jWarning> warnings;
+
+    /**
+     * Initialize an empty P2jJobStatusDelta object.
+     */
+    public P2jJobStatusDelta() {
+    }
+
+    /**
+     * Build the delta that turns base into current. Counters are compared
+     * one by one, warnings are sent as a whole if any of them changed.
+     *
+     * @param base the last state of the job known to the receiver, may be null
+     * @param current the current state of the job
+     * @return the delta, or null if nothing changed
+     */
+    public static P2jJobStatusDelta between(P2jJobStatus base, P2jJobStatus current) {
+        if (base == null) {
+            base = new P2jJobStatus();
+        }
+
+        P2jJobStatusDelta delta = new P2jJobStatusDelta();
+        delta.scope = changed(base.getScope(), current.getScope());
+        delta.jobName = changed(base.getJobName(), current.getJobName());
+        delta.trackingUrl = changed(base.getTrackingUrl(), current.getTrackingUrl());
+        delta.isComplete = changed(base.getIsComplete(), current.getIsComplete());
+        delta.isSuccessful = changed(base.getIsSuccessful(), current.getIsSuccessful());
+        delta.mapProgress = changed(base.getMapProgress(), current.getMapProgress());
+        delta.reduceProgress = changed(base.getReduceProgress(), current.getReduceProgress());
+        delta.totalMappers = changed(base.getTotalMappers(), current.getTotalMappers());
+        delta.totalReducers = changed(base.getTotalReducers(), current.getTotalReducers());
+        delta.startTime = changed(base.getStartTime(), current.getStartTime());
+        delta.finishTime = changed(base.getFinishTime(), current.getFinishTime());
+        delta.recordsWritten = changed(base.getRecordsWritten(), current.getRecordsWritten());
+        delta.bytesWritten = changed(base.getBytesWritten(), current.getBytesWritten());
+        delta.counters = changedCounters(base.getCounters(), current.getCounters());
+        if (current.getWarnings() != null && !current.getWarnings().equals(base.getWarnings())) {
+            delta.warnings = current.getWarnings();
+        }
+
+        if (delta.isEmpty()) {
+            return null;
+        }
+        delta.jobId = current.getJobId();
+        return delta;
+    }
+
+    private static <T> T changed(T base, T current) {
+        return Objects.equal(base, current) ? null : current;
+    }
+
+    private static Map<String, Map<String, Long>> changedCounters(Map<String, P2jCounters> base,
+                                                                  Map<String, P2jCounters> current) {
+        if (current == null) {
+            return null;
+        }
+        Map<String, Map<String, Long>> changed = Maps.newHashMap();
+        for (Entry<String, P2jCounters> group : current.entrySet()) {
+            P2jCounters baseGroup = (base == null) ? null : base.get(group.getKey());
+            Map<String, Long> changedGroup = Maps.newHashMap();
+            for (Entry<String, Long> counter : group.getValue().getCounters().entrySet()) {
+                Long baseValue = (baseGroup == null) ? null : baseGroup.getCounters().get(counter.getKey());
+                if (!counter.getValue().equals(baseValue)) {
+                    changedGroup.put(counter.getKey(), counter.getValue());
+                }
+            }
+            if (!changedGroup.isEmpty()) {
+                changed.put(group.getKey(), changedGroup);
+            }
+        }
+        return changed.isEmpty() ? null : changed;
+    }
+
+    /**
+     * Checks if the delta carries any changes.
+     *
+     * @return true if no field changed
+     */
+    @JsonIgnore
+    public boolean isEmpty() {
+        return scope == null && jobName == null && trackingUrl == null
+            && isComplete == null && isSuccessful == null
+            && mapProgress == null && reduceProgress == null
+            && totalMappers == null && totalReducers == null
+            && startTime == null && finishTime == null
+            && recordsWritten == null && bytesWritten == null
+            && counters == null && warnings == null;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public void setScope(String scope) {
+        this.scope = scope;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public void setJobName(String jobName) {
+        this.jobName = jobName;
+    }
+
+    public String getTrackingUrl() {
+        return trackingUrl;
+    }
+
+    public void setTrackingUrl(String trackingUrl) {
+        this.trackingUrl = trackingUrl;
+    }
+
+    public Boolean getIsComplete() {
+        return isComplete;
+    }
+
+    public void setIsComplete(Boolean isComplete) {
+        this.isComplete = isComplete;
+    }
+
+    public Boolean getIsSuccessful() {
+        return isSuccessful;
+    }
+
+    public void setIsSuccessful(Boolean isSuccessful) {
+        this.isSuccessful = isSuccessful;
+    }
+
+    public Float getMapProgress() {
+        return mapProgress;
+    }
+
+    public void setMapProgress(Float mapProgress) {
+        this.mapProgress = mapProgress;
+    }
+
+    public Float getReduceProgress() {
+        return reduceProgress;
+    }
+
+    public void setReduceProgress(Float reduceProgress) {
+        this.reduceProgress = reduceProgress;
+    }
+
+    public Integer getTotalMappers() {
+        return totalMappers;
+    }
+
+    public void setTotalMappers(Integer totalMappers) {
+        this.totalMappers = totalMappers;
+    }
+
+    public Integer getTotalReducers() {
+        return totalReducers;
+    }
+
+    public void setTotalReducers(Integer totalReducers) {
+        this.totalReducers = totalReducers;
+    }
+
+    public Long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(Long startTime) {
+        this.startTime = startTime;
+    }
+
+    public Long getFinishTime() {
+        return finishTime;
+    }
+
+    public void setFinishTime(Long finishTime) {
+        this.finishTime = finishTime;
+    }
+
+    public Long getRecordsWritten() {
+        return recordsWritten;
+    }
+
+    public void setRecordsWritten(Long recordsWritten) {
+        this.recordsWritten = recordsWritten;
+    }
+
+    public Long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public void setBytesWritten(Long bytesWritten) {
+        this.bytesWritten = bytesWritten;
+    }
+
+    /**
+     * Returns the changed counters, keyed by counter group and then
+     * counter name.
+     *
+     * @return
+     */
+    public Map<String, Map<String, Long>> getCounters() {
+        return counters;
+    }
+
+    public void setCounters(Map<String, Map<String, Long>> counters) {
+        this.counters = counters;
+    }
+
+    public Map<String, P2jWarning> getWarnings() {
+        return warnings;
+    }
+
+    public void setWarnings(Map<String, P2jWarning> warnings) {
+        this.warnings = warnings;
+    }
+}
@@ -15,7 +15,9 @@
  */
 package com.netflix.lipstick.model;
 
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Entity;
@@ -23,8 +25,12 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.Lob;
 import javax.persistence.OneToMany;
+import javax.persistence.Transient;
+
+import org.codehaus.jackson.map.annotate.JsonSerialize;
 
 import com.netflix.lipstick.model.operators.P2jLogicalRelationalOperator;
+import com.netflix.lipstick.model.operators.elements.SchemaElement;
 
 /**
  * Container for a logical plan.
@@ -38,6 +44,7 @@ public class P2jPlan {
     private long id;
     private Map<String, P2jLogicalRelationalOperator> plan = null;
     private String svg = null;
+    private Map<String, List<SchemaElement>> schemas = null;
 
     /**
      * Construct an empty P2jPlan object.
@@ -92,12 +99,63 @@ public class P2jPlan {
         return svg;
     }
 
+    /**
+     * Get the table of schemas referenced by the operators' schema ids, or
+     * null if the plan's schemas have not been interned.
+     *
+     * @return map of schema id to schema
+     */
+    @Transient
+    @JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+    public Map<String, List<SchemaElement>> getSchemas() {
+        return schemas;
+    }
+
+    /**
+     * Interns the schemas of all operators in the plan, so operators with
+     * equal schemas share a single instance and reference it by id. The
+     * schemas are then serialized once, in the plan's schema table, instead
+     * of with every operator.
+     */
+    public void internSchemas() {
+        if (plan == null) {
+            return;
+        }
+        SchemaTable table = new SchemaTable();
+        for (P2jLogicalRelationalOperator op : new TreeMap<String, P2jLogicalRelationalOperator>(plan).values()) {
+            String schemaId = table.getId(op.getSchema());
+            op.setInternedSchema(schemaId, table.getSchema(schemaId));
+        }
+        schemas = table.getSchemas();
+    }
+
+    /**
+     * Points operators that carry a schema id at the matching schema in the
+     * schema table.
+     */
+    protected void resolveSchemas() {
+        if (plan == null || schemas == null) {
+            return;
+        }
+        for (P2jLogicalRelationalOperator op : plan.values()) {
+            if (op.getSchemaId() != null && schemas.containsKey(op.getSchemaId())) {
+                op.setInternedSchema(op.getSchemaId(), schemas.get(op.getSchemaId()));
+            }
+        }
+    }
+
     public void setId(long id) {
         this.id = id;
     }
 
     public void setPlan(Map<String, P2jLogicalRelationalOperator> plan) {
         this.plan = plan;
+        resolveSchemas();
+    }
+
+    public void setSchemas(Map<String, List<SchemaElement>> schemas) {
+        this.schemas = schemas;
+        resolveSchemas();
     }
 
     public void setSvg(String svg) {
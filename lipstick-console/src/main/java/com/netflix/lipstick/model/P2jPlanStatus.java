@@ -51,6 +51,7 @@ public class P2jPlanStatus {
     private Date endTime = null;
     private Date heartbeatTime = null;
     private StatusText statusText = null;
+    private long sequence = 0;
 
     public static enum StatusText {
         finished, running, terminated, failed
@@ -63,6 +64,28 @@ public class P2jPlanStatus {
         jobStatusMap = Maps.newHashMap();
     }
 
+    /**
+     * Creates a P2jPlanStatus object with a snapshot of another's fields.
+     * The jobs are copied too, so later changes to the other status or its
+     * jobs don't show through.
+     *
+     * @param other the P2jPlanStatus to copy
+     */
+    public P2jPlanStatus(P2jPlanStatus other) {
+        this();
+        this.id = other.id;
+        this.progress = other.progress;
+        this.startTime = other.startTime;
+        this.endTime = other.endTime;
+        this.heartbeatTime = other.heartbeatTime;
+        this.statusText = other.statusText;
+        this.sequence = other.sequence;
+        for (Map.Entry<String, P2jJobStatus> entry : other.jobStatusMap.entrySet()) {
+            P2jJobStatus job = entry.getValue();
+            jobStatusMap.put(entry.getKey(), (job == null) ? null : new P2jJobStatus(job));
+        }
+    }
+
     @Id
     @GeneratedValue
     public long getId() {
@@ -138,6 +161,25 @@ public class P2jPlanStatus {
         return heartbeatTime;
     }
 
+    /**
+     * Returns the sequence number of the last update applied to the
+     * P2jPlanStatus object, 0 if updates aren't numbered.
+     *
+     * @return
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Sets the sequence number for the P2jPlanStatus object.
+     *
+     * @param sequence
+     */
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
     /**
      * Sets the statusText for the P2jPlanStatus object.
      *
@@ -290,10 +332,49 @@ public class P2jPlanStatus {
         if (plan.getStatusText() != null) {
             setStatusText(plan.getStatusText());
         }
+        if (plan.getSequence() > 0) {
+            setSequence(plan.getSequence());
+        }
         for (String jid : plan.getJobList()) {
             this.updateWith(plan.getJob(jid));
         }
         return this;
     }
 
+    /**
+     * Updates this plan with the changes carried by delta. The caller is
+     * responsible for checking delta.getBaseSequence() against getSequence().
+     *
+     * @param delta
+     * @return
+     */
+    public P2jPlanStatus applyDelta(P2jPlanStatusDelta delta) {
+        if (delta.getProgress() != null) {
+            setProgress(delta.getProgress());
+        }
+        if (delta.getStartTime() != null) {
+            setStartTime(delta.getStartTime());
+        }
+        if (delta.getEndTime() != null) {
+            setEndTime(delta.getEndTime());
+        }
+        if (delta.getHeartbeatTime() != null) {
+            setHeartbeatTime(delta.getHeartbeatTime());
+        }
+        if (delta.getStatusText() != null) {
+            setStatusText(delta.getStatusText());
+        }
+        for (P2jJobStatusDelta jobDelta : delta.getJobs().values()) {
+            P2jJobStatus job = getJob(jobDelta.getJobId());
+            if (job == null) {
+                job = new P2jJobStatus();
+                job.setJobId(jobDelta.getJobId());
+                updateWith(job);
+            }
+            job.applyDelta(jobDelta);
+        }
+        setSequence(delta.getSequence());
+        return this;
+    }
+
 }
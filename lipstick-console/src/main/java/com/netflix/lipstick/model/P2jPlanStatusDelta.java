@@ -0,0 +1,158 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.model;
+
+import java.util.Date;
+import java.util.Map;
+
+import org.codehaus.jackson.map.annotate.JsonSerialize;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+import com.netflix.lipstick.model.P2jPlanStatus.StatusText;
+
+/**
+ * The changes to a P2jPlanStatus since a previous update.
+ *
+ * Every update carries a sequence number. A delta is only valid on top of
+ * the update numbered baseSequence; a receiver whose last applied update
+ * has a different number has missed something and needs a full status.
+ */
+@JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+public class P2jPlanStatusDelta {
+
+    private long sequence;
+    private long baseSequence;
+    private Integer progress;
+    private Date startTime;
+    private Date endTime;
+    private Date heartbeatTime;
+    private StatusText statusText;
+    private Map<String, P2jJobStatusDelta> jobs = Maps.newHashMap();
+
+    /**
+     * Initialize an empty P2jPlanStatusDelta object.
+     */
+    public P2jPlanStatusDelta() {
+    }
+
+    /**
+     * Build the delta that brings base up to date with current. Jobs only
+     * present in base are left untouched, matching P2jPlanStatus.updateWith.
+     *
+     * @param base the last status known to the receiver
+     * @param current the status to send
+     * @return the delta
+     */
+    public static P2jPlanStatusDelta between(P2jPlanStatus base, P2jPlanStatus current) {
+        P2jPlanStatusDelta delta = new P2jPlanStatusDelta();
+        if (current.getProgress() > 0 && current.getProgress() != base.getProgress()) {
+            delta.progress = current.getProgress();
+        }
+        if (current.getStartTime() != null && !current.getStartTime().equals(base.getStartTime())) {
+            delta.startTime = current.getStartTime();
+        }
+        if (current.getEndTime() != null && !current.getEndTime().equals(base.getEndTime())) {
+            delta.endTime = current.getEndTime();
+        }
+        if (current.getStatusText() != null && !Objects.equal(current.getStatusText(), base.getStatusText())) {
+            delta.statusText = current.getStatusText();
+        }
+        for (String jid : current.getJobList()) {
+            P2jJobStatusDelta job = P2jJobStatusDelta.between(base.getJob(jid), current.getJob(jid));
+            if (job != null) {
+                delta.jobs.put(jid, job);
+            }
+        }
+        return delta;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Returns the sequence number of the update this delta applies to.
+     *
+     * @return
+     */
+    public long getBaseSequence() {
+        return baseSequence;
+    }
+
+    public void setBaseSequence(long baseSequence) {
+        this.baseSequence = baseSequence;
+    }
+
+    public Integer getProgress() {
+        return progress;
+    }
+
+    public void setProgress(Integer progress) {
+        this.progress = progress;
+    }
+
+    public Date getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(Date startTime) {
+        this.startTime = startTime;
+    }
+
+    public Date getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(Date endTime) {
+        this.endTime = endTime;
+    }
+
+    public Date getHeartbeatTime() {
+        return heartbeatTime;
+    }
+
+    public void setHeartbeatTime(Date heartbeatTime) {
+        this.heartbeatTime = heartbeatTime;
+    }
+
+    /**
+     * Sets the heartbeat time for the P2jPlanStatusDelta object to the current time.
+     */
+    public void setHeartbeatTime() {
+        this.heartbeatTime = new Date();
+    }
+
+    public StatusText getStatusText() {
+        return statusText;
+    }
+
+    public void setStatusText(StatusText statusText) {
+        this.statusText = statusText;
+    }
+
+    public Map<String, P2jJobStatusDelta> getJobs() {
+        return jobs;
+    }
+
+    public void setJobs(Map<String, P2jJobStatusDelta> jobs) {
+        this.jobs = jobs;
+    }
+}
@@ -22,6 +22,7 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 
+import com.google.common.base.Objects;
 import com.google.common.collect.Maps;
 
 /**
@@ -72,4 +73,19 @@ public class P2jWarning {
         this.warningKey = warningKey;
     }
 
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof P2jWarning)) return false;
+
+        P2jWarning w = (P2jWarning) other;
+        return Objects.equal(jobId, w.jobId)
+            && Objects.equal(warningKey, w.warningKey)
+            && Objects.equal(warningAttributes, w.warningAttributes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(jobId, warningKey, warningAttributes);
+    }
 }
@@ -0,0 +1,194 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.model;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.lipstick.model.operators.elements.SchemaElement;
+
+/**
+ * Interning table for schemas.
+ *
+ * Schemas are hash-consed bottom up: nested schemas are interned before the
+ * elements containing them, so structurally equal schemas end up as the very
+ * same list instance and can be compared by reference. Schemas looked up
+ * with getId are given an id, assigned in the order they are first seen.
+ *
+ * Interned schemas are shared between operators and must not be modified.
+ *
+ */
+public class SchemaTable {
+
+    /** Identity of an element: alias, type and the interned nested schema. */
+    private static final class ElementKey {
+        private final String alias;
+        private final String type;
+        private final List<SchemaElement> schema;
+
+        ElementKey(String alias, String type, List<SchemaElement> schema) {
+            this.alias = alias;
+            this.type = type;
+            this.schema = schema;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(alias, type, System.identityHashCode(schema));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ElementKey)) {
+                return false;
+            }
+            ElementKey other = (ElementKey) obj;
+            return Objects.equal(alias, other.alias) && Objects.equal(type, other.type) && schema == other.schema;
+        }
+    }
+
+    /** Identity of a schema: the list of its interned elements. */
+    private static final class SchemaKey {
+        private final List<SchemaElement> elements;
+        private final int hash;
+
+        SchemaKey(List<SchemaElement> elements) {
+            this.elements = elements;
+            int h = 1;
+            for (SchemaElement element : elements) {
+                h = 31 * h + System.identityHashCode(element);
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof SchemaKey)) {
+                return false;
+            }
+            List<SchemaElement> other = ((SchemaKey) obj).elements;
+            if (other.size() != elements.size()) {
+                return false;
+            }
+            for (int i = 0; i < elements.size(); i++) {
+                if (elements.get(i) != other.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final Map<ElementKey, SchemaElement> elements = Maps.newHashMap();
+    private final Map<SchemaKey, List<SchemaElement>> schemas = Maps.newHashMap();
+    private final Set<List<SchemaElement>> canonical = Collections.newSetFromMap(
+        new IdentityHashMap<List<SchemaElement>, Boolean>());
+    private final Map<List<SchemaElement>, String> ids = new IdentityHashMap<List<SchemaElement>, String>();
+    private final Map<String, List<SchemaElement>> byId = Maps.newLinkedHashMap();
+
+    /**
+     * Returns the interned instance of schema, or null if schema is null.
+     *
+     * @param schema
+     * @return
+     */
+    public List<SchemaElement> intern(List<SchemaElement> schema) {
+        if (schema == null) {
+            return null;
+        }
+        if (canonical.contains(schema)) {
+            return schema;
+        }
+        List<SchemaElement> interned = Lists.newArrayListWithCapacity(schema.size());
+        for (SchemaElement element : schema) {
+            interned.add(intern(element));
+        }
+        SchemaKey key = new SchemaKey(interned);
+        List<SchemaElement> result = schemas.get(key);
+        if (result == null) {
+            result = ImmutableList.copyOf(interned);
+            schemas.put(new SchemaKey(result), result);
+            canonical.add(result);
+        }
+        return result;
+    }
+
+    /**
+     * Interns schema and returns its id, or null if schema is null.
+     *
+     * @param schema
+     * @return
+     */
+    public String getId(List<SchemaElement> schema) {
+        if (schema == null) {
+            return null;
+        }
+        List<SchemaElement> interned = intern(schema);
+        String id = ids.get(interned);
+        if (id == null) {
+            id = String.valueOf(byId.size() + 1);
+            ids.put(interned, id);
+            byId.put(id, interned);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the interned schema with the given id, or null if there is none.
+     *
+     * @param id
+     * @return
+     */
+    public List<SchemaElement> getSchema(String id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Returns the schemas that were given an id, in id order.
+     *
+     * @return
+     */
+    public Map<String, List<SchemaElement>> getSchemas() {
+        return Collections.unmodifiableMap(byId);
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    protected SchemaElement intern(SchemaElement element) {
+        List<SchemaElement> nested = intern(element.getSchemaElements());
+        ElementKey key = new ElementKey(element.getAlias(), element.getType(), nested);
+        SchemaElement result = elements.get(key);
+        if (result == null) {
+            result = new SchemaElement(element.getAlias(), element.getType(), null, nested);
+            elements.put(key, result);
+        }
+        return result;
+    }
+}
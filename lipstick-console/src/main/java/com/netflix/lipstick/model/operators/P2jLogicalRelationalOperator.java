@@ -33,7 +33,10 @@ import javax.persistence.OneToMany;
 import javax.persistence.Transient;
 
 import org.apache.pig.parser.ParserException;
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonProperty;
 import org.codehaus.jackson.annotate.JsonTypeInfo;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -204,6 +207,7 @@ public class P2jLogicalRelationalOperator {
     private String operator;
     private List<String> predecessors;
     private List<SchemaElement> schema;
+    private String schemaId;
     private String schemaString;
     private List<String> successors;
     private String uid;
@@ -236,10 +240,35 @@ public class P2jLogicalRelationalOperator {
     }
 
     @Transient
+    @JsonIgnore
     public List<SchemaElement> getSchema() {
         return schema;
     }
 
+    /**
+     * Returns the schema to serialize inline with the operator, which is
+     * null when the schema is interned in the plan's schema table.
+     *
+     * @return
+     */
+    @Transient
+    @JsonProperty("schema")
+    @JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+    public List<SchemaElement> getInlineSchema() {
+        return (schemaId == null) ? schema : null;
+    }
+
+    /**
+     * Returns the id of the operator's schema in the plan's schema table, or
+     * null if the schema is not interned.
+     *
+     * @return
+     */
+    @JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+    public String getSchemaId() {
+        return schemaId;
+    }
+
     @Lob
     public String getSchemaString() {
         return schemaString;
@@ -303,11 +332,18 @@ public class P2jLogicalRelationalOperator {
 
     /**
      * Sets the P2jLogicalRelationalOperator's schema to the passed in schema,
-     * or to any empty list if the passed in schema is null.
+     * or to any empty list if the passed in schema is null. Clears the
+     * schema id, if any.
      *
      * @param schema
      */
+    @JsonProperty("schema")
     public void setSchema(List<SchemaElement> schema) {
+        applySchema(schema);
+        this.schemaId = null;
+    }
+
+    private void applySchema(List<SchemaElement> schema) {
         if (schema == null) {
             schema = Lists.newArrayList();
         }
@@ -315,20 +351,43 @@ public class P2jLogicalRelationalOperator {
     }
 
     /**
-     * Sets the P2jLogicalRelationalOperator's schemaString.
+     * Sets the P2jLogicalRelationalOperator's schema to an interned schema
+     * and its id in the plan's schema table.
+     *
+     * @param schemaId
+     * @param schema
+     */
+    public void setInternedSchema(String schemaId, List<SchemaElement> schema) {
+        applySchema(schema);
+        this.schemaId = schemaId;
+    }
+
+    /**
+     * Sets the id of the operator's schema in the plan's schema table. The
+     * schema itself is resolved by the P2jPlan.
+     *
+     * @param schemaId
+     */
+    public void setSchemaId(String schemaId) {
+        this.schemaId = schemaId;
+    }
+
+    /**
+     * Sets the P2jLogicalRelationalOperator's schemaString. The schema id,
+     * if any, is kept.
      *
      * @param schemaString
      */
     public void setSchemaString(String schemaString) {
         if (schemaString != null) {
             try {
-                setSchema(Utils.processSchema(schemaString));
+                applySchema(Utils.processSchema(schemaString));
             } catch (ParserException e) {
                 e.printStackTrace();
             }
             this.schemaString = schemaString.replace(".", "_");
         } else {
-            setSchema(null);
+            applySchema(null);
         }        
     }
 
@@ -0,0 +1,363 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.pigstatus;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.collect.Maps;
+import com.netflix.lipstick.model.P2jJobStatus;
+import com.netflix.lipstick.model.P2jPlanPackage;
+import com.netflix.lipstick.model.P2jPlanStatus;
+import com.netflix.lipstick.model.P2jPlanStatusDelta;
+import com.netflix.lipstick.model.P2jSampleOutputList;
+
+/**
+ * PigStatusClient that hands status and sample output updates to a
+ * background thread, so callers never block on the Lipstick server.
+ *
+ * Plans are still saved synchronously because the caller needs the result
+ * to know whether the server can be reached at all. Pending updates are
+ * kept in a bounded queue whose behavior when full is decided by the
+ * OverflowPolicy. Queued statuses are copies taken when they are saved,
+ * so callers are free to keep changing the status and its jobs.
+ *
+ * Statuses are also coalesced before sending: at most one status is sent
+ * per minSendInterval (statuses arriving in between are merged when using
+ * OverflowPolicy.MERGE), and jobs whose status hasn't changed since it was
+ * last sent are left out of the update. The server merges updates into the
+ * plan it already has, so omitted jobs keep their last reported state.
+ */
+public class AsyncPigStatusClient implements PigStatusClient {
+    private static final Log LOG = LogFactory.getLog(AsyncPigStatusClient.class);
+
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+
+    /**
+     * What to do with status updates that arrive while others are pending.
+     */
+    public static enum OverflowPolicy {
+        /** Merge a status into the pending status for the same plan, if any. */
+        MERGE,
+        /** Queue every status; when the queue is full drop the oldest update. */
+        DROP
+    }
+
+    protected final PigStatusClient client;
+    protected final int queueSize;
+    protected final OverflowPolicy policy;
+    protected final long minSendInterval;
+
+    protected final LinkedList<PendingUpdate> queue = new LinkedList<PendingUpdate>();
+    protected final Map<String, StatusUpdate> pendingStatus = Maps.newHashMap();
+    protected final Thread worker;
+    protected boolean sending = false;
+    protected boolean closed = false;
+    protected int flushing = 0;
+    protected long droppedUpdates = 0;
+
+    /* Only touched by the publishing thread. */
+    protected long lastStatusSent = 0;
+    protected final Map<String, P2jJobStatus> lastSentJobs = Maps.newHashMap();
+
+    /**
+     * Constructs an AsyncPigStatusClient with the default queue size and policy.
+     *
+     * @param client the client used to actually contact the server
+     */
+    public AsyncPigStatusClient(PigStatusClient client) {
+        this(client, DEFAULT_QUEUE_SIZE, OverflowPolicy.MERGE);
+    }
+
+    /**
+     * Constructs an AsyncPigStatusClient and starts its publishing thread.
+     *
+     * @param client the client used to actually contact the server
+     * @param queueSize the maximum number of pending updates
+     * @param policy how to handle statuses while others are pending
+     */
+    public AsyncPigStatusClient(PigStatusClient client, int queueSize, OverflowPolicy policy) {
+        this(client, queueSize, policy, 0);
+    }
+
+    /**
+     * Constructs an AsyncPigStatusClient and starts its publishing thread.
+     *
+     * @param client the client used to actually contact the server
+     * @param queueSize the maximum number of pending updates
+     * @param policy how to handle statuses while others are pending
+     * @param minSendInterval minimum time in milliseconds between two statuses
+     */
+    public AsyncPigStatusClient(PigStatusClient client, int queueSize, OverflowPolicy policy, long minSendInterval) {
+        this.client = client;
+        this.queueSize = Math.max(1, queueSize);
+        this.policy = policy;
+        this.minSendInterval = Math.max(0, minSendInterval);
+        this.worker = new Thread(new Publisher(), "lipstick-status-publisher");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    @Override
+    public String savePlan(P2jPlanPackage plans) {
+        return client.savePlan(plans);
+    }
+
+    @Override
+    public void saveStatus(String uuid, P2jPlanStatus status) {
+        synchronized (queue) {
+            if (!closed) {
+                StatusUpdate pending = pendingStatus.get(uuid);
+                if (policy == OverflowPolicy.MERGE && pending != null) {
+                    // merge a copy, the merged jobs must not be the caller's
+                    pending.status.updateWith(new P2jPlanStatus(status));
+                } else {
+                    StatusUpdate update = new StatusUpdate(uuid, new P2jPlanStatus(status));
+                    pendingStatus.put(uuid, update);
+                    enqueue(update);
+                }
+                return;
+            }
+        }
+        client.saveStatus(uuid, status);
+    }
+
+    /**
+     * Deltas depend on the order in which they are applied, so they are
+     * never queued; this call is passed straight through.
+     */
+    @Override
+    public DeltaResult saveStatusDelta(String uuid, P2jPlanStatusDelta delta) {
+        return client.saveStatusDelta(uuid, delta);
+    }
+
+    @Override
+    public void saveSampleOutput(String uuid, String jobId, P2jSampleOutputList sampleOutputList) {
+        synchronized (queue) {
+            if (!closed) {
+                enqueue(new SampleOutputUpdate(uuid, jobId, sampleOutputList));
+                return;
+            }
+        }
+        client.saveSampleOutput(uuid, jobId, sampleOutputList);
+    }
+
+    /**
+     * Waits until every pending update has been sent. Pending statuses are
+     * sent right away, regardless of minSendInterval.
+     *
+     * @param timeoutMillis the maximum time to wait
+     * @return true if all updates were sent before the timeout
+     */
+    public boolean flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (queue) {
+            flushing++;
+            queue.notifyAll();
+            try {
+                while (!queue.isEmpty() || sending) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    try {
+                        queue.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+            } finally {
+                flushing--;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Flushes pending updates and stops the publishing thread. Updates
+     * made after closing are sent synchronously.
+     *
+     * @param timeoutMillis the maximum time to wait for pending updates
+     * @return true if all updates were sent before the timeout
+     */
+    public boolean close(long timeoutMillis) {
+        boolean flushed = flush(timeoutMillis);
+        synchronized (queue) {
+            closed = true;
+            if (!queue.isEmpty()) {
+                LOG.warn("Discarding " + queue.size() + " unsent Lipstick updates.");
+                queue.clear();
+                pendingStatus.clear();
+            }
+            queue.notifyAll();
+        }
+        return flushed;
+    }
+
+    /**
+     * Returns the number of updates dropped because the queue was full.
+     *
+     * @return
+     */
+    public long getDroppedUpdates() {
+        synchronized (queue) {
+            return droppedUpdates;
+        }
+    }
+
+    protected void enqueue(PendingUpdate update) {
+        if (queue.size() >= queueSize) {
+            PendingUpdate dropped = queue.removeFirst();
+            dropped.dequeued();
+            droppedUpdates++;
+            LOG.warn("Lipstick update queue is full, dropping oldest update.");
+        }
+        queue.addLast(update);
+        queue.notifyAll();
+    }
+
+    /**
+     * Drops jobs from status whose state is the same as when they were last
+     * sent, and remembers the state of the jobs that remain.
+     *
+     * @param status the status about to be sent
+     */
+    protected void suppressUnchangedJobs(P2jPlanStatus status) {
+        Iterator<Entry<String, P2jJobStatus>> iter = status.getJobStatusMap().entrySet().iterator();
+        while (iter.hasNext()) {
+            Entry<String, P2jJobStatus> entry = iter.next();
+            P2jJobStatus job = entry.getValue();
+            if (job == null) {
+                continue;
+            }
+            if (job.equals(lastSentJobs.get(entry.getKey()))) {
+                iter.remove();
+            } else {
+                lastSentJobs.put(entry.getKey(), new P2jJobStatus(job));
+            }
+        }
+    }
+
+    /**
+     * Returns how long the update at the head of the queue has to wait
+     * before it may be sent. Must be called with the queue lock held.
+     *
+     * @return the remaining wait in milliseconds, 0 if it can be sent now
+     */
+    protected long remainingInterval() {
+        if (flushing > 0 || !(queue.getFirst() instanceof StatusUpdate)) {
+            return 0;
+        }
+        long remaining = lastStatusSent + minSendInterval - System.currentTimeMillis();
+        return Math.max(0, remaining);
+    }
+
+    /**
+     * Sends queued updates one at a time until the client is closed.
+     */
+    protected class Publisher implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                PendingUpdate update;
+                synchronized (queue) {
+                    long wait = 0;
+                    while ((queue.isEmpty() || (wait = remainingInterval()) > 0) && !closed) {
+                        try {
+                            queue.wait(wait);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        wait = 0;
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    update = queue.removeFirst();
+                    update.dequeued();
+                    sending = true;
+                }
+                try {
+                    update.send(client);
+                } catch (Exception e) {
+                    LOG.error("Error publishing update to Lipstick server.", e);
+                } finally {
+                    synchronized (queue) {
+                        sending = false;
+                        queue.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    protected abstract class PendingUpdate {
+        /**
+         * Called with the queue lock held when the update leaves the queue.
+         */
+        void dequeued() {
+        }
+
+        abstract void send(PigStatusClient client);
+    }
+
+    protected class StatusUpdate extends PendingUpdate {
+        final String uuid;
+        final P2jPlanStatus status;
+
+        StatusUpdate(String uuid, P2jPlanStatus status) {
+            this.uuid = uuid;
+            this.status = status;
+        }
+
+        @Override
+        void dequeued() {
+            if (pendingStatus.get(uuid) == this) {
+                pendingStatus.remove(uuid);
+            }
+        }
+
+        @Override
+        void send(PigStatusClient client) {
+            suppressUnchangedJobs(status);
+            lastStatusSent = System.currentTimeMillis();
+            client.saveStatus(uuid, status);
+        }
+    }
+
+    protected class SampleOutputUpdate extends PendingUpdate {
+        final String uuid;
+        final String jobId;
+        final P2jSampleOutputList sampleOutputList;
+
+        SampleOutputUpdate(String uuid, String jobId, P2jSampleOutputList sampleOutputList) {
+            this.uuid = uuid;
+            this.jobId = jobId;
+            this.sampleOutputList = sampleOutputList;
+        }
+
+        @Override
+        void send(PigStatusClient client) {
+            client.saveSampleOutput(uuid, jobId, sampleOutputList);
+        }
+    }
+}
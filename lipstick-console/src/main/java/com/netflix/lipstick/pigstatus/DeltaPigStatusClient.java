@@ -0,0 +1,135 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.pigstatus;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.netflix.lipstick.model.P2jJobStatus;
+import com.netflix.lipstick.model.P2jPlanPackage;
+import com.netflix.lipstick.model.P2jPlanStatus;
+import com.netflix.lipstick.model.P2jPlanStatusDelta;
+import com.netflix.lipstick.model.P2jSampleOutputList;
+
+/**
+ * PigStatusClient that turns full status updates into deltas against the
+ * last status the server acknowledged.
+ *
+ * The first status, and any status after the server rejected a delta, is
+ * sent in full and becomes the new base. If the server keeps rejecting
+ * deltas (for example because it doesn't support them) they are given up
+ * on and only full statuses are sent. Deltas that fail because the server
+ * can't be reached are retried as full statuses but don't count against
+ * deltas. Not thread safe, updates must be sent
+ * from a single thread.
+ */
+public class DeltaPigStatusClient implements PigStatusClient {
+    private static final Log LOG = LogFactory.getLog(DeltaPigStatusClient.class);
+
+    public static final int MAX_DELTA_FAILURES = 3;
+
+    protected final PigStatusClient client;
+    protected boolean deltasEnabled = true;
+    protected int deltaFailures = 0;
+    protected long sequence = 0;
+
+    protected String ackedUuid = null;
+    protected P2jPlanStatus acked = null;
+
+    /**
+     * Constructs a DeltaPigStatusClient sending updates through client.
+     *
+     * @param client the client used to actually contact the server
+     */
+    public DeltaPigStatusClient(PigStatusClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public String savePlan(P2jPlanPackage plans) {
+        return client.savePlan(plans);
+    }
+
+    @Override
+    public void saveStatus(String uuid, P2jPlanStatus status) {
+        if (!deltasEnabled || acked == null || !uuid.equals(ackedUuid)) {
+            saveFullStatus(uuid, status);
+            return;
+        }
+
+        P2jPlanStatusDelta delta = P2jPlanStatusDelta.between(acked, status);
+        delta.setBaseSequence(acked.getSequence());
+        delta.setSequence(++sequence);
+        DeltaResult result = client.saveStatusDelta(uuid, delta);
+        if (result == DeltaResult.APPLIED) {
+            acked.applyDelta(delta);
+            deltaFailures = 0;
+            return;
+        }
+
+        // Only the server refusing deltas counts against them, a server
+        // that can't be reached says nothing about whether it accepts them.
+        if (result == DeltaResult.REJECTED) {
+            deltaFailures++;
+            if (deltaFailures >= MAX_DELTA_FAILURES) {
+                LOG.warn("Lipstick server rejected " + deltaFailures
+                         + " status deltas in a row, sending full status updates from now on.");
+                deltasEnabled = false;
+            }
+        }
+        saveFullStatus(uuid, status);
+    }
+
+    @Override
+    public DeltaResult saveStatusDelta(String uuid, P2jPlanStatusDelta delta) {
+        return client.saveStatusDelta(uuid, delta);
+    }
+
+    @Override
+    public void saveSampleOutput(String uuid, String jobId, P2jSampleOutputList sampleOutputList) {
+        client.saveSampleOutput(uuid, jobId, sampleOutputList);
+    }
+
+    /**
+     * Sends status in full and makes it the base for the next delta. Jobs
+     * not included in status are unknown to the base, so they will be sent
+     * in full the next time they change.
+     *
+     * @param uuid
+     * @param status
+     */
+    protected void saveFullStatus(String uuid, P2jPlanStatus status) {
+        status.setSequence(++sequence);
+        client.saveStatus(uuid, status);
+
+        // saveStatus doesn't report failures; if this one was lost the
+        // server's sequence won't match and the next delta forces a resync.
+        P2jPlanStatus base = new P2jPlanStatus();
+        base.setProgress(status.getProgress());
+        base.setStartTime(status.getStartTime());
+        base.setEndTime(status.getEndTime());
+        base.setStatusText(status.getStatusText());
+        base.setSequence(status.getSequence());
+        for (String jid : status.getJobList()) {
+            P2jJobStatus job = status.getJob(jid);
+            if (job != null) {
+                base.updateWith(new P2jJobStatus(job));
+            }
+        }
+        acked = base;
+        ackedUuid = uuid;
+    }
+}
@@ -17,6 +17,7 @@ package com.netflix.lipstick.pigstatus;
 
 import com.netflix.lipstick.model.P2jPlanPackage;
 import com.netflix.lipstick.model.P2jPlanStatus;
+import com.netflix.lipstick.model.P2jPlanStatusDelta;
 import com.netflix.lipstick.model.P2jSampleOutputList;
 
 /**
@@ -27,6 +28,18 @@ import com.netflix.lipstick.model.P2jSampleOutputList;
  *
  */
 public interface PigStatusClient {
+    /**
+     * Outcome of saving a status delta.
+     */
+    public static enum DeltaResult {
+        /** The server applied the delta. */
+        APPLIED,
+        /** The server can't apply the delta, or doesn't accept deltas at all. */
+        REJECTED,
+        /** The server couldn't be reached or its answer couldn't be read. */
+        FAILED
+    }
+
     /**
      * Persists a P2JPlanPackage which will presumably be used
      * by the server with which the client is interacting.
@@ -46,6 +59,20 @@ public interface PigStatusClient {
      */
     void saveStatus(String uuid, P2jPlanStatus status);
 
+    /**
+     * Saves only the changes to the status of the P2jPlanPackage with the
+     * given uuid. The delta applies on top of the update numbered
+     * delta.getBaseSequence(); if the server has applied a different update
+     * last it rejects the delta and a full status has to be saved instead.
+     *
+     * @param uuid
+     * @param delta
+     * @return APPLIED if the delta was applied, otherwise a full status is
+     *         needed: REJECTED if the server refused the delta, FAILED if it
+     *         couldn't be reached
+     */
+    DeltaResult saveStatusDelta(String uuid, P2jPlanStatusDelta delta);
+
     /**
      * Saves the sample output for a given job.
      * It's expected that this will trigger an update of the
@@ -16,24 +16,32 @@
 package com.netflix.lipstick.pigstatus;
 
 import java.util.Map;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.PriorityQueue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectWriter;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
 import com.netflix.lipstick.model.P2jPlanPackage;
 import com.netflix.lipstick.model.P2jPlanStatus;
+import com.netflix.lipstick.model.P2jPlanStatusDelta;
 import com.netflix.lipstick.model.P2jSampleOutputList;
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.config.DefaultClientConfig;
 
 /**
  * RESTful client implementation of PigStatusClient.
  *
+ * A single Jersey client is kept for the lifetime of this object so
+ * connections to the Lipstick server are kept alive and reused between
+ * requests. Every response is consumed or closed to hand its connection
+ * back to the pool.
+ *
  * @author nbates
  *
  */
@@ -44,32 +52,21 @@ public class RestfulPigStatusClient implements PigStatusClient {
 
     private static final Log LOG = LogFactory.getLog(RestfulPigStatusClient.class);
 
-    protected ObjectMapper om = new ObjectMapper();
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_READ_TIMEOUT = 30000;
+    public static final long HEALTH_CHECK_INTERVAL = 10000L;
 
-    public static class Server implements Comparable<Server> {
-        public String url;
-        public Long penalty;
-        
-        public Server(String url, Long penalty) {
-            this.url = url;
-            this.penalty = penalty;
-        }
+    protected ObjectMapper om = new ObjectMapper();
+    protected ObjectWriter writer = om.writer();
+    protected final Client client;
 
-        public void penalize() {
-            this.penalty = penalty*2l; // Double penalty each time
-        }
-
-        public int compareTo(Server other) {
-            return penalty.compareTo(other.penalty);
-        }
-    }
-            
-    protected PriorityQueue<Server> lipstickServers = null;
+    protected ServerSelector lipstickServers = null;
 
     /**
      * Constructs a default RestfulPigStatusClient.
      */
     public RestfulPigStatusClient() {
+        this.client = createClient(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
     }
     
     /**
@@ -78,27 +75,53 @@ public class RestfulPigStatusClient implements PigStatusClient {
      * @param serviceUrls
      */
     public RestfulPigStatusClient(String serviceUrls) {
+        this(serviceUrls, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Constructs a RestfulPigStatusClient with the given serviceUrls and timeouts.
+     *
+     * @param serviceUrls
+     * @param connectTimeout connect timeout in milliseconds, 0 for none
+     * @param readTimeout read timeout in milliseconds, 0 for none
+     */
+    public RestfulPigStatusClient(String serviceUrls, int connectTimeout, int readTimeout) {
         LOG.info("Initializing " + this.getClass() + " with serviceUrls: " + serviceUrls);
+        this.client = createClient(connectTimeout, readTimeout);
         initializeServers(serviceUrls);
     }
+
+    protected Client createClient(int connectTimeout, int readTimeout) {
+        ClientConfig config = new DefaultClientConfig();
+        config.getProperties().put(ClientConfig.PROPERTY_CONNECT_TIMEOUT, connectTimeout);
+        config.getProperties().put(ClientConfig.PROPERTY_READ_TIMEOUT, readTimeout);
+        return Client.create(config);
+    }
     
     protected void initializeServers(String serviceUrls) {
-        String[] urls = serviceUrls.split(",");
-        lipstickServers = new PriorityQueue(urls.length);        
-        for (String url : urls) {
-            lipstickServers.add(new Server(url, 1l));
+        lipstickServers = new ServerSelector(serviceUrls);
+        lipstickServers.startHealthChecks(new ServerSelector.HealthCheck() {
+            @Override
+            public boolean isHealthy(String url) {
+                ClientResponse response = client.resource(url).get(ClientResponse.class);
+                close(response);
+                return response.getStatus() < 500;
+            }
+        }, HEALTH_CHECK_INTERVAL);
+    }
+    
+    /**
+     * Stops the background health checks of the Lipstick servers. Requests
+     * can still be made afterwards, just without health checks.
+     */
+    public void close() {
+        if (lipstickServers != null) {
+            lipstickServers.stopHealthChecks();
         }
     }
 
-    protected void rebuildServers(List<Server> servers) {
-        for (Server s : servers) {
-            lipstickServers.add(s);
-        }        
-    }
-    
     protected String getServiceUrl() {
-        Server s = lipstickServers.peek();
-        return s.url;
+        return lipstickServers.getBest().getUrl();
     }
     
     @Override
@@ -129,45 +152,114 @@ public class RestfulPigStatusClient implements PigStatusClient {
     public void saveStatus(String uuid, P2jPlanStatus status) {
         status.setHeartbeatTime();
         String resource = "/job/" + uuid;
-        makeRequest(resource, status, RequestVerb.PUT);
+        close(makeRequest(resource, status, RequestVerb.PUT));
         
         String serviceUrl = getServiceUrl();
         LOG.info("Navigate to " + serviceUrl + "#job/" + uuid + " to view progress.");
     }
 
+    @Override
+    public DeltaResult saveStatusDelta(String uuid, P2jPlanStatusDelta delta) {
+        delta.setHeartbeatTime();
+        String resource = "/job/" + uuid + "/delta";
+        ClientResponse response = makeRequest(resource, delta, RequestVerb.PUT, true);
+        if (response == null) {
+            return DeltaResult.FAILED;
+        }
+        if (response.getStatus() != 200) {
+            // Servers without the delta endpoint answer with a client error
+            LOG.info("Lipstick server did not accept status delta, received status code "
+                     + response.getStatus());
+            close(response);
+            return DeltaResult.REJECTED;
+        }
+
+        try {
+            Map<?, ?> result = om.readValue(response.getEntity(String.class), Map.class);
+            if (Boolean.TRUE.equals(result.get("resync"))) {
+                LOG.info("Lipstick server requested a full status update, last applied update was "
+                         + result.get("sequence"));
+                return DeltaResult.REJECTED;
+            }
+            return DeltaResult.APPLIED;
+        } catch (Exception e) {
+            LOG.error("Error reading delta status response from server.", e);
+        }
+        return DeltaResult.FAILED;
+    }
+
     @Override
     public void saveSampleOutput(String uuid, String jobId, P2jSampleOutputList sampleOutputList) {
         String resource = String.format("/job/%s/sampleOutput/%s", uuid, jobId);
-        makeRequest(resource, sampleOutputList, RequestVerb.PUT);
+        close(makeRequest(resource, sampleOutputList, RequestVerb.PUT));
     }    
+
+    /**
+     * Releases the connection behind a response whose body isn't needed.
+     * The body is read to the end first, otherwise the connection can't
+     * be kept alive.
+     */
+    protected void close(ClientResponse response) {
+        if (response != null) {
+            try {
+                ByteStreams.toByteArray(response.getEntityInputStream());
+                response.close();
+            } catch (Exception e) {
+                LOG.debug("Error closing response", e);
+            }
+        }
+    }
     
     protected ClientResponse makeRequest(String resource, Object requestObj, RequestVerb verb) {
-        List<Server> penalized = new ArrayList<Server>();
-        
-        Client client = Client.create();
-        ClientResponse response = null;
+        return makeRequest(resource, requestObj, verb, false);
+    }
 
-        // Go through queue and get servers in increasing order of penalty
-        while (lipstickServers.size() > 0) {
-            String serviceUrl = getServiceUrl();
-            LOG.info("Trying Lipstick server "+serviceUrl);
-            String resourceUrl = serviceUrl + resource;        
+    /**
+     * Sends requestObj to the most preferred Lipstick server that answers.
+     *
+     * @param resource
+     * @param requestObj
+     * @param verb
+     * @param acceptClientErrors whether a 4xx response is returned to the
+     *        caller instead of being treated as a failure of the server
+     * @return the response, or null if no server could be reached
+     */
+    protected ClientResponse makeRequest(String resource, Object requestObj, RequestVerb verb,
+                                         boolean acceptClientErrors) {
+        byte[] entity;
+        try {
+            entity = writer.writeValueAsBytes(requestObj);
+        } catch (Exception e) {
+            LOG.error("Error serializing request to Lipstick server.", e);
+            return null;
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(new String(entity, Charsets.UTF_8));
+        }
+
+        // Try servers from most to least preferred
+        for (ServerSelector.Server s : lipstickServers.getServers()) {
+            LOG.info("Trying Lipstick server "+s.getUrl());
+            String resourceUrl = s.getUrl() + resource;        
             WebResource webResource = client.resource(resourceUrl);                           
-            response = sendRequest(webResource, requestObj, verb);
+            long start = System.currentTimeMillis();
+            ClientResponse response = sendRequest(webResource, entity, verb, acceptClientErrors);
             if (response != null) {
-                rebuildServers(penalized);
+                lipstickServers.success(s, System.currentTimeMillis() - start);
                 return response;
             } else {
-                Server s = lipstickServers.poll();
-                s.penalize();
-                penalized.add(s);
+                lipstickServers.failure(s);
             }                
         }
-        rebuildServers(penalized);
         return null;
     }
     
-    protected ClientResponse sendRequest(WebResource webResource, Object requestObj, RequestVerb verb) {
+    protected ClientResponse sendRequest(WebResource webResource, byte[] entity, RequestVerb verb) {
+        return sendRequest(webResource, entity, verb, false);
+    }
+
+    protected ClientResponse sendRequest(WebResource webResource, byte[] entity, RequestVerb verb,
+                                         boolean acceptClientErrors) {
 
         ClientResponse response = null;
         try {
@@ -175,21 +267,23 @@ public class RestfulPigStatusClient implements PigStatusClient {
             String resourceUrl = webResource.getURI().toURL().toString();
             
             LOG.debug("Sending " + verb + " request to " + resourceUrl);
-            LOG.debug(om.writeValueAsString(requestObj));
 
             switch (verb) {
             case POST:
-                response = webResource.type("application/json").post(ClientResponse.class,
-                                                                     om.writeValueAsString(requestObj));
+                response = webResource.type("application/json").post(ClientResponse.class, entity);
                 break;
             case PUT:
-                response = webResource.type("application/json").put(ClientResponse.class,
-                                                                    om.writeValueAsString(requestObj));
+                response = webResource.type("application/json").put(ClientResponse.class, entity);
                 break;
             default:                
                 throw new RuntimeException("Invalid verb: " + verb + " for resourceUrl: " + resourceUrl);
             }
 
+            if (acceptClientErrors && response != null
+                && response.getStatus() >= 400 && response.getStatus() < 500) {
+                return response;
+            }
+
             if (response != null && response.getStatus() != 200) {
                 LOG.error("Error contacting Lipstick server.  Received status code " + response.getStatus());
                 LOG.debug(response.getEntity(String.class));
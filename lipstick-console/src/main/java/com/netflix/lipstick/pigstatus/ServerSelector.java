@@ -0,0 +1,246 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.pigstatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Picks the Lipstick server to send a request to when several are
+ * configured.
+ *
+ * Servers are ranked by a score made of their average response time plus a
+ * penalty for recent failures. The penalty doubles with every consecutive
+ * failure and decays with a configurable half life, so a server that had a
+ * transient problem works its way back up instead of staying demoted
+ * forever. Optional background health checks probe failing servers and
+ * restore them as soon as they respond again.
+ *
+ * All state is kept in atomic fields per server, so a selector can be
+ * shared by any number of concurrent requests without locking.
+ */
+public class ServerSelector {
+    private static final Log LOG = LogFactory.getLog(ServerSelector.class);
+
+    public static final long DEFAULT_PENALTY_HALF_LIFE = 60000L;
+    public static final long FAILURE_PENALTY = 1000L;
+    private static final int MAX_PENALTY_DOUBLINGS = 10;
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    /**
+     * Checks whether a server is able to take requests again.
+     */
+    public interface HealthCheck {
+        boolean isHealthy(String url);
+    }
+
+    public static class Server {
+        protected final String url;
+        protected final int position;
+        /* Double bits of the average latency in milliseconds, 0 until measured. */
+        protected final AtomicLong latency = new AtomicLong(Double.doubleToLongBits(0.0));
+        protected final AtomicInteger failures = new AtomicInteger(0);
+        protected volatile long lastFailure = 0L;
+
+        Server(String url, int position) {
+            this.url = url;
+            this.position = position;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public double getLatency() {
+            return Double.longBitsToDouble(latency.get());
+        }
+
+        public int getFailures() {
+            return failures.get();
+        }
+
+        void recordLatency(double millis) {
+            while (true) {
+                long bits = latency.get();
+                double current = Double.longBitsToDouble(bits);
+                double updated = (current == 0.0) ? millis : current + LATENCY_WEIGHT * (millis - current);
+                if (latency.compareAndSet(bits, Double.doubleToLongBits(updated))) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return url;
+        }
+    }
+
+    protected final List<Server> servers;
+    protected final long penaltyHalfLife;
+    protected ScheduledExecutorService healthChecker = null;
+
+    /**
+     * Constructs a ServerSelector for a comma separated list of urls.
+     *
+     * @param serviceUrls
+     */
+    public ServerSelector(String serviceUrls) {
+        this(serviceUrls, DEFAULT_PENALTY_HALF_LIFE);
+    }
+
+    /**
+     * @param serviceUrls comma separated list of urls
+     * @param penaltyHalfLife time in milliseconds for a failure penalty to halve
+     */
+    public ServerSelector(String serviceUrls, long penaltyHalfLife) {
+        List<Server> list = new ArrayList<Server>();
+        for (String url : serviceUrls.split(",")) {
+            url = url.trim();
+            if (!url.isEmpty()) {
+                list.add(new Server(url, list.size()));
+            }
+        }
+        this.servers = Collections.unmodifiableList(list);
+        this.penaltyHalfLife = penaltyHalfLife;
+    }
+
+    /**
+     * Returns the servers in the order they should be tried.
+     *
+     * @return
+     */
+    public List<Server> getServers() {
+        final long now = System.currentTimeMillis();
+        List<Server> ordered = new ArrayList<Server>(servers);
+        Collections.sort(ordered, new Comparator<Server>() {
+            @Override
+            public int compare(Server a, Server b) {
+                int cmp = Double.compare(score(a, now), score(b, now));
+                return (cmp != 0) ? cmp : a.position - b.position;
+            }
+        });
+        return ordered;
+    }
+
+    /**
+     * Returns the server that should be tried first.
+     *
+     * @return
+     */
+    public Server getBest() {
+        return getServers().get(0);
+    }
+
+    /**
+     * Records a successful request, clearing the server's failures.
+     *
+     * @param server
+     * @param latencyMillis how long the request took
+     */
+    public void success(Server server, long latencyMillis) {
+        server.recordLatency(latencyMillis);
+        server.failures.set(0);
+    }
+
+    /**
+     * Records a failed request, increasing the server's penalty.
+     *
+     * @param server
+     */
+    public void failure(Server server) {
+        server.lastFailure = System.currentTimeMillis();
+        server.failures.incrementAndGet();
+    }
+
+    /**
+     * Returns the score of server at time now; lower is better.
+     */
+    protected double score(Server server, long now) {
+        int failures = server.failures.get();
+        if (failures == 0) {
+            return server.getLatency();
+        }
+        double penalty = FAILURE_PENALTY * Math.pow(2, Math.min(failures - 1, MAX_PENALTY_DOUBLINGS));
+        double age = Math.max(0, now - server.lastFailure);
+        return server.getLatency() + penalty * Math.pow(0.5, age / penaltyHalfLife);
+    }
+
+    /**
+     * Starts probing failing servers every intervalMillis on a background
+     * thread. Servers that pass the check have their failures cleared, the
+     * others stay demoted. Does nothing when there is only one server, as
+     * it is used regardless.
+     *
+     * @param check
+     * @param intervalMillis
+     */
+    public synchronized void startHealthChecks(final HealthCheck check, long intervalMillis) {
+        if (healthChecker != null || servers.size() < 2) {
+            return;
+        }
+        healthChecker = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("lipstick-health-check-%d").setDaemon(true).build());
+        healthChecker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                probe(check);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background health checks, if running.
+     */
+    public synchronized void stopHealthChecks() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+            healthChecker = null;
+        }
+    }
+
+    protected void probe(HealthCheck check) {
+        for (Server server : servers) {
+            if (server.failures.get() == 0) {
+                continue;
+            }
+            boolean healthy = false;
+            try {
+                healthy = check.isHealthy(server.url);
+            } catch (Exception e) {
+                LOG.debug("Health check of " + server.url + " failed", e);
+            }
+            if (healthy) {
+                LOG.info("Lipstick server " + server.url + " is healthy again");
+                server.failures.set(0);
+            } else {
+                server.lastFailure = System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
@@ -53,6 +54,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.netflix.lipstick.MRPlanCalculator;
+import com.netflix.lipstick.MRStageIndex;
 import com.netflix.lipstick.P2jPlanGenerator;
 import com.netflix.lipstick.model.P2jCounters;
 import com.netflix.lipstick.model.P2jWarning;
@@ -63,10 +65,14 @@ import com.netflix.lipstick.model.P2jPlanStatus.StatusText;
 import com.netflix.lipstick.model.P2jSampleOutput;
 import com.netflix.lipstick.model.P2jSampleOutputList;
 import com.netflix.lipstick.warnings.JobWarnings;
+import com.netflix.lipstick.pigstatus.AsyncPigStatusClient;
+import com.netflix.lipstick.pigstatus.DeltaPigStatusClient;
 import com.netflix.lipstick.pigstatus.PigStatusClient;
 import com.netflix.lipstick.pigstatus.RestfulPigStatusClient;
+import com.netflix.lipstick.util.FieldAccessor;
 import com.netflix.lipstick.util.OutputSampler;
 import com.netflix.lipstick.util.OutputSampler.SampleOutput;
+import com.netflix.lipstick.util.SampleOutputExecutor;
 
 /**
  * A basic implementation of P2LClient.
@@ -76,9 +82,27 @@ import com.netflix.lipstick.util.OutputSampler.SampleOutput;
  */
 public class BasicP2LClient implements P2LClient {
     private static final Log LOG = LogFactory.getLog(BasicP2LClient.class);
+    private static final FieldAccessor JOB_CONF = FieldAccessor.of("conf");
 
     protected static final String JOB_NAME_PROP = "jobName";
     protected static final String ENABLE_SAMPLE_OUTPUT_PROP = "lipstick.enable.sampleoutput";
+    protected static final String ENABLE_ASYNC_STATUS_PROP = "lipstick.status.async";
+    protected static final String ENABLE_DELTA_STATUS_PROP = "lipstick.status.delta";
+    protected static final String STATUS_QUEUE_SIZE_PROP = "lipstick.status.queue.size";
+    protected static final String STATUS_QUEUE_POLICY_PROP = "lipstick.status.queue.policy";
+    protected static final String STATUS_FLUSH_TIMEOUT_PROP = "lipstick.status.flush.timeout.ms";
+    protected static final String STATUS_MIN_INTERVAL_PROP = "lipstick.status.min.interval.ms";
+    protected static final String STATUS_FETCH_THREADS_PROP = "lipstick.status.fetch.threads";
+    protected static final String STATUS_FETCH_MAX_JOBS_PROP = "lipstick.status.fetch.max.jobs";
+    protected static final String STATUS_FETCH_TIMEOUT_PROP = "lipstick.status.fetch.timeout.ms";
+    protected static final String SAMPLE_OUTPUT_THREADS_PROP = "lipstick.sampleoutput.threads";
+    protected static final String SAMPLE_OUTPUT_STORE_TIMEOUT_PROP = "lipstick.sampleoutput.store.timeout.ms";
+    protected static final String SAMPLE_OUTPUT_JOB_TIMEOUT_PROP = "lipstick.sampleoutput.job.timeout.ms";
+    protected static final String SAMPLE_OUTPUT_STRATEGY_PROP = "lipstick.sampleoutput.strategy";
+    protected static final String SAMPLE_OUTPUT_MAX_BYTES_READ_PROP = "lipstick.sampleoutput.max.bytes.read";
+    protected static final String SAMPLE_OUTPUT_PART_FILES_PROP = "lipstick.sampleoutput.part.files";
+    protected static final long DEFAULT_STATUS_FLUSH_TIMEOUT = 30000L;
+    protected static final long DEFAULT_STATUS_MIN_INTERVAL = 5000L;
 
     protected boolean planFailed = false;
     protected String planId;
@@ -88,11 +112,19 @@ public class BasicP2LClient implements P2LClient {
     protected PigContext context;
     protected final Set<String> runningJobIds = Sets.newHashSet();
     protected final Map<String, P2jJobStatus> jobIdToJobStatusMap = Maps.newHashMap();
-    protected final Map<String, Boolean> jobModeMap = Maps.newHashMap();
+    protected final Map<String, Boolean> jobModeMap = Maps.newConcurrentMap();
 
     protected final PigStatusClient psClient;
+    protected PigStatusClient statusClient = null;
+    protected AsyncPigStatusClient asyncClient = null;
+    protected long statusFlushTimeout = DEFAULT_STATUS_FLUSH_TIMEOUT;
+    protected JobStatusCollector jobStatusCollector = null;
     protected boolean invalidClient = false;
     protected boolean enableSampleOutput = true;
+    protected SampleOutputExecutor sampleOutputExecutor = null;
+    protected OutputSampler.Strategy sampleStrategy = OutputSampler.Strategy.HEAD;
+    protected long sampleMaxBytesRead = OutputSampler.DEFAULT_MAX_BYTES_READ;
+    protected int samplePartFiles = OutputSampler.DEFAULT_PART_FILES;
 
     /**
      * Instantiates a new BasicP2LClient using RestfulPigStatusClient with serviceUrls.
@@ -146,8 +178,8 @@ public class BasicP2LClient implements P2LClient {
                 }
             }
             try {
-                Map<PhysicalOperator, Operator> p2lMap = Maps.newHashMap();
                 Map<Operator, PhysicalOperator> l2pMap = ((HExecutionEngine)context.getExecutionEngine()).getLogToPhyMap();
+                Map<PhysicalOperator, Operator> p2lMap = Maps.newHashMapWithExpectedSize(l2pMap.size());
                 for (Entry<Operator, PhysicalOperator> i : l2pMap.entrySet()) {
                     p2lMap.put(i.getValue(), i.getKey());
                 }
@@ -162,8 +194,10 @@ public class BasicP2LClient implements P2LClient {
                     script = StringUtils.join(ps.getScriptCache(), '\n');
                 }
 
-                MRPlanCalculator opPlan = new MRPlanCalculator(opPlanGenerator.getP2jPlan(), (MROperPlan)plan, p2lMap, opPlanGenerator.getReverseMap());
-                MRPlanCalculator unopPlan = new MRPlanCalculator(unopPlanGenerator.getP2jPlan(), (MROperPlan)plan, p2lMap, unopPlanGenerator.getReverseMap());
+                // walk the map/reduce plan once for both p2j plans
+                MRStageIndex stageIndex = new MRStageIndex((MROperPlan)plan, p2lMap);
+                MRPlanCalculator opPlan = new MRPlanCalculator(opPlanGenerator.getP2jPlan(), stageIndex, opPlanGenerator.getReverseMap());
+                MRPlanCalculator unopPlan = new MRPlanCalculator(unopPlanGenerator.getP2jPlan(), stageIndex, unopPlanGenerator.getReverseMap());
                 
                 P2jPlanPackage plans = new P2jPlanPackage(opPlan.getP2jPlan(), unopPlan.getP2jPlan(), script, planId);
 
@@ -186,6 +220,13 @@ public class BasicP2LClient implements P2LClient {
                 plans.getStatus().setStartTime();
                 plans.getStatus().setStatusText(StatusText.running);
                 invalidClient = (psClient.savePlan(plans) == null);
+                if (!invalidClient) {
+                    initStatusClient(props);
+                    initJobStatusCollector(props);
+                    if (enableSampleOutput) {
+                        initSampleOutput(props);
+                    }
+                }
 
             } catch (Exception e) {
                 LOG.error("Caught unexpected exception generating json plan.", e);
@@ -211,11 +252,16 @@ public class BasicP2LClient implements P2LClient {
         planStatus.setProgress(progress);
 
         // toArray() done to avoid concurrent access errors during iteration
-        for (String jobId : runningJobIds.toArray(new String[0])) {
-            updatePlanStatusForJobId(planStatus, jobId);
+        String[] jobIds = runningJobIds.toArray(new String[0]);
+        if (jobStatusCollector != null) {
+            updatePlanStatusForJobIds(planStatus, jobIds);
+        } else {
+            for (String jobId : jobIds) {
+                updatePlanStatusForJobId(planStatus, jobId);
+            }
         }
 
-        psClient.saveStatus(planId, planStatus);
+        getStatusClient().saveStatus(planId, planStatus);
     }
 
     @Override
@@ -244,19 +290,13 @@ public class BasicP2LClient implements P2LClient {
                 // Hack to get the configuration associated with the job to know
                 // whether it's been converted to local mode or not
                 //
-                try {
-                    java.lang.reflect.Field f = jobStats.getClass().getSuperclass().getDeclaredField("conf");
-                    f.setAccessible(true);
-                    Configuration c = (Configuration)f.get(jobStats);
-                    jobModeMap.put(jobId, c.getBoolean(PigImplConstants.CONVERTED_TO_LOCAL, false));
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+                Configuration c = (Configuration) JOB_CONF.get(jobStats, null);
+                jobModeMap.put(jobId, c != null && c.getBoolean(PigImplConstants.CONVERTED_TO_LOCAL, false));
             }
         }
         P2jPlanStatus planStatus = new P2jPlanStatus();
         updatePlanStatusForJobId(planStatus, jobId);
-        psClient.saveStatus(planId, planStatus);
+        getStatusClient().saveStatus(planId, planStatus);
     }
 
     @Override
@@ -291,30 +331,58 @@ public class BasicP2LClient implements P2LClient {
 
         
 
-        psClient.saveStatus(planId, planStatus);
+        getStatusClient().saveStatus(planId, planStatus);
 
         if(enableSampleOutput) {
             // Get sample output for the job
             try {
-                P2jSampleOutputList sampleOutputList = new P2jSampleOutputList();
+                final String scope = jobIdToJobStatusMap.get(jobId).getScope();
                 OutputSampler os = new OutputSampler(jobStats);
+                os.setStrategy(sampleStrategy);
+                os.setMaxBytesRead(sampleMaxBytesRead);
+                os.setPartFiles(samplePartFiles);
                 // The 10 & 1024 params (maxRows and maxBytes)
                 // should be configurable via properties
-                for (SampleOutput schemaOutputPair : os.getSampleOutputs(10, 1024)) {
-                    P2jSampleOutput sampleOutput = new P2jSampleOutput();
-                    sampleOutput.setSchemaString(schemaOutputPair.getSchema());
-                    sampleOutput.setSampleOutput(schemaOutputPair.getOutput());
-                    sampleOutputList.add(sampleOutput);
+                if (sampleOutputExecutor != null) {
+                    final String sampledPlanId = planId;
+                    final String sampledJobId = jobId;
+                    sampleOutputExecutor.submit(scope, os, 10, 1024, new SampleOutputExecutor.Callback() {
+                        @Override
+                        public void sampled(List<SampleOutput> sampleOutputs) {
+                            try {
+                                saveSampleOutput(sampledPlanId, scope, sampleOutputs);
+                            } catch (Exception e) {
+                                LOG.error("Unable to save sample output from job with id [" + sampledJobId + "]. ", e);
+                            }
+                        }
+                    });
+                } else {
+                    saveSampleOutput(planId, scope, os.getSampleOutputs(10, 1024));
                 }
-                psClient.saveSampleOutput(planId,
-                                          jobIdToJobStatusMap.get(jobStats.getJobId()).getScope(),
-                                          sampleOutputList);
             } catch (Exception e) {
                 LOG.error("Unable to get sample output from job with id [" + jobStats.getJobId() + "]. ", e);
             }
         }
     }
 
+    /**
+     * Send the sample outputs of a job to the client.
+     *
+     * @param planId the plan the job belongs to
+     * @param scope the scope of the job
+     * @param sampleOutputs the samples, one per store
+     */
+    protected void saveSampleOutput(String planId, String scope, List<SampleOutput> sampleOutputs) {
+        P2jSampleOutputList sampleOutputList = new P2jSampleOutputList();
+        for (SampleOutput schemaOutputPair : sampleOutputs) {
+            P2jSampleOutput sampleOutput = new P2jSampleOutput();
+            sampleOutput.setSchemaString(schemaOutputPair.getSchema());
+            sampleOutput.setSampleOutput(schemaOutputPair.getOutput());
+            sampleOutputList.add(sampleOutput);
+        }
+        getStatusClient().saveSampleOutput(planId, scope, sampleOutputList);
+    }
+
     @Override
     public void jobFailed(JobStats jobStats) {
         if(invalidClient) {
@@ -327,6 +395,7 @@ public class BasicP2LClient implements P2LClient {
     @Override
     public void planCompleted() {
         if(invalidClient) {
+            closeServerClient();
             return;
         }
 
@@ -335,6 +404,201 @@ public class BasicP2LClient implements P2LClient {
         } else {
             planEndedWithStatusText(StatusText.finished);
         }
+
+        // samples are sent through the status client, so wait for them
+        // first, both within the one flush timeout
+        long deadline = System.currentTimeMillis() + statusFlushTimeout;
+        if (sampleOutputExecutor != null) {
+            List<String> abandoned = sampleOutputExecutor.shutdown(statusFlushTimeout);
+            if (!abandoned.isEmpty()) {
+                LOG.warn("Timed out sampling job outputs, abandoned samples for scopes " + abandoned + ".");
+            }
+            sampleOutputExecutor = null;
+        }
+
+        if (jobStatusCollector != null) {
+            jobStatusCollector.shutdown();
+            jobStatusCollector = null;
+        }
+
+        if (asyncClient != null) {
+            if (!asyncClient.close(Math.max(0, deadline - System.currentTimeMillis()))) {
+                LOG.warn("Timed out sending pending status updates to Lipstick server.");
+            }
+            asyncClient = null;
+        }
+        statusClient = null;
+        closeServerClient();
+    }
+
+    /**
+     * Stop the background health checks of psClient, so they don't outlive
+     * the script in long running JVMs such as grunt sessions.
+     */
+    protected void closeServerClient() {
+        if (psClient instanceof RestfulPigStatusClient) {
+            ((RestfulPigStatusClient) psClient).close();
+        }
+    }
+
+    /**
+     * Returns the client status updates should be sent through. This is the
+     * client set up by initStatusClient when there is one, otherwise psClient.
+     *
+     * @return the PigStatusClient to send status updates to
+     */
+    protected PigStatusClient getStatusClient() {
+        return (statusClient != null) ? statusClient : psClient;
+    }
+
+    /**
+     * Check if a boolean property is switched on, treating missing
+     * properties as on.
+     */
+    protected static boolean isEnabled(Properties props, String propName) {
+        String strProp = props.getProperty(propName, "true").toLowerCase();
+        return !(strProp.equals("f") || strProp.equals("false"));
+    }
+
+    /**
+     * Set up the client status updates are sent through. Unless disabled
+     * by ENABLE_DELTA_STATUS_PROP statuses are sent as deltas against the
+     * last acknowledged status, and unless disabled by
+     * ENABLE_ASYNC_STATUS_PROP they are sent from a background publisher
+     * so a slow server can't stall Pig's notification thread.
+     *
+     * @param props the pig properties to read configuration from
+     */
+    protected void initStatusClient(Properties props) {
+        if (asyncClient != null) {
+            asyncClient.close(statusFlushTimeout);
+            asyncClient = null;
+        }
+
+        statusClient = psClient;
+        if (isEnabled(props, ENABLE_DELTA_STATUS_PROP)) {
+            statusClient = new DeltaPigStatusClient(statusClient);
+        } else {
+            LOG.info("Delta status updates have been disabled.");
+        }
+
+        if (!isEnabled(props, ENABLE_ASYNC_STATUS_PROP)) {
+            LOG.info("Asynchronous status updates have been disabled.");
+            return;
+        }
+
+        int queueSize = AsyncPigStatusClient.DEFAULT_QUEUE_SIZE;
+        AsyncPigStatusClient.OverflowPolicy policy = AsyncPigStatusClient.OverflowPolicy.MERGE;
+        long minInterval = DEFAULT_STATUS_MIN_INTERVAL;
+        try {
+            if (props.containsKey(STATUS_QUEUE_SIZE_PROP)) {
+                queueSize = Integer.parseInt(props.getProperty(STATUS_QUEUE_SIZE_PROP).trim());
+            }
+            if (props.containsKey(STATUS_QUEUE_POLICY_PROP)) {
+                policy = AsyncPigStatusClient.OverflowPolicy.valueOf(props.getProperty(STATUS_QUEUE_POLICY_PROP).trim().toUpperCase());
+            }
+            if (props.containsKey(STATUS_FLUSH_TIMEOUT_PROP)) {
+                statusFlushTimeout = Long.parseLong(props.getProperty(STATUS_FLUSH_TIMEOUT_PROP).trim());
+            }
+            if (props.containsKey(STATUS_MIN_INTERVAL_PROP)) {
+                minInterval = Long.parseLong(props.getProperty(STATUS_MIN_INTERVAL_PROP).trim());
+            }
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Invalid status publisher configuration, using defaults.", e);
+        }
+
+        asyncClient = new AsyncPigStatusClient(statusClient, queueSize, policy, minInterval);
+        statusClient = asyncClient;
+    }
+
+    /**
+     * Set up the collector the status of running jobs is fetched with, so
+     * the jobs are fetched in parallel within a budget per progress update.
+     * Setting STATUS_FETCH_THREADS_PROP to 0 fetches them one after another
+     * instead.
+     *
+     * @param props the pig properties to read configuration from
+     */
+    protected void initJobStatusCollector(Properties props) {
+        if (jobStatusCollector != null) {
+            jobStatusCollector.shutdown();
+            jobStatusCollector = null;
+        }
+
+        int threads = JobStatusCollector.DEFAULT_THREADS;
+        int maxJobs = JobStatusCollector.DEFAULT_MAX_JOBS;
+        long timeout = JobStatusCollector.DEFAULT_TICK_TIMEOUT;
+        try {
+            if (props.containsKey(STATUS_FETCH_THREADS_PROP)) {
+                threads = Integer.parseInt(props.getProperty(STATUS_FETCH_THREADS_PROP).trim());
+            }
+            if (props.containsKey(STATUS_FETCH_MAX_JOBS_PROP)) {
+                maxJobs = Integer.parseInt(props.getProperty(STATUS_FETCH_MAX_JOBS_PROP).trim());
+            }
+            if (props.containsKey(STATUS_FETCH_TIMEOUT_PROP)) {
+                timeout = Long.parseLong(props.getProperty(STATUS_FETCH_TIMEOUT_PROP).trim());
+            }
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Invalid job status fetching configuration, using defaults.", e);
+        }
+
+        if (threads <= 0) {
+            LOG.info("Parallel job status fetching has been disabled.");
+            return;
+        }
+        jobStatusCollector = new JobStatusCollector(threads, maxJobs, timeout);
+    }
+
+    /**
+     * Set up how job outputs are sampled: the strategy and read budget
+     * per store, and the executor outputs are sampled on, so sampling
+     * doesn't hold up Pig's notification thread. Setting
+     * SAMPLE_OUTPUT_THREADS_PROP to 0 samples outputs on the notification
+     * thread instead.
+     *
+     * @param props the pig properties to read configuration from
+     */
+    protected void initSampleOutput(Properties props) {
+        if (sampleOutputExecutor != null) {
+            sampleOutputExecutor.shutdown(statusFlushTimeout);
+            sampleOutputExecutor = null;
+        }
+
+        int threads = SampleOutputExecutor.DEFAULT_THREADS;
+        long storeTimeout = SampleOutputExecutor.DEFAULT_STORE_TIMEOUT;
+        long jobTimeout = SampleOutputExecutor.DEFAULT_JOB_TIMEOUT;
+        try {
+            if (props.containsKey(SAMPLE_OUTPUT_STRATEGY_PROP)) {
+                sampleStrategy = OutputSampler.Strategy.valueOf(props.getProperty(SAMPLE_OUTPUT_STRATEGY_PROP).trim().toUpperCase());
+            }
+            if (props.containsKey(SAMPLE_OUTPUT_MAX_BYTES_READ_PROP)) {
+                sampleMaxBytesRead = Long.parseLong(props.getProperty(SAMPLE_OUTPUT_MAX_BYTES_READ_PROP).trim());
+            }
+            if (props.containsKey(SAMPLE_OUTPUT_PART_FILES_PROP)) {
+                samplePartFiles = Integer.parseInt(props.getProperty(SAMPLE_OUTPUT_PART_FILES_PROP).trim());
+            }
+            if (props.containsKey(SAMPLE_OUTPUT_THREADS_PROP)) {
+                threads = Integer.parseInt(props.getProperty(SAMPLE_OUTPUT_THREADS_PROP).trim());
+            }
+            if (props.containsKey(SAMPLE_OUTPUT_STORE_TIMEOUT_PROP)) {
+                storeTimeout = Long.parseLong(props.getProperty(SAMPLE_OUTPUT_STORE_TIMEOUT_PROP).trim());
+            }
+            if (props.containsKey(SAMPLE_OUTPUT_JOB_TIMEOUT_PROP)) {
+                jobTimeout = Long.parseLong(props.getProperty(SAMPLE_OUTPUT_JOB_TIMEOUT_PROP).trim());
+            }
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Invalid output sampling configuration, using defaults.", e);
+        }
+
+        if (threads <= 0) {
+            LOG.info("Background output sampling has been disabled.");
+            return;
+        }
+        // planCompleted waits at most the flush timeout for the last job
+        if (jobTimeout <= 0 || jobTimeout > statusFlushTimeout) {
+            jobTimeout = statusFlushTimeout;
+        }
+        sampleOutputExecutor = new SampleOutputExecutor(threads, storeTimeout, jobTimeout);
     }
 
     /**
@@ -346,7 +610,7 @@ public class BasicP2LClient implements P2LClient {
         P2jPlanStatus planStatus = new P2jPlanStatus();
         planStatus.setEndTime();
         planStatus.setStatusText(statusText);
-        psClient.saveStatus(planId, planStatus);
+        getStatusClient().saveStatus(planId, planStatus);
     }
 
     /**
@@ -362,6 +626,38 @@ public class BasicP2LClient implements P2LClient {
         }
     }
 
+    /**
+     * Update planStatus with status for several map/reduce jobs, fetched
+     * in parallel by jobStatusCollector. Jobs whose status isn't fetched
+     * within the collector's budget are included with their last known
+     * status.
+     *
+     * @param planStatus the P2jPlanStatus object to update
+     * @param jobIds the map/reduce job ids
+     */
+    protected void updatePlanStatusForJobIds(P2jPlanStatus planStatus, String[] jobIds) {
+        // PigStats is thread local, get the client before fetching on other threads
+        final JobClient jobClient = PigStats.get().getJobClient();
+        Map<String, Callable<P2jJobStatus>> fetches = Maps.newHashMap();
+        for (final String jobId : jobIds) {
+            final P2jJobStatus js = new P2jJobStatus(jobIdToJobStatusMap.get(jobId));
+            fetches.put(jobId, new Callable<P2jJobStatus>() {
+                @Override
+                public P2jJobStatus call() {
+                    return buildJobStatus(jobClient, jobId, js);
+                }
+            });
+        }
+        for (Entry<String, P2jJobStatus> e : jobStatusCollector.collect(fetches).entrySet()) {
+            if (runningJobIds.contains(e.getKey())) {
+                jobIdToJobStatusMap.put(e.getKey(), e.getValue());
+            }
+        }
+        for (String jobId : jobIds) {
+            planStatus.updateWith(jobIdToJobStatusMap.get(jobId));
+        }
+    }
+
     protected void updatePlanStatusForCompletedJobId(P2jPlanStatus planStatus, String jobId) {
         LOG.info("Updating plan status for completed job " + jobId);
         updatePlanStatusForJobId(planStatus, jobId);
@@ -415,11 +711,20 @@ public class BasicP2LClient implements P2LClient {
      * @param jobId the id of the map/reduce job
      * @return the newly created P2jJobStatus
      */
-    @SuppressWarnings("deprecation")
     protected P2jJobStatus buildJobStatusMap(String jobId) {
-        JobClient jobClient = PigStats.get().getJobClient();
-        P2jJobStatus js = jobIdToJobStatusMap.get(jobId);
+        return buildJobStatus(PigStats.get().getJobClient(), jobId, jobIdToJobStatusMap.get(jobId));
+    }
 
+    /**
+     * Update js with the status of the map/reduce job with id jobId.
+     *
+     * @param jobClient the client to get the job status from
+     * @param jobId the id of the map/reduce job
+     * @param js the P2jJobStatus to update
+     * @return js, or null if the job status could not be retrieved
+     */
+    @SuppressWarnings("deprecation")
+    protected P2jJobStatus buildJobStatus(JobClient jobClient, String jobId, P2jJobStatus js) {
         try {
             RunningJob rj = jobClient.getJob(jobId);
             if (rj == null) {
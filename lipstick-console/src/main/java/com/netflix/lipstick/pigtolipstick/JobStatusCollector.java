@@ -0,0 +1,169 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.pigtolipstick;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.lipstick.model.P2jJobStatus;
+
+/**
+ * Fetches the status of running map/reduce jobs in parallel.
+ *
+ * Fetching the status of a job takes several RPCs to the job tracker, so
+ * each call to collect() is held to a budget: at most maxJobs fetches are
+ * in flight at a time, jobs that were fetched least recently go first, and
+ * collect() waits at most tickTimeout for them. Fetches that don't finish
+ * in time keep running, and their results are returned by a later call
+ * instead of being fetched again.
+ *
+ * Not thread safe, collect() is meant to be called from a single thread.
+ */
+public class JobStatusCollector {
+    private static final Log LOG = LogFactory.getLog(JobStatusCollector.class);
+
+    public static final int DEFAULT_THREADS = 8;
+    public static final int DEFAULT_MAX_JOBS = 20;
+    public static final long DEFAULT_TICK_TIMEOUT = 10000L;
+
+    protected final ExecutorService executor;
+    protected final int maxJobs;
+    protected final long tickTimeout;
+
+    protected final Map<String, Future<P2jJobStatus>> pending = Maps.newHashMap();
+    protected final Map<String, Long> lastFetched = Maps.newHashMap();
+    protected long tick = 0;
+
+    /**
+     * Constructs a JobStatusCollector with the default limits.
+     */
+    public JobStatusCollector() {
+        this(DEFAULT_THREADS, DEFAULT_MAX_JOBS, DEFAULT_TICK_TIMEOUT);
+    }
+
+    /**
+     * Constructs a JobStatusCollector.
+     *
+     * @param threads the number of jobs fetched at the same time
+     * @param maxJobs the maximum number of fetches in flight
+     * @param tickTimeout the maximum time in milliseconds collect() waits
+     */
+    public JobStatusCollector(int threads, int maxJobs, long tickTimeout) {
+        this.maxJobs = Math.max(1, maxJobs);
+        this.tickTimeout = tickTimeout;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads),
+            new ThreadFactoryBuilder().setNameFormat("lipstick-job-status-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Fetches the status of as many of the running jobs as the budget
+     * allows. Fetches of jobs that are no longer running are cancelled.
+     *
+     * @param fetches how to fetch the status of each running job, by job id
+     * @return the statuses fetched, by job id; jobs whose status could not
+     *         be fetched are left out
+     */
+    public Map<String, P2jJobStatus> collect(Map<String, Callable<P2jJobStatus>> fetches) {
+        tick++;
+        Iterator<Entry<String, Future<P2jJobStatus>>> iter = pending.entrySet().iterator();
+        while (iter.hasNext()) {
+            Entry<String, Future<P2jJobStatus>> entry = iter.next();
+            if (!fetches.containsKey(entry.getKey())) {
+                entry.getValue().cancel(true);
+                iter.remove();
+            }
+        }
+        lastFetched.keySet().retainAll(fetches.keySet());
+
+        // least recently fetched first, jobs never fetched before all others
+        List<String> jobIds = Lists.newArrayList(fetches.keySet());
+        Collections.sort(jobIds, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Long.valueOf(lastFetchedTick(a)).compareTo(lastFetchedTick(b));
+            }
+        });
+        for (String jobId : jobIds) {
+            if (pending.size() >= maxJobs) {
+                break;
+            }
+            if (!pending.containsKey(jobId)) {
+                pending.put(jobId, executor.submit(fetches.get(jobId)));
+                lastFetched.put(jobId, tick);
+            }
+        }
+
+        Map<String, P2jJobStatus> statuses = Maps.newHashMap();
+        long deadline = System.currentTimeMillis() + tickTimeout;
+        iter = pending.entrySet().iterator();
+        while (iter.hasNext()) {
+            Entry<String, Future<P2jJobStatus>> entry = iter.next();
+            try {
+                P2jJobStatus status = entry.getValue().get(Math.max(0, deadline - System.currentTimeMillis()),
+                                                           TimeUnit.MILLISECONDS);
+                if (status != null) {
+                    statuses.put(entry.getKey(), status);
+                }
+            } catch (TimeoutException e) {
+                LOG.debug("Status of job " + entry.getKey() + " not fetched yet.");
+                continue;
+            } catch (ExecutionException e) {
+                LOG.error("Error getting job info for " + entry.getKey() + ".", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            iter.remove();
+        }
+        if (!pending.isEmpty()) {
+            LOG.info(pending.size() + " job status fetches still running after " + tickTimeout + " ms.");
+        }
+        return statuses;
+    }
+
+    /**
+     * Cancels running fetches and stops the fetching threads.
+     */
+    public void shutdown() {
+        for (Future<P2jJobStatus> future : pending.values()) {
+            future.cancel(true);
+        }
+        pending.clear();
+        executor.shutdownNow();
+    }
+
+    private long lastFetchedTick(String jobId) {
+        Long fetched = lastFetched.get(jobId);
+        return (fetched == null) ? -1 : fetched;
+    }
+}
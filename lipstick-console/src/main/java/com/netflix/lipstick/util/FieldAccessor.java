@@ -0,0 +1,142 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.util;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+
+/**
+ * Reads a non-public field of Pig's internals by name.
+ *
+ * The field is looked up once per class, in the class and then in its
+ * superclasses, and the result is cached, whether the field was found or
+ * not. Accessors are shared through of(), so the lookups are shared by
+ * all callers reading the same field.
+ *
+ * All methods are thread safe.
+ */
+public class FieldAccessor {
+    private static final Log LOG = LogFactory.getLog(FieldAccessor.class);
+
+    private static final ConcurrentMap<String, FieldAccessor> ACCESSORS = Maps.newConcurrentMap();
+
+    protected final String fieldName;
+    protected final ConcurrentMap<Class<?>, Optional<Field>> fields = Maps.newConcurrentMap();
+
+    /**
+     * @param fieldName the name of the field to read
+     */
+    public FieldAccessor(String fieldName) {
+        this.fieldName = fieldName;
+    }
+
+    /**
+     * Returns the shared accessor of a field.
+     *
+     * @param fieldName
+     * @return
+     */
+    public static FieldAccessor of(String fieldName) {
+        FieldAccessor accessor = ACCESSORS.get(fieldName);
+        if (accessor == null) {
+            accessor = new FieldAccessor(fieldName);
+            FieldAccessor existing = ACCESSORS.putIfAbsent(fieldName, accessor);
+            if (existing != null) {
+                accessor = existing;
+            }
+        }
+        return accessor;
+    }
+
+    /**
+     * Returns the value of the field in obj.
+     *
+     * @param obj
+     * @return
+     * @throws NoSuchFieldException if no class in the hierarchy of obj declares the field
+     */
+    public Object get(Object obj) throws NoSuchFieldException {
+        return read(obj, getField(obj.getClass()));
+    }
+
+    /**
+     * Returns the value of the field in obj, or defaultValue if its class
+     * has no such field, for instance because Pig's internals changed. A
+     * warning is logged the first time a class is found without the field.
+     *
+     * @param obj
+     * @param defaultValue
+     * @return
+     */
+    public Object get(Object obj, Object defaultValue) {
+        Optional<Field> field = lookup(obj.getClass());
+        return field.isPresent() ? read(obj, field.get()) : defaultValue;
+    }
+
+    /**
+     * Returns the field as declared by cls or its closest superclass.
+     *
+     * @param cls
+     * @return
+     * @throws NoSuchFieldException if no class in the hierarchy declares the field
+     */
+    public Field getField(Class<?> cls) throws NoSuchFieldException {
+        Optional<Field> field = lookup(cls);
+        if (!field.isPresent()) {
+            throw new NoSuchFieldException(fieldName);
+        }
+        return field.get();
+    }
+
+    protected Optional<Field> lookup(Class<?> cls) {
+        Optional<Field> field = fields.get(cls);
+        if (field == null) {
+            field = Optional.fromNullable(find(cls));
+            if (fields.putIfAbsent(cls, field) == null && !field.isPresent()) {
+                LOG.warn("No field " + fieldName + " in " + cls.getName() + " or its superclasses.");
+            }
+        }
+        return field;
+    }
+
+    private Field find(Class<?> cls) {
+        for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+            try {
+                Field f = c.getDeclaredField(fieldName);
+                f.setAccessible(true);
+                return f;
+            } catch (NoSuchFieldException e) {
+                // try the superclass
+            }
+        }
+        return null;
+    }
+
+    private static Object read(Object obj, Field field) {
+        try {
+            return field.get(obj);
+        } catch (IllegalAccessException e) {
+            // can't happen, the field was made accessible
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -15,14 +15,32 @@
  */
 package com.netflix.lipstick.util;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.lang.Class;
-import java.lang.reflect.Field;
 import java.lang.IllegalAccessException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.pig.LoadFunc;
 import org.apache.pig.StoreFuncInterface;
 import org.apache.pig.backend.hadoop.datastorage.ConfigurationUtil;
@@ -67,17 +85,76 @@ public class OutputSampler {
         }
     }
 
+    /**
+     * How the rows of a store are chosen.
+     */
+    public static enum Strategy {
+        /** The first rows of the first part file. */
+        HEAD,
+        /** A uniform random sample of the rows read from the first part file. */
+        RESERVOIR,
+        /** The first rows of each of a few randomly chosen part files. */
+        STRATIFIED
+    }
+
     private static final Log LOG = LogFactory.getLog(OutputSampler.class);
+    private static final FieldAccessor MAP_STORES = FieldAccessor.of("mapStores");
+    private static final FieldAccessor REDUCE_STORES = FieldAccessor.of("reduceStores");
+    private static final FieldAccessor READER = FieldAccessor.of("reader");
     public static final String DELIMITER = "\001";
+    public static final long DEFAULT_MAX_BYTES_READ = 1024L * 1024;
+    public static final int DEFAULT_PART_FILES = 4;
+    /** The maximum number of part files listed to choose stratified samples from. */
+    public static final int MAX_LISTED_PART_FILES = 1000;
+
     private final JobStats jobStats;
+    private final PigContext pigContext;
+    protected Strategy strategy = Strategy.HEAD;
+    protected long maxBytesRead = DEFAULT_MAX_BYTES_READ;
+    protected int partFiles = DEFAULT_PART_FILES;
+    protected Random random = new Random();
 
     /**
-     * Constructs an OutputSampler from a JobStats object.
+     * Constructs an OutputSampler from a JobStats object, for the script
+     * running on the calling thread.
      *
      * @param jobStats
      */
     public OutputSampler(JobStats jobStats) {
         this.jobStats = jobStats;
+        // ScriptState is thread local, look it up before sampling on other threads
+        ScriptState scriptState = ScriptState.get();
+        this.pigContext = (scriptState == null) ? null : scriptState.getPigContext();
+    }
+
+    /**
+     * Sets how the rows of a store are chosen, HEAD by default.
+     *
+     * @param strategy
+     */
+    public void setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * Sets how much of each store may be read to sample it, measured as
+     * the length of the rows read. Reading stops once the budget is spent,
+     * so a larger budget makes RESERVOIR and STRATIFIED samples more
+     * representative at the cost of reading more.
+     *
+     * @param maxBytesRead
+     */
+    public void setMaxBytesRead(long maxBytesRead) {
+        this.maxBytesRead = maxBytesRead;
+    }
+
+    /**
+     * Sets the number of part files STRATIFIED samples are taken from.
+     *
+     * @param partFiles
+     */
+    public void setPartFiles(int partFiles) {
+        this.partFiles = Math.max(1, partFiles);
     }
 
     /**
@@ -92,7 +169,8 @@ public class OutputSampler {
 
     /**
      * Returns a list of sample outputs limited by the maxRowsPerEntry and
-     * maxBytesPerEntry.
+     * maxBytesPerEntry. The stores are sampled one after another on the
+     * calling thread, without any time limit.
      *
      * @param maxRowsPerEntry
      * @param maxBytesPerEntry
@@ -101,41 +179,118 @@ public class OutputSampler {
     public List<SampleOutput> getSampleOutputs(int maxRowsPerEntry, int maxBytesPerEntry) {
         List<SampleOutput> sampleOutputs = new LinkedList<SampleOutput>();
 
+        for (POStore storeInfo : getSampledStores()) {
+            StoreSample sample = new StoreSample(storeInfo, maxRowsPerEntry, maxBytesPerEntry, 0, Long.MAX_VALUE);
+            sample.run();
+            sampleOutputs.add(sample.getSampleOutput());
+        }
+        return sampleOutputs;
+    }
+
+    /**
+     * Returns a list of sample outputs limited by the maxRowsPerEntry and
+     * maxBytesPerEntry, sampling the stores in parallel on executor.
+     *
+     * Each store is sampled for at most storeTimeoutMillis from the moment
+     * its sampling starts, and all of them together for at most
+     * jobTimeoutMillis. A store that runs out of time is cancelled and
+     * contributes the rows read until then. Timeouts of 0 or less mean no
+     * limit. Sampling still in progress when this method returns, because
+     * of a timeout or because the calling thread was interrupted, is
+     * cancelled.
+     *
+     * @param maxRowsPerEntry
+     * @param maxBytesPerEntry
+     * @param executor the executor to sample the stores on
+     * @param storeTimeoutMillis the time limit per store
+     * @param jobTimeoutMillis the time limit for all stores
+     * @return
+     * @throws InterruptedException if interrupted while waiting for a sample
+     */
+    public List<SampleOutput> getSampleOutputs(int maxRowsPerEntry, int maxBytesPerEntry, ExecutorService executor,
+                                               long storeTimeoutMillis, long jobTimeoutMillis) throws InterruptedException {
+        long jobDeadline = deadline(System.currentTimeMillis(), jobTimeoutMillis);
+        List<StoreSample> samples = new ArrayList<StoreSample>();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (POStore storeInfo : getSampledStores()) {
+                StoreSample sample = new StoreSample(storeInfo, maxRowsPerEntry, maxBytesPerEntry,
+                                                     storeTimeoutMillis, jobDeadline);
+                futures.add(executor.submit(sample));
+                samples.add(sample);
+            }
+
+            List<SampleOutput> sampleOutputs = new LinkedList<SampleOutput>();
+            for (int i = 0; i < samples.size(); i++) {
+                await(samples.get(i), futures.get(i));
+                sampleOutputs.add(samples.get(i).getSampleOutput());
+            }
+            return sampleOutputs;
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Waits until a store is sampled or its deadline has passed, in which
+     * case the sampling is cancelled.
+     */
+    protected void await(StoreSample sample, Future<?> future) throws InterruptedException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            long wait = sample.getDeadline(now) - now;
+            if (wait <= 0) {
+                if (future.cancel(true)) {
+                    LOG.warn("Timed out sampling output: " + sample.store.getSFile());
+                }
+                return;
+            }
+            try {
+                future.get(wait, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                // check the deadline again, it may have moved if sampling just started
+            } catch (CancellationException e) {
+                return;
+            } catch (ExecutionException e) {
+                LOG.warn("Unable to get sample for: " + sample.store.getSFile(), e.getCause());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the stores of the job that can be sampled.
+     */
+    protected List<POStore> getSampledStores() {
+        List<POStore> stores = new LinkedList<POStore>();
         for (POStore storeInfo : getStoreInfo(jobStats)) {
             LOG.info("Sample output: " + storeInfo);
             LOG.info("StoreFunc: " + storeInfo.getStoreFunc().getClass());
             if (storeInfo != null && storeFuncValidForReading(storeInfo.getStoreFunc())) {
-                String schema = (storeInfo.getSchema() == null) ? ("") : storeInfo.getSchema().toString();
-                sampleOutputs.add(new SampleOutput(schema, getSampleRows(storeInfo, maxRowsPerEntry, maxBytesPerEntry)));
+                stores.add(storeInfo);
             }
         }
-        return sampleOutputs;
+        return stores;
+    }
+
+    private static long deadline(long start, long timeoutMillis) {
+        return (timeoutMillis > 0 && timeoutMillis < Long.MAX_VALUE - start) ? start + timeoutMillis : Long.MAX_VALUE;
     }
 
     /* For a given object retrieve the value of a named field, regardless 
        of what class in the object's inheritance hierarchy the field was
        declared upon, and raises NoSuchFieldException if the field does
-       not exist on any class in the hierarchy. */
+       not exist on any class in the hierarchy. The field is looked up
+       once per class, see FieldAccessor. */
     public Object getInheritedFieldValue(Object obj, String fieldName) throws IllegalAccessException, NoSuchFieldException {
         return getInheritedFieldValue(obj, obj.getClass(), fieldName);
     }
 
     protected Object getInheritedFieldValue(Object obj, Class cls, String fieldName) throws IllegalAccessException, NoSuchFieldException {
-        try {
-            Field f = cls.getDeclaredField(fieldName);
-            f.setAccessible(true);
-            return f.get(obj);
-        } catch (NoSuchFieldException e) {
-            Class souper = cls.getSuperclass();
-            if (souper != null) {
-                return getInheritedFieldValue(obj, souper, fieldName);
-            } else {
-                /* getSuperclass() returns null if we've gotten all the
-                   way up to Object. At this point we've checked every class
-                   in the heirarchy so the field must not exist. */
-                throw new NoSuchFieldException(fieldName);
-            }
-        }
+        return FieldAccessor.of(fieldName).getField(cls).get(obj);
     }
 
     @SuppressWarnings("unchecked")
@@ -148,13 +303,13 @@ public class OutputSampler {
         List<POStore> mapStores = null;
         List<POStore> reduceStores = null;
         try {
-            mapStores = (LinkedList<POStore>) getInheritedFieldValue(jobStats, "mapStores");
+            mapStores = (List<POStore>) MAP_STORES.get(jobStats, null);
         } catch (Exception e) {
             LOG.warn("Failed to get map store information for jobId [" + jobStats.getJobId() + "].", e);
         }
 
         try {
-            reduceStores = (LinkedList<POStore>) getInheritedFieldValue(jobStats, "reduceStores");
+            reduceStores = (List<POStore>) REDUCE_STORES.get(jobStats, null);
         } catch (Exception e) {
             LOG.warn("Failed to get reduce store information for jobId [" + jobStats.getJobId() + "].", e);
         }
@@ -174,54 +329,210 @@ public class OutputSampler {
         return storeInfo;
     }
 
-    private String getSampleRows(POStore store, int maxRows, int maxBytes) {
+    /**
+     * Samples the rows of a store with the configured strategy. The rows
+     * sampled so far can be taken at any time, so a sample that runs out
+     * of time still has the rows sampled before its deadline.
+     */
+    protected class StoreSample implements Runnable {
+        protected final POStore store;
+        protected final int maxRows;
+        protected final int maxBytes;
+        protected final long timeoutMillis;
+        protected final long jobDeadline;
+        protected final StringBuilder sb = new StringBuilder();
+        protected int rowCount = 0;
+        protected volatile long started = 0;
+        protected volatile String rows = "";
 
-        // Load the proper amount of data
-        StringBuilder sb = new StringBuilder();
+        /**
+         * @param store the store to sample
+         * @param maxRows the maximum number of rows
+         * @param maxBytes the maximum length of the rows together
+         * @param timeoutMillis the time limit once started, no limit if 0 or less
+         * @param jobDeadline the time by which sampling has to end regardless
+         */
+        public StoreSample(POStore store, int maxRows, int maxBytes, long timeoutMillis, long jobDeadline) {
+            this.store = store;
+            this.maxRows = maxRows;
+            this.maxBytes = maxBytes;
+            this.timeoutMillis = timeoutMillis;
+            this.jobDeadline = jobDeadline;
+        }
 
-        try {
-            LoadFunc loader = getLoader(store);
-            if (loader != null) {
-                int rowCount = 0;
-                Tuple t = loader.getNext();
-                while (t != null && rowCount < maxRows) {
-                    String strTuple = t.toDelimitedString(DELIMITER);
-
-                    if (strTuple != null) {
-                        if (sb.length() + strTuple.length() + DELIMITER.length() > maxBytes) {
+        /**
+         * Returns the time by which sampling has to end. Until sampling
+         * has started that is at most one timeout from now.
+         *
+         * @param now the current time
+         * @return
+         */
+        public long getDeadline(long now) {
+            long start = (started > 0) ? started : now;
+            return Math.min(jobDeadline, deadline(start, timeoutMillis));
+        }
+
+        public SampleOutput getSampleOutput() {
+            String schema = (store.getSchema() == null) ? ("") : store.getSchema().toString();
+            return new SampleOutput(schema, rows);
+        }
+
+        @Override
+        public void run() {
+            started = System.currentTimeMillis();
+            long deadline = getDeadline(started);
+            List<LoadFunc> loaders = new ArrayList<LoadFunc>();
+            try {
+                switch (strategy) {
+                case RESERVOIR:
+                    loaders.add(getLoader(store));
+                    sampleReservoir(loaders.get(0), deadline);
+                    break;
+                case STRATIFIED:
+                    loaders.addAll(getLoaders(store, partFiles));
+                    for (LoadFunc loader : loaders) {
+                        if (!sampleHead(loader, (maxRows + loaders.size() - 1) / loaders.size(),
+                                        maxBytesRead / loaders.size(), deadline)) {
                             break;
                         }
+                    }
+                    break;
+                default:
+                    loaders.add(getLoader(store));
+                    sampleHead(loaders.get(0), maxRows, maxBytesRead, deadline);
+                }
+            } catch (Exception e) {
+                String sampleDescription = (rowCount > 0) ? "full" : "any";
+                LOG.warn("Unable to get " + sampleDescription + " sample for: " + store.getSFile(), e);
+            } finally {
+                // samples are cut short, so readers are rarely read to the end
+                for (LoadFunc loader : loaders) {
+                    close(loader);
+                }
+            }
+            if (stopped(deadline)) {
+                LOG.warn("Stopped sampling after " + rowCount + " rows for: " + store.getSFile());
+            }
+        }
 
-                        if (sb.length() > 0) {
-                            sb.append('\n');
-                        }
+        /**
+         * Adds the first rows of loader to the sample, until one of them
+         * doesn't fit.
+         *
+         * @param loader the loader to read rows from, may be null
+         * @param rowLimit the maximum number of rows to read
+         * @param budget the maximum length of the rows to read
+         * @param deadline the time by which reading has to end
+         * @return false if no more rows fit in the sample
+         * @throws IOException
+         */
+        protected boolean sampleHead(LoadFunc loader, int rowLimit, long budget, long deadline) throws IOException {
+            if (loader == null) {
+                return true;
+            }
+            long bytesRead = 0;
+            Tuple t;
+            for (int i = 0; i < rowLimit && bytesRead < budget && !stopped(deadline); i++) {
+                if ((t = loader.getNext()) == null) {
+                    break;
+                }
+                String strTuple = t.toDelimitedString(DELIMITER);
+                if (strTuple != null) {
+                    bytesRead += strTuple.length() + DELIMITER.length();
+                    if (!add(strTuple)) {
+                        return false;
+                    }
+                }
+            }
+            return rowCount < maxRows;
+        }
 
-                        sb.append(strTuple);
+        /**
+         * Samples the rows of loader uniformly, reading until the read
+         * budget is spent. Rows too long to ever fit in the sample are
+         * passed over.
+         *
+         * @param loader the loader to read rows from, may be null
+         * @param deadline the time by which reading has to end
+         * @throws IOException
+         */
+        protected void sampleReservoir(LoadFunc loader, long deadline) throws IOException {
+            if (loader == null) {
+                return;
+            }
+            List<String> reservoir = new ArrayList<String>(maxRows);
+            long seen = 0;
+            long bytesRead = 0;
+            Tuple t;
+            while (bytesRead < maxBytesRead && !stopped(deadline) && (t = loader.getNext()) != null) {
+                String strTuple = t.toDelimitedString(DELIMITER);
+                if (strTuple == null) {
+                    continue;
+                }
+                bytesRead += strTuple.length() + DELIMITER.length();
+                if (strTuple.length() + DELIMITER.length() > maxBytes) {
+                    continue;
+                }
+                seen++;
+                if (reservoir.size() < maxRows) {
+                    reservoir.add(strTuple);
+                } else {
+                    long index = (long) (random.nextDouble() * seen);
+                    if (index >= maxRows) {
+                        continue;
                     }
-                    rowCount++;
-                    t = loader.getNext();
+                    reservoir.set((int) index, strTuple);
+                }
+                // publish every change, so a cancelled sample is up to date
+                sb.setLength(0);
+                rowCount = 0;
+                for (String row : reservoir) {
+                    add(row);
                 }
             }
-        } catch (Exception e) {
-            String sampleDescription = (sb.length() > 0) ? "full" : "any";
-            LOG.warn("Unable to get " + sampleDescription + " sample for: " + store.getSFile(), e);
         }
 
-        return sb.toString();
+        /**
+         * Adds a row to the sample if it fits within maxRows and maxBytes.
+         *
+         * @param row
+         * @return false if the row didn't fit
+         */
+        protected boolean add(String row) {
+            if (rowCount >= maxRows || sb.length() + row.length() + DELIMITER.length() > maxBytes) {
+                return false;
+            }
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(row);
+            rowCount++;
+            rows = sb.toString();
+            return true;
+        }
+
+        protected boolean stopped(long deadline) {
+            return Thread.currentThread().isInterrupted() || System.currentTimeMillis() >= deadline;
+        }
     }
 
     protected LoadFunc getLoader(POStore store) {
         // Create a loader from the POStore
         // Sampled from JobStats class
         LoadFunc loader = null;
-        PigContext pigContext = ScriptState.get().getPigContext();
+        Configuration conf = getConfiguration(store);
+        if (conf == null) {
+            return null;
+        }
         try {
-            LoadFunc originalLoadFunc = (LoadFunc) PigContext.instantiateFuncFromSpec(store.getSFile().getFuncSpec());
-
-            loader = new ReadToEndLoader(originalLoadFunc,
-                                         ConfigurationUtil.toConfiguration(pigContext.getProperties()),
-                                         store.getSFile().getFileName(),
-                                         0);
+            // Only read the first part file, so splits are computed for
+            // that file rather than for the whole output
+            String location = getFirstPartFile(store.getSFile().getFileName(), conf);
+            if (location == null) {
+                LOG.info("No output to sample for: " + store.getSFile());
+                return null;
+            }
+            loader = getLoader(store, location, conf);
 
         } catch (Exception e) {
             LOG.warn("Unable to get sample rows for: " + store.getSFile(), e);
@@ -229,4 +540,152 @@ public class OutputSampler {
 
         return loader;
     }
+
+    /**
+     * Closes the record reader a loader returned by getLoader() has open.
+     * ReadToEndLoader only closes its reader once every row was read, and
+     * has no way to close it before, so it is reached through its field.
+     *
+     * @param loader the loader to close, may be null
+     */
+    protected void close(LoadFunc loader) {
+        if (!(loader instanceof ReadToEndLoader)) {
+            return;
+        }
+        try {
+            RecordReader<?, ?> reader = (RecordReader<?, ?>) READER.get(loader, null);
+            if (reader != null) {
+                reader.close();
+            }
+        } catch (Exception e) {
+            LOG.debug("Error closing sample reader for: " + loader, e);
+        }
+    }
+
+    /**
+     * Returns loaders for up to count randomly chosen part files of a
+     * store, see choosePartFiles().
+     *
+     * @param store
+     * @param count
+     * @return
+     */
+    protected List<LoadFunc> getLoaders(POStore store, int count) {
+        List<LoadFunc> loaders = new ArrayList<LoadFunc>();
+        Configuration conf = getConfiguration(store);
+        if (conf == null) {
+            return loaders;
+        }
+        try {
+            for (String location : choosePartFiles(store.getSFile().getFileName(), conf, count)) {
+                loaders.add(getLoader(store, location, conf));
+            }
+        } catch (Exception e) {
+            LOG.warn("Unable to get sample rows for: " + store.getSFile(), e);
+        }
+        return loaders;
+    }
+
+    /**
+     * Returns a loader reading location with the load function of store.
+     *
+     * @param store
+     * @param location a part file of the store
+     * @param conf
+     * @return
+     * @throws IOException
+     */
+    protected LoadFunc getLoader(POStore store, String location, Configuration conf) throws IOException {
+        LoadFunc originalLoadFunc = (LoadFunc) PigContext.instantiateFuncFromSpec(store.getSFile().getFuncSpec());
+        return new ReadToEndLoader(originalLoadFunc, conf, location, 0);
+    }
+
+    private Configuration getConfiguration(POStore store) {
+        if (pigContext == null) {
+            LOG.warn("No pig context to get sample rows for: " + store.getSFile());
+            return null;
+        }
+        return ConfigurationUtil.toConfiguration(pigContext.getProperties());
+    }
+
+    /**
+     * Returns the first non-empty part file of an output. The directory is
+     * listed lazily, so only the entries up to that file are fetched from
+     * file systems that list in batches. Hidden files, such as _SUCCESS
+     * and _logs, and subdirectories are skipped.
+     *
+     * @param location the location the output was stored to
+     * @param conf
+     * @return the part file, location itself if it is not a directory, or
+     *         null if the output has no data
+     * @throws IOException
+     */
+    protected String getFirstPartFile(String location, Configuration conf) throws IOException {
+        List<String> files = listPartFiles(location, conf, 1, false);
+        return files.isEmpty() ? null : files.get(0);
+    }
+
+    /**
+     * Returns up to count non-empty part files of an output, chosen at
+     * random from the first MAX_LISTED_PART_FILES entries of its
+     * directory, so the cost of choosing is bounded however many part
+     * files there are.
+     *
+     * @param location the location the output was stored to
+     * @param conf
+     * @param count
+     * @return the part files in name order, or location itself if it is
+     *         not a directory
+     * @throws IOException
+     */
+    protected List<String> choosePartFiles(String location, Configuration conf, int count) throws IOException {
+        return listPartFiles(location, conf, count, true);
+    }
+
+    private List<String> listPartFiles(String location, Configuration conf, int count, boolean random)
+            throws IOException {
+        List<String> chosen = new ArrayList<String>(count);
+        Path path = new Path(location);
+        FileSystem fs = path.getFileSystem(conf);
+        FileStatus status;
+        try {
+            status = fs.getFileStatus(path);
+        } catch (FileNotFoundException e) {
+            // possibly a glob, leave it to the loader
+            chosen.add(location);
+            return chosen;
+        }
+        if (!status.isDirectory()) {
+            chosen.add(location);
+            return chosen;
+        }
+
+        RemoteIterator<LocatedFileStatus> files = fs.listLocatedStatus(path);
+        int listed = 0;
+        int seen = 0;
+        while (files.hasNext() && (!random || listed++ < MAX_LISTED_PART_FILES)) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Interrupted looking for output in " + location);
+            }
+            LocatedFileStatus file = files.next();
+            String name = file.getPath().getName();
+            if (!file.isFile() || file.getLen() == 0 || name.startsWith("_") || name.startsWith(".")) {
+                continue;
+            }
+            seen++;
+            if (chosen.size() < count) {
+                chosen.add(file.getPath().toString());
+            } else if (!random) {
+                break;
+            } else {
+                int index = this.random.nextInt(seen);
+                if (index < count) {
+                    chosen.set(index, file.getPath().toString());
+                }
+            }
+        }
+        // replacements shuffle the choice, part files sort in the order they were written
+        Collections.sort(chosen);
+        return chosen;
+    }
 }
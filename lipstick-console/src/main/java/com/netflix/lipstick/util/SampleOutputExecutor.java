@@ -0,0 +1,147 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.util;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.lipstick.util.OutputSampler.SampleOutput;
+
+/**
+ * Samples the outputs of finished jobs in the background, so reading
+ * outputs never holds up the thread reporting job progress.
+ *
+ * Jobs are sampled one at a time in the order they were submitted, with
+ * the stores of a job sampled in parallel on a bounded pool of threads.
+ * Both the time per store and the time per job are limited, see
+ * OutputSampler.getSampleOutputs().
+ */
+public class SampleOutputExecutor {
+    private static final Log LOG = LogFactory.getLog(SampleOutputExecutor.class);
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final long DEFAULT_STORE_TIMEOUT = 30000L;
+    public static final long DEFAULT_JOB_TIMEOUT = 60000L;
+
+    /**
+     * Receives the samples of a job, on the sampling thread.
+     */
+    public static interface Callback {
+        void sampled(List<SampleOutput> sampleOutputs);
+    }
+
+    protected final ExecutorService jobExecutor;
+    protected final ExecutorService storeExecutor;
+    protected final long storeTimeout;
+    protected final long jobTimeout;
+    protected final List<String> pending = Lists.newLinkedList();
+
+    /**
+     * Constructs a SampleOutputExecutor with the default limits.
+     */
+    public SampleOutputExecutor() {
+        this(DEFAULT_THREADS, DEFAULT_STORE_TIMEOUT, DEFAULT_JOB_TIMEOUT);
+    }
+
+    /**
+     * Constructs a SampleOutputExecutor.
+     *
+     * @param threads the number of stores sampled at the same time
+     * @param storeTimeout the time limit per store in milliseconds
+     * @param jobTimeout the time limit per job in milliseconds
+     */
+    public SampleOutputExecutor(int threads, long storeTimeout, long jobTimeout) {
+        this.storeTimeout = storeTimeout;
+        this.jobTimeout = jobTimeout;
+        this.jobExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("lipstick-sample-output").setDaemon(true).build());
+        this.storeExecutor = Executors.newFixedThreadPool(Math.max(1, threads),
+            new ThreadFactoryBuilder().setNameFormat("lipstick-sample-output-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Queues a job to be sampled and passes the samples to callback.
+     *
+     * @param name the name to report the job by if its samples are abandoned
+     * @param sampler the sampler of the job, constructed on the thread running the script
+     * @param maxRowsPerEntry
+     * @param maxBytesPerEntry
+     * @param callback
+     * @return a future to wait for or cancel the sampling with
+     */
+    public Future<?> submit(final String name, final OutputSampler sampler, final int maxRowsPerEntry,
+                            final int maxBytesPerEntry, final Callback callback) {
+        synchronized (pending) {
+            pending.add(name);
+        }
+        return jobExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    List<SampleOutput> sampleOutputs;
+                    try {
+                        sampleOutputs = sampler.getSampleOutputs(maxRowsPerEntry, maxBytesPerEntry, storeExecutor,
+                                                                 storeTimeout, jobTimeout);
+                    } catch (InterruptedException e) {
+                        LOG.warn("Sampling output of " + name + " was cancelled.");
+                        return;
+                    }
+                    callback.sampled(sampleOutputs);
+                } finally {
+                    synchronized (pending) {
+                        pending.remove(name);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the queued jobs to be sampled and stops the sampling
+     * threads. Sampling still in progress or queued after the timeout is
+     * cancelled.
+     *
+     * @param timeoutMillis the maximum time to wait
+     * @return the names of the jobs whose samples were abandoned, empty
+     *         if all jobs were sampled before the timeout
+     */
+    public List<String> shutdown(long timeoutMillis) {
+        jobExecutor.shutdown();
+        boolean finished = false;
+        try {
+            finished = jobExecutor.awaitTermination(Math.max(0, timeoutMillis), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<String> abandoned;
+        synchronized (pending) {
+            abandoned = Lists.newArrayList(pending);
+        }
+        if (!finished) {
+            jobExecutor.shutdownNow();
+        }
+        storeExecutor.shutdownNow();
+        return abandoned;
+    }
+}
@@ -56,7 +56,10 @@ public class LipstickPigServer extends PigServer {
     protected P2jPlanGenerator optimizedPlanGenerator;
     protected P2jPlanGenerator unoptimizedPlanGenerator;
     private static final Log LOG = LogFactory.getLog(LipstickPigServer.class);
-    
+
+    /** Number of threads used to convert logical plans to p2j plans. */
+    protected static final String PLAN_GENERATOR_THREADS_PROP = "lipstick.plan.generator.threads";
+
     /**
      * Constructs a LipstickPigServer with the given execType and properties.
      * Initializes any LipstickPPNLs that the ScriptState is aware of.
@@ -140,7 +143,7 @@ public class LipstickPigServer extends PigServer {
                 // Get optimized plan by compiling it with the appropriate execution engine
                 LOG.info("Compiling and optimizing logical plan...");
                 ((HExecutionEngine)getPigContext().getExecutionEngine()).compile(lp, getPigContext().getProperties());
-                optimizedPlanGenerator = new P2jPlanGenerator(lp);
+                optimizedPlanGenerator = new P2jPlanGenerator(lp, getPlanGeneratorThreads());
                 LOG.info("Finished compiling and optimizing logical plan");
                 
                 ppnl.setPlanGenerators(unoptimizedPlanGenerator, optimizedPlanGenerator);
@@ -151,6 +154,24 @@ public class LipstickPigServer extends PigServer {
         return super.launchPlan(lp, jobName);
     }
 
+    /**
+     * Returns the number of threads to generate p2j plans with, 1 unless
+     * set with lipstick.plan.generator.threads.
+     *
+     * @return
+     */
+    protected int getPlanGeneratorThreads() {
+        String threads = getPigContext().getProperties().getProperty(PLAN_GENERATOR_THREADS_PROP);
+        if (threads != null) {
+            try {
+                return Integer.parseInt(threads.trim());
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid " + PLAN_GENERATOR_THREADS_PROP + ": " + threads);
+            }
+        }
+        return 1;
+    }
+
     public List<String> getScriptCache() {
         return getCurrentDAG().getScriptCache();
     }
@@ -162,7 +183,7 @@ public class LipstickPigServer extends PigServer {
     @Override
     public void parseAndBuild() throws IOException {
         super.parseAndBuild();
-        unoptimizedPlanGenerator = new P2jPlanGenerator(getCurrentDAG().getLogicalPlan());
+        unoptimizedPlanGenerator = new P2jPlanGenerator(getCurrentDAG().getLogicalPlan(), getPlanGeneratorThreads());
     }
 
     /**
@@ -17,20 +17,29 @@ package com.netflix.lipstick;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import org.apache.pig.FuncSpec;
 import org.apache.pig.LipstickPigServer;
 import org.apache.pig.backend.hadoop.executionengine.HExecutionEngine;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MRCompiler;
+import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.MapReduceOper;
 import org.apache.pig.backend.hadoop.executionengine.mapReduceLayer.plans.MROperPlan;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.PhysicalOperator;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.plans.PhysicalPlan;
+import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
+import org.apache.pig.impl.io.FileSpec;
+import org.apache.pig.impl.plan.OperatorKey;
 import org.apache.pig.newplan.Operator;
 import org.apache.pig.newplan.logical.relational.LogicalPlan;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.netflix.lipstick.MRPlanCalculator.MRStepType;
 import com.netflix.lipstick.model.P2jPlan;
@@ -53,6 +62,25 @@ public class MRPlanCalculatorTest {
 
         P2jPlan opPlan = opCalc.getP2jPlan();
 
+        assertExpectedStepTypes(opPlan);
+    }
+
+    @Test
+    public void sharedIndexTest() throws Exception {
+        LipstickPigServer lps = new LipstickPigServer("local");
+        lps.setBatchOn();
+        lps.registerScript("./src/test/resources/test.pig");
+
+        P2jPlanGenerator first = getOpPlanGenerator(lps);
+        P2jPlanGenerator second = getOpPlanGenerator(lps);
+
+        MRStageIndex index = new MRStageIndex(getMROperPlan(lps), getP2lMap(lps));
+
+        assertExpectedStepTypes(new MRPlanCalculator(first.getP2jPlan(), index, first.getReverseMap()).getP2jPlan());
+        assertExpectedStepTypes(new MRPlanCalculator(second.getP2jPlan(), index, second.getReverseMap()).getP2jPlan());
+    }
+
+    private void assertExpectedStepTypes(P2jPlan opPlan) {
         Map<String, MRStepType> expectedIdToStepTypeMap = new HashMap<String, MRStepType>();
         expectedIdToStepTypeMap.put("tiny", MRStepType.MAPPER);
         expectedIdToStepTypeMap.put("colors", MRStepType.MAPPER);
@@ -79,6 +107,126 @@ public class MRPlanCalculatorTest {
         }
     }
 
+    @Test(timeOut = 5000)
+    public void largePlanTest() throws Exception {
+        int stores = 1000;
+        int opsPerStore = 5;
+        Map<String, P2jLogicalRelationalOperator> p2jMap = new LinkedHashMap<String, P2jLogicalRelationalOperator>();
+        MROperPlan mrp = new MROperPlan();
+        for (int i = 0; i < stores; i++) {
+            // a chain of unassigned operators feeding a store
+            String prev = null;
+            for (int j = 0; j < opsPerStore - 1; j++) {
+                P2jLogicalRelationalOperator op = new P2jLogicalRelationalOperator();
+                op.setUid(i + "_" + j);
+                op.setOperator("LOForEach");
+                op.setPredecessors(idList(prev));
+                op.setSuccessors(idList(i + "_" + (j + 1)));
+                p2jMap.put(op.getUid(), op);
+                prev = op.getUid();
+            }
+            P2jLOStore store = new P2jLOStore();
+            store.setUid(i + "_" + (opsPerStore - 1));
+            store.setOperator("LOStore");
+            store.setStorageLocation("hdfs://out/" + i);
+            store.setStorageFunction("PigStorage");
+            store.setPredecessors(idList(prev));
+            store.setSuccessors(idList(null));
+            p2jMap.put(store.getUid(), store);
+
+            MapReduceOper job = new MapReduceOper(new OperatorKey("scope", i));
+            POStore pop = new POStore(new OperatorKey("scope", stores + i));
+            pop.setSFile(new FileSpec("hdfs://out/" + i, new FuncSpec("org.apache.pig.builtin.PigStorage")));
+            job.mapPlan.add(pop);
+            mrp.add(job);
+        }
+
+        MRPlanCalculator opCalc = new MRPlanCalculator(new P2jPlan(p2jMap), mrp,
+                                                       new HashMap<PhysicalOperator, Operator>(),
+                                                       new HashMap<Operator, String>());
+
+        Map<String, P2jLogicalRelationalOperator> plan = opCalc.getP2jPlan().getPlan();
+        Assert.assertEquals(plan.size(), stores * opsPerStore);
+        for (int i = 0; i < stores; i++) {
+            String jid = new OperatorKey("scope", i).toString();
+            for (int j = 0; j < opsPerStore; j++) {
+                P2jLogicalRelationalOperator op = plan.get(i + "_" + j);
+                Assert.assertEquals(op.getMapReduce().getJobId(), jid);
+                String expectedStepType = (j == opsPerStore - 1) ? MRStepType.MAPPER.toString()
+                                                                 : MRStepType.UNKNOWN.toString();
+                Assert.assertEquals(op.getMapReduce().getStepType(), expectedStepType);
+            }
+        }
+    }
+
+    @Test(timeOut = 5000)
+    public void deepDiamondTest() throws Exception {
+        // a long chain of unassigned diamonds between two stores; walking it
+        // naively takes exponential time and overflows the stack
+        int diamonds = 5000;
+        Map<String, P2jLogicalRelationalOperator> p2jMap = new LinkedHashMap<String, P2jLogicalRelationalOperator>();
+        P2jLOStore head = new P2jLOStore();
+        head.setUid("head");
+        head.setStorageLocation("hdfs://out/head");
+        head.setStorageFunction("PigStorage");
+        head.setPredecessors(idList(null));
+        head.setSuccessors(Lists.newArrayList("0_l", "0_r"));
+        p2jMap.put("head", head);
+        String prev = "head";
+        for (int i = 0; i < diamonds; i++) {
+            String next = (i == diamonds - 1) ? "tail" : (i + 1) + "_l";
+            for (String side : new String[] { "_l", "_r" }) {
+                P2jLogicalRelationalOperator op = new P2jLogicalRelationalOperator();
+                op.setUid(i + side);
+                op.setPredecessors(idList(prev));
+                op.setSuccessors(idList(i + "_join"));
+                p2jMap.put(op.getUid(), op);
+            }
+            P2jLogicalRelationalOperator join = new P2jLogicalRelationalOperator();
+            join.setUid(i + "_join");
+            join.setPredecessors(Lists.newArrayList(i + "_l", i + "_r"));
+            join.setSuccessors((i == diamonds - 1) ? idList("tail")
+                                                   : Lists.newArrayList((i + 1) + "_l", (i + 1) + "_r"));
+            p2jMap.put(join.getUid(), join);
+            prev = join.getUid();
+        }
+        P2jLOStore tail = new P2jLOStore();
+        tail.setUid("tail");
+        tail.setStorageLocation("hdfs://out/tail");
+        tail.setStorageFunction("PigStorage");
+        tail.setPredecessors(idList(prev));
+        tail.setSuccessors(idList(null));
+        p2jMap.put("tail", tail);
+
+        MROperPlan mrp = new MROperPlan();
+        int key = 0;
+        for (String loc : new String[] { "hdfs://out/head", "hdfs://out/tail" }) {
+            MapReduceOper job = new MapReduceOper(new OperatorKey("scope", key++));
+            POStore pop = new POStore(new OperatorKey("scope", key++));
+            pop.setSFile(new FileSpec(loc, new FuncSpec("org.apache.pig.builtin.PigStorage")));
+            job.mapPlan.add(pop);
+            mrp.add(job);
+        }
+
+        MRPlanCalculator opCalc = new MRPlanCalculator(new P2jPlan(p2jMap), mrp,
+                                                       new HashMap<PhysicalOperator, Operator>(),
+                                                       new HashMap<Operator, String>());
+
+        // every operator in between sees the head job upstream and the tail
+        // job downstream, so resolves to its only successor scope
+        String tailJob = new OperatorKey("scope", 2).toString();
+        for (P2jLogicalRelationalOperator op : opCalc.getP2jPlan().getPlan().values()) {
+            if (op != head) {
+                Assert.assertEquals(op.getMapReduce().getJobId(), tailJob);
+            }
+        }
+        Assert.assertEquals(head.getMapReduce().getJobId(), new OperatorKey("scope", 0).toString());
+    }
+
+    private List<String> idList(String id) {
+        return (id == null) ? Collections.<String>emptyList() : Lists.newArrayList(id);
+    }
+
     private P2jPlanGenerator getOpPlanGenerator(LipstickPigServer lps) throws Exception {
         return new P2jPlanGenerator(lps.getLP(null));
     }
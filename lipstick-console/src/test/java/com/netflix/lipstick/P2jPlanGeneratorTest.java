@@ -19,8 +19,11 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.pig.LipstickPigServer;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -164,6 +167,21 @@ public class P2jPlanGeneratorTest {
         Assert.assertEquals(expectedOps.size(), 0);
     }
 
+    @Test
+    public void parallelTest() throws Exception {
+        LipstickPigServer lps = new LipstickPigServer("local");
+        lps.setBatchOn();
+        lps.registerScript("./src/test/resources/test.pig");
+
+        P2jPlan sequential = new P2jPlanGenerator(lps.getLP(null)).getP2jPlan();
+        P2jPlan parallel = new P2jPlanGenerator(lps.getLP(null), 4).getP2jPlan();
+
+        ObjectMapper om = new ObjectMapper();
+        om.configure(SerializationConfig.Feature.SORT_PROPERTIES_ALPHABETICALLY, true);
+        Assert.assertEquals(om.writeValueAsString(new TreeMap<String, P2jLogicalRelationalOperator>(parallel.getPlan())),
+                            om.writeValueAsString(new TreeMap<String, P2jLogicalRelationalOperator>(sequential.getPlan())));
+    }
+
     private String getIdentifier(P2jLogicalRelationalOperator op) {
         return (op instanceof P2jLOStore) ? ((P2jLOStore) op).getStorageLocation() : op.getAlias();
     }
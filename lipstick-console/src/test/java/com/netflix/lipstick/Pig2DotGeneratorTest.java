@@ -0,0 +1,141 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
+import com.netflix.lipstick.layout.LayeredLayout.Point;
+import com.netflix.lipstick.layout.SvgReader;
+import com.netflix.lipstick.model.P2jPlan;
+import com.netflix.lipstick.model.P2jPlanPackage;
+import com.netflix.lipstick.model.operators.P2jLogicalRelationalOperator;
+
+public class Pig2DotGeneratorTest {
+
+    @Test
+    public void svgTest() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        P2jPlanPackage plans = mapper.readValue(getClass().getResourceAsStream("/test.json"), P2jPlanPackage.class);
+        verifySvg(plans.getOptimized());
+        verifySvg(plans.getUnoptimized());
+    }
+
+    @Test
+    public void incrementalSvgTest() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        P2jPlan plan = mapper.readValue(getClass().getResourceAsStream("/test.json"), P2jPlanPackage.class)
+            .getOptimized();
+        Pig2DotGenerator generator = new Pig2DotGenerator(plan, Pig2DotGenerator.Renderer.JAVA);
+        generator.setCache(null);
+        String svg = generator.generatePlan("svg");
+        Map<String, Point> before = SvgReader.read(svg).getNodeCenters();
+        Assert.assertEquals(before.keySet(), plan.getPlan().keySet());
+
+        // a mapper turns out to be a reducer of the same job
+        P2jLogicalRelationalOperator changed = null;
+        for (P2jLogicalRelationalOperator op : plan.getPlan().values()) {
+            if (op.getMapReduce() != null && "MAPPER".equals(op.getMapReduce().getStepType())) {
+                changed = op;
+                break;
+            }
+        }
+        Assert.assertNotNull(changed);
+        changed.setMapReduce(changed.getMapReduce().getJobId(), "REDUCER");
+        plan.setSvg(svg);
+        generator = new Pig2DotGenerator(plan, Pig2DotGenerator.Renderer.JAVA);
+        generator.setCache(null);
+        String updated = generator.generatePlan("svg");
+
+        Map<String, Point> after = SvgReader.read(updated).getNodeCenters();
+        for (Map.Entry<String, Point> e : before.entrySet()) {
+            Assert.assertEquals(after.get(e.getKey()).getX(), e.getValue().getX(), 0.01, e.getKey());
+            Assert.assertEquals(after.get(e.getKey()).getY(), e.getValue().getY(), 0.01, e.getKey());
+        }
+        String node = updated.substring(updated.indexOf("<g id=\"" + changed.getUid() + "\""));
+        node = node.substring(0, node.indexOf("</g>"));
+        Assert.assertTrue(node.contains(Pig2DotGenerator.BG_RED_TASK), node);
+        Assert.assertFalse(node.contains(Pig2DotGenerator.BG_MAP_TASK), node);
+        verifySvg(plan, updated);
+
+        // the same as laying out the changed plan in full
+        generator = new Pig2DotGenerator(plan, Pig2DotGenerator.Renderer.JAVA);
+        generator.setCache(null);
+        generator.setIncremental(false);
+        Assert.assertEquals(updated, generator.generatePlan("svg"));
+    }
+
+    private void verifySvg(P2jPlan plan) throws Exception {
+        verifySvg(plan, new Pig2DotGenerator(plan, Pig2DotGenerator.Renderer.JAVA).generatePlan("svg"));
+    }
+
+    private void verifySvg(P2jPlan plan, String svg) throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            .parse(new ByteArrayInputStream(svg.getBytes(Charsets.UTF_8)));
+
+        Set<String> nodes = Sets.newHashSet();
+        Set<String> edges = Sets.newHashSet();
+        Set<String> clusters = Sets.newHashSet();
+        NodeList groups = doc.getElementsByTagName("g");
+        for (int i = 0; i < groups.getLength(); i++) {
+            Element g = (Element) groups.item(i);
+            String title = g.getElementsByTagName("title").getLength() > 0
+                ? g.getElementsByTagName("title").item(0).getTextContent() : null;
+            if ("node".equals(g.getAttribute("class"))) {
+                Assert.assertEquals(g.getAttribute("id"), title);
+                nodes.add(title);
+            } else if ("edge".equals(g.getAttribute("class"))) {
+                edges.add(title);
+                // the graph view reads the tail from the path and the head from the arrow
+                String d = ((Element) g.getElementsByTagName("path").item(0)).getAttribute("d");
+                Assert.assertTrue(d.matches("M-?[0-9.]+,-?[0-9.]+C[^C]*"), d);
+                String points = ((Element) g.getElementsByTagName("polygon").item(0)).getAttribute("points");
+                Assert.assertEquals(points.split(" ").length, 4);
+            } else if ("cluster".equals(g.getAttribute("class"))) {
+                clusters.add(title);
+                Assert.assertEquals(g.getElementsByTagName("polygon").getLength(), 1);
+            }
+        }
+
+        Map<String, P2jLogicalRelationalOperator> ops = plan.getPlan();
+        Set<String> expectedEdges = Sets.newHashSet();
+        Set<String> expectedClusters = Sets.newHashSet();
+        for (P2jLogicalRelationalOperator op : ops.values()) {
+            for (String succ : op.getSuccessors()) {
+                expectedEdges.add(op.getUid() + "->" + ops.get(succ).getUid());
+            }
+            if (op.getMapReduce() != null && op.getMapReduce().getJobId() != null) {
+                expectedClusters.add("cluster_" + op.getMapReduce().getJobId().replaceAll("-", ""));
+            }
+        }
+        Assert.assertEquals(nodes, ops.keySet());
+        Assert.assertEquals(edges, expectedEdges);
+        Assert.assertEquals(clusters, expectedClusters);
+        Assert.assertTrue(svg.contains(">LOAD<"));
+    }
+}
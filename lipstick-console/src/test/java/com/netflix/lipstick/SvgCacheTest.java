@@ -0,0 +1,103 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.netflix.lipstick.model.P2jPlan;
+import com.netflix.lipstick.model.P2jPlanPackage;
+import com.netflix.lipstick.model.operators.P2jLogicalRelationalOperator;
+
+public class SvgCacheTest {
+
+    @Test
+    public void evictionTest() {
+        SvgCache cache = new SvgCache(2, 10);
+        cache.put("a", "aaa");
+        cache.put("b", "bbb");
+        Assert.assertEquals(cache.get("a"), "aaa");
+        // b is the least recently used
+        cache.put("c", "ccc");
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(cache.get("a"), "aaa");
+        Assert.assertEquals(cache.get("c"), "ccc");
+        Assert.assertEquals(cache.getEvictions(), 1);
+
+        // over the size limit, a goes
+        cache.put("d", "dddddd");
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(cache.size(), 2);
+        Assert.assertEquals(cache.getChars(), 9);
+
+        // too large to cache at all
+        cache.put("e", "eeeeeeeeeee");
+        Assert.assertNull(cache.get("e"));
+        Assert.assertEquals(cache.size(), 2);
+
+        Assert.assertEquals(cache.getHits(), 3);
+        Assert.assertEquals(cache.getMisses(), 3);
+        Assert.assertEquals(cache.getHitRate(), 0.5, 0.0001);
+    }
+
+    @Test
+    public void structuralHashTest() throws Exception {
+        ObjectMapper om = new ObjectMapper();
+        P2jPlanPackage first = om.readValue(getClass().getResourceAsStream("/test.json"), P2jPlanPackage.class);
+        P2jPlanPackage second = om.readValue(getClass().getResourceAsStream("/test.json"), P2jPlanPackage.class);
+
+        // ids and the svg do not matter
+        second.getOptimized().setSvg("<svg/>");
+        second.getOptimized().setId(42);
+        for (P2jLogicalRelationalOperator op : second.getOptimized().getPlan().values()) {
+            op.setId(7);
+        }
+        Assert.assertEquals(SvgCache.structuralHash(second.getOptimized()),
+                            SvgCache.structuralHash(first.getOptimized()));
+        Assert.assertFalse(SvgCache.structuralHash(first.getOptimized())
+                           .equals(SvgCache.structuralHash(first.getUnoptimized())));
+
+        // interning schemas does not change what is drawn
+        second.getOptimized().internSchemas();
+        Assert.assertEquals(SvgCache.structuralHash(second.getOptimized()),
+                            SvgCache.structuralHash(first.getOptimized()));
+
+        // but map/reduce assignments do
+        P2jLogicalRelationalOperator op = second.getOptimized().getPlan().values().iterator().next();
+        op.setMapReduce("scope-1", "REDUCER");
+        Assert.assertFalse(SvgCache.structuralHash(second.getOptimized())
+                           .equals(SvgCache.structuralHash(first.getOptimized())));
+    }
+
+    @Test
+    public void generatorTest() throws Exception {
+        ObjectMapper om = new ObjectMapper();
+        P2jPlan plan = om.readValue(getClass().getResourceAsStream("/test.json"), P2jPlanPackage.class).getOptimized();
+        P2jPlan same = om.readValue(getClass().getResourceAsStream("/test.json"), P2jPlanPackage.class).getOptimized();
+
+        SvgCache cache = new SvgCache(10, 1 << 20);
+        Pig2DotGenerator generator = new Pig2DotGenerator(plan, Pig2DotGenerator.Renderer.JAVA);
+        generator.setCache(cache);
+        String svg = generator.generatePlan("svg");
+        Assert.assertEquals(cache.getMisses(), 1);
+
+        generator = new Pig2DotGenerator(same, Pig2DotGenerator.Renderer.JAVA);
+        generator.setCache(cache);
+        Assert.assertSame(generator.generatePlan("svg"), svg);
+        Assert.assertEquals(cache.getHits(), 1);
+    }
+}
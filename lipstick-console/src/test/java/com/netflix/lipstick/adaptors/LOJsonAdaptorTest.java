@@ -17,12 +17,17 @@ package com.netflix.lipstick.adaptors;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.pig.LipstickPigServer;
 import org.apache.pig.impl.logicalLayer.FrontendException;
 import org.apache.pig.newplan.Operator;
 import org.apache.pig.newplan.logical.Util;
+import org.apache.pig.newplan.logical.expression.AddExpression;
+import org.apache.pig.newplan.logical.expression.ConstantExpression;
+import org.apache.pig.newplan.logical.expression.LogicalExpression;
+import org.apache.pig.newplan.logical.expression.LogicalExpressionPlan;
 import org.apache.pig.newplan.logical.relational.LOCogroup;
 import org.apache.pig.newplan.logical.relational.LOFilter;
 import org.apache.pig.newplan.logical.relational.LOJoin;
@@ -35,6 +40,7 @@ import org.apache.pig.newplan.logical.relational.LogicalRelationalOperator;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.google.common.collect.Maps;
 import com.netflix.lipstick.adaptors.LOJsonAdaptor.LogicalExpressionPlanSerializer;
 import com.netflix.lipstick.model.operators.P2jLOCogroup;
 import com.netflix.lipstick.model.operators.P2jLOFilter;
@@ -62,6 +68,53 @@ public class LOJsonAdaptorTest {
         }
     }
 
+    @Test
+    public void expressionTest() throws Exception {
+        LipstickPigServer lps = new LipstickPigServer("local");
+        lps.setBatchOn();
+        lps.registerScript("./src/test/resources/expressions.pig");
+
+        Map<String, String> expected = Maps.newHashMap();
+        expected.put("f1", "(a + b) * 2 > 10 and Not(c == x or Regex(c, y.*))");
+        expected.put("f2", "(a > 0 ? a : Negative(a)) - b / (a - 1) >= 3");
+        expected.put("f3", "Not(IsNull(m#'key')) and m#'other' != z");
+        expected.put("f4", "UPPER(c) == ABC and SIZE(TOTUPLE(a, b, Dereference(t))) < 4");
+        expected.put("f5", "a + b < 1.5 or Mod(a, 3) == 0");
+
+        int filters = 0;
+        for (Operator op : EzIterable.getIterable(lps.getLP(null).getOperators())) {
+            if (op instanceof LOFilter) {
+                LOFilter filter = (LOFilter) op;
+                Assert.assertEquals(LogicalExpressionPlanSerializer.serialize(filter.getFilterPlan()),
+                                    expected.get(filter.getAlias()));
+                filters++;
+            }
+        }
+        Assert.assertEquals(filters, expected.size());
+    }
+
+    @Test
+    public void deepExpressionTest() throws Exception {
+        int depth = 20000;
+        LogicalExpressionPlan plan = new LogicalExpressionPlan();
+        LogicalExpression expr = new ConstantExpression(plan, 0);
+        for (int i = 1; i <= depth; i++) {
+            expr = new AddExpression(plan, new ConstantExpression(plan, i), expr);
+        }
+        StringBuilder expected = new StringBuilder();
+        for (int i = depth; i >= 1; i--) {
+            expected.append(i).append(" + ");
+        }
+        expected.append('0');
+
+        Assert.assertEquals(LogicalExpressionPlanSerializer.serialize(plan, Integer.MAX_VALUE), expected.toString());
+
+        String capped = LogicalExpressionPlanSerializer.serialize(plan);
+        Assert.assertEquals(capped.length(), LogicalExpressionPlanSerializer.DEFAULT_MAX_LENGTH);
+        Assert.assertTrue(capped.endsWith("..."));
+        Assert.assertTrue(expected.toString().startsWith(capped.substring(0, capped.length() - 3)));
+    }
+
     private void verifyAdaptor(LOJsonAdaptor adaptor, LogicalRelationalOperator lro) throws FrontendException {
         verifyGenericAdaptor(adaptor, lro);
 
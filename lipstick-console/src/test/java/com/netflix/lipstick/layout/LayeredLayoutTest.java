@@ -0,0 +1,216 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.layout;
+
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.lipstick.layout.LayeredLayout.Box;
+import com.netflix.lipstick.layout.LayeredLayout.Edge;
+import com.netflix.lipstick.layout.LayeredLayout.Node;
+import com.netflix.lipstick.layout.LayeredLayout.Point;
+
+public class LayeredLayoutTest {
+
+    @Test
+    public void diamondTest() {
+        LayeredLayout layout = new LayeredLayout();
+        layout.addNode("load", 60, 40, "cluster_a");
+        layout.addNode("left", 60, 40, "cluster_a");
+        layout.addNode("right", 60, 40, "cluster_a");
+        layout.addNode("side", 60, 40, null);
+        layout.addNode("join", 60, 40, "cluster_b");
+        layout.addEdge("load", "left");
+        layout.addEdge("load", "right");
+        layout.addEdge("left", "join");
+        layout.addEdge("right", "join");
+        layout.addEdge("side", "join");
+        layout.layout();
+
+        Assert.assertEquals(layout.getNode("load").getLayer(), 0);
+        Assert.assertEquals(layout.getNode("left").getLayer(), 1);
+        Assert.assertEquals(layout.getNode("right").getLayer(), 1);
+        Assert.assertEquals(layout.getNode("join").getLayer(), 2);
+        // sources are placed right above their successor
+        Assert.assertEquals(layout.getNode("side").getLayer(), 1);
+
+        assertNoOverlaps(layout);
+        assertEdgesConnected(layout);
+
+        Box a = layout.getClusters().get("cluster_a");
+        for (String id : new String[] { "load", "left", "right" }) {
+            Node node = layout.getNode(id);
+            Assert.assertTrue(a.getX1() < node.getX() - node.getWidth() / 2);
+            Assert.assertTrue(a.getX2() > node.getX() + node.getWidth() / 2);
+        }
+        Node side = layout.getNode("side");
+        Assert.assertTrue(side.getX() + side.getWidth() / 2 < a.getX1() || side.getX() - side.getWidth() / 2 > a.getX2());
+    }
+
+    @Test
+    public void cycleTest() {
+        LayeredLayout layout = new LayeredLayout();
+        layout.addNode("a", 20, 20, null);
+        layout.addNode("b", 20, 20, null);
+        layout.addNode("c", 20, 20, null);
+        layout.addEdge("a", "b");
+        layout.addEdge("b", "c");
+        layout.addEdge("c", "a");
+        layout.addEdge("c", "c");
+        layout.layout();
+
+        assertNoOverlaps(layout);
+        assertEdgesConnected(layout);
+        Assert.assertTrue(layout.getEdges().get(3).getPoints().isEmpty());
+    }
+
+    @Test(timeOut = 10000)
+    public void largeTest() {
+        LayeredLayout layout = new LayeredLayout();
+        addChain(layout, 5000);
+        layout.layout();
+
+        assertNoOverlaps(layout);
+        assertEdgesConnected(layout);
+        assertClustersSeparate(layout);
+    }
+
+    @Test
+    public void incrementalTest() {
+        LayeredLayout first = new LayeredLayout();
+        addChain(first, 500);
+        first.layout();
+        Map<String, Point> previous = Maps.newHashMap();
+        for (Node node : first.getNodes()) {
+            previous.put(node.getId(), new Point(node.getX(), node.getY()));
+        }
+        Map<String, List<Point>> routes = Maps.newHashMap();
+        for (Edge edge : first.getEdges()) {
+            routes.put(edge.getSource() + "->" + edge.getTarget(), edge.getPoints());
+        }
+
+        // a new operator below the chain, and a new script next to it
+        LayeredLayout second = new LayeredLayout();
+        addChain(second, 500);
+        second.addNode("store", 80, 60, "cluster_9");
+        second.addEdge("499", "store");
+        second.addNode("load", 80, 60, "cluster_new");
+        second.addNode("filter", 80, 60, "cluster_new");
+        second.addNode("other", 80, 60, null);
+        second.addEdge("load", "filter");
+        second.addEdge("other", "filter");
+        second.layout(previous, routes);
+
+        for (Node node : first.getNodes()) {
+            Assert.assertEquals(second.getNode(node.getId()).getX(), node.getX(), 0.001, node.getId());
+            Assert.assertEquals(second.getNode(node.getId()).getLayer(), node.getLayer(), node.getId());
+        }
+        Assert.assertEquals(second.getNode("store").getX(), second.getNode("499").getX(), 0.001);
+        Assert.assertTrue(second.getNode("load").getX() > first.getWidth());
+        Assert.assertTrue(second.getNode("other").getX() > first.getWidth());
+        assertNoOverlaps(second);
+        assertEdgesConnected(second);
+        assertClustersSeparate(second);
+
+        // moving nodes between clusters keeps them apart
+        LayeredLayout third = new LayeredLayout();
+        addChain(third, 500);
+        third.addNode("moved", 80, 60, "cluster_3");
+        third.addEdge("moved", "250");
+        third.layout(previous, routes);
+        assertNoOverlaps(third);
+        assertEdgesConnected(third);
+        assertClustersSeparate(third);
+    }
+
+    /**
+     * Adds a long chain with side inputs joining in every few operators.
+     */
+    private void addChain(LayeredLayout layout, int size) {
+        layout.addNode("0", 80, 60, null);
+        for (int i = 1; i < size; i++) {
+            layout.addNode(Integer.toString(i), 80 + (i % 7) * 10, 60, "cluster_" + (i / 50));
+            layout.addEdge(Integer.toString(i - 1), Integer.toString(i));
+            if (i % 5 == 0) {
+                layout.addNode("side" + i, 100, 40, null);
+                layout.addEdge("side" + i, Integer.toString(i));
+            }
+            if (i % 13 == 0 && i > 40) {
+                layout.addEdge(Integer.toString(i - 40), Integer.toString(i));
+            }
+        }
+    }
+
+    private void assertClustersSeparate(LayeredLayout layout) {
+        List<Box> boxes = Lists.newArrayList(layout.getClusters().values());
+        for (int i = 0; i < boxes.size(); i++) {
+            for (int j = i + 1; j < boxes.size(); j++) {
+                Box a = boxes.get(i);
+                Box b = boxes.get(j);
+                Assert.assertFalse(a.getX1() < b.getX2() && b.getX1() < a.getX2()
+                                   && a.getY1() < b.getY2() && b.getY1() < a.getY2());
+            }
+        }
+        for (Node node : layout.getNodes()) {
+            for (Map.Entry<String, Box> e : layout.getClusters().entrySet()) {
+                Box box = e.getValue();
+                boolean inside = node.getX() > box.getX1() && node.getX() < box.getX2()
+                    && node.getY() > box.getY1() && node.getY() < box.getY2();
+                Assert.assertEquals(inside, e.getKey().equals(node.getCluster()), node.getId());
+            }
+        }
+    }
+
+    private void assertNoOverlaps(LayeredLayout layout) {
+        List<Node> nodes = layout.getNodes();
+        for (int i = 0; i < nodes.size(); i++) {
+            Node a = nodes.get(i);
+            Assert.assertTrue(a.getX() - a.getWidth() / 2 >= 0);
+            Assert.assertTrue(a.getX() + a.getWidth() / 2 <= layout.getWidth());
+            Assert.assertTrue(a.getY() + a.getHeight() / 2 <= layout.getHeight());
+            for (int j = i + 1; j < nodes.size(); j++) {
+                Node b = nodes.get(j);
+                if (a.getLayer() == b.getLayer()) {
+                    Assert.assertTrue(Math.abs(a.getX() - b.getX()) >= (a.getWidth() + b.getWidth()) / 2,
+                                      a.getId() + " overlaps " + b.getId());
+                }
+            }
+        }
+    }
+
+    private void assertEdgesConnected(LayeredLayout layout) {
+        for (Edge edge : layout.getEdges()) {
+            List<Point> points = edge.getPoints();
+            if (edge.getSource().equals(edge.getTarget())) {
+                continue;
+            }
+            Node source = layout.getNode(edge.getSource());
+            Node target = layout.getNode(edge.getTarget());
+            Point first = points.get(0);
+            Point last = points.get(points.size() - 1);
+            Assert.assertEquals(first.getX(), source.getX(), 0.001);
+            Assert.assertEquals(last.getX(), target.getX(), 0.001);
+            Assert.assertEquals(Math.abs(first.getY() - source.getY()), source.getHeight() / 2, 0.001);
+            Assert.assertEquals(Math.abs(last.getY() - target.getY()), target.getHeight() / 2, 0.001);
+            Assert.assertEquals(points.size(), Math.abs(target.getLayer() - source.getLayer()) + 1);
+        }
+    }
+}
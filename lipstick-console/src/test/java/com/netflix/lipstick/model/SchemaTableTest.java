@@ -0,0 +1,99 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.model;
+
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.lipstick.model.operators.P2jLogicalRelationalOperator;
+import com.netflix.lipstick.model.operators.elements.SchemaElement;
+
+public class SchemaTableTest {
+
+    @Test
+    public void testIntern() throws Exception {
+        SchemaTable table = new SchemaTable();
+
+        List<SchemaElement> first = Utils.processSchema("{a: int,b: chararray,c: {t: (x: long,y: double)}}");
+        List<SchemaElement> second = Utils.processSchema("{a: int,b: chararray,c: {t: (x: long,y: double)}}");
+        List<SchemaElement> nested = Utils.processSchema("{t: (x: long,y: double)}");
+        List<SchemaElement> other = Utils.processSchema("{a: int,b: chararray}");
+
+        Assert.assertNotSame(first, second);
+        Assert.assertSame(table.intern(first), table.intern(second));
+        Assert.assertSame(table.intern(table.intern(first)), table.intern(first));
+        Assert.assertNotSame(table.intern(other), table.intern(first));
+
+        // nested schemas are shared as well
+        SchemaElement c = table.intern(first).get(2);
+        Assert.assertSame(c.getSchemaElements(), table.intern(nested));
+
+        Assert.assertEquals(table.getId(second), "1");
+        Assert.assertEquals(table.getId(other), "2");
+        Assert.assertEquals(table.getId(first), "1");
+        Assert.assertEquals(table.size(), 2);
+        Assert.assertSame(table.getSchema("1"), table.intern(first));
+        Assert.assertNull(table.getId(null));
+    }
+
+    @Test
+    public void testPlanRoundTrip() throws Exception {
+        Map<String, P2jLogicalRelationalOperator> ops = Maps.newHashMap();
+        for (int i = 0; i < 3; i++) {
+            P2jLogicalRelationalOperator op = new P2jLogicalRelationalOperator();
+            op.setUid(String.valueOf(i));
+            op.setOperator("LOForEach");
+            op.setSchema(Utils.processSchema("{a: int,b: chararray}"));
+            ops.put(op.getUid(), op);
+        }
+        P2jPlan plan = new P2jPlan(ops);
+        plan.internSchemas();
+
+        Assert.assertEquals(plan.getSchemas().size(), 1);
+        Assert.assertSame(ops.get("0").getSchema(), ops.get("2").getSchema());
+
+        ObjectMapper om = new ObjectMapper();
+        String json = om.writeValueAsString(plan);
+        Map<?, ?> tree = om.readValue(json, Map.class);
+        Map<?, ?> serializedOp = (Map<?, ?>) ((Map<?, ?>) tree.get("plan")).get("0");
+        Assert.assertEquals(serializedOp.get("schemaId"), "1");
+        Assert.assertFalse(serializedOp.containsKey("schema"));
+
+        P2jPlan read = om.readValue(json, P2jPlan.class);
+        List<SchemaElement> schema = read.getPlan().get("1").getSchema();
+        Assert.assertEquals(schema.size(), 2);
+        Assert.assertEquals(schema.get(1).getAlias(), "b");
+        Assert.assertEquals(schema.get(1).getType(), ops.get("1").getSchema().get(1).getType());
+        Assert.assertSame(read.getPlan().get("0").getSchema(), schema);
+    }
+
+    @Test
+    public void testInlineSchema() throws Exception {
+        P2jLogicalRelationalOperator op = new P2jLogicalRelationalOperator();
+        op.setSchema(Lists.newArrayList(new SchemaElement("a", "int", null, null)));
+
+        ObjectMapper om = new ObjectMapper();
+        Map<?, ?> tree = om.readValue(om.writeValueAsString(op), Map.class);
+        Assert.assertFalse(tree.containsKey("schemaId"));
+        Assert.assertEquals(((Map<?, ?>) ((List<?>) tree.get("schema")).get(0)).get("alias"), "a");
+    }
+}
@@ -0,0 +1,220 @@
+package com.netflix.lipstick.pigstatus;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.netflix.lipstick.model.P2jJobStatus;
+import com.netflix.lipstick.model.P2jPlanPackage;
+import com.netflix.lipstick.model.P2jPlanStatus;
+import com.netflix.lipstick.model.P2jPlanStatusDelta;
+import com.netflix.lipstick.model.P2jSampleOutputList;
+import com.netflix.lipstick.pigstatus.AsyncPigStatusClient.OverflowPolicy;
+
+public class AsyncPigStatusClientTest {
+
+    /* PigStatusClient that records statuses and blocks every send until released. */
+    static class BlockingClient implements PigStatusClient {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<P2jPlanStatus> statuses = Lists.newCopyOnWriteArrayList();
+
+        @Override
+        public String savePlan(P2jPlanPackage plans) {
+            return plans.getUuid();
+        }
+
+        @Override
+        public void saveStatus(String uuid, P2jPlanStatus status) {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            statuses.add(status);
+        }
+
+        @Override
+        public DeltaResult saveStatusDelta(String uuid, P2jPlanStatusDelta delta) {
+            return DeltaResult.REJECTED;
+        }
+
+        @Override
+        public void saveSampleOutput(String uuid, String jobId, P2jSampleOutputList sampleOutputList) {
+        }
+    }
+
+    private P2jPlanStatus statusForJob(String jobId, int progress) {
+        P2jJobStatus job = new P2jJobStatus();
+        job.setJobId(jobId);
+        return new P2jPlanStatus().setProgress(progress).updateWith(job);
+    }
+
+    @Test
+    public void testSaveStatusDoesNotBlock() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        AsyncPigStatusClient client = new AsyncPigStatusClient(blocking);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            client.saveStatus("uuid", statusForJob("job_" + i, i));
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+
+        blocking.release.countDown();
+        Assert.assertTrue(client.close(10000));
+    }
+
+    @Test
+    public void testMergePolicyCoalescesPendingStatuses() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        AsyncPigStatusClient client = new AsyncPigStatusClient(blocking, 10, OverflowPolicy.MERGE);
+
+        // The first status is picked up by the publisher and blocks it,
+        // everything after it should be merged into a single update.
+        client.saveStatus("uuid", statusForJob("job_0", 1));
+        while (!client.queue.isEmpty()) {
+            Thread.sleep(10);
+        }
+        client.saveStatus("uuid", statusForJob("job_1", 2));
+        client.saveStatus("uuid", statusForJob("job_2", 3));
+
+        blocking.release.countDown();
+        Assert.assertTrue(client.flush(10000));
+
+        Assert.assertEquals(blocking.statuses.size(), 2);
+        P2jPlanStatus merged = blocking.statuses.get(1);
+        Assert.assertEquals(merged.getProgress(), 3);
+        Assert.assertTrue(merged.hasJob("job_1"));
+        Assert.assertTrue(merged.hasJob("job_2"));
+        Assert.assertEquals(client.getDroppedUpdates(), 0);
+        client.close(10000);
+    }
+
+    @Test
+    public void testDropPolicyDropsOldestWhenFull() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        AsyncPigStatusClient client = new AsyncPigStatusClient(blocking, 2, OverflowPolicy.DROP);
+
+        client.saveStatus("uuid", statusForJob("job_0", 1));
+        while (!client.queue.isEmpty()) {
+            Thread.sleep(10);
+        }
+        client.saveStatus("uuid", statusForJob("job_1", 2));
+        client.saveStatus("uuid", statusForJob("job_2", 3));
+        client.saveStatus("uuid", statusForJob("job_3", 4));
+
+        blocking.release.countDown();
+        Assert.assertTrue(client.close(10000));
+
+        Assert.assertEquals(client.getDroppedUpdates(), 1);
+        Assert.assertEquals(blocking.statuses.size(), 3);
+        Assert.assertEquals(blocking.statuses.get(1).getProgress(), 3);
+        Assert.assertEquals(blocking.statuses.get(2).getProgress(), 4);
+    }
+
+    @Test
+    public void testMinSendIntervalCoalescesStatuses() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        blocking.release.countDown();
+        AsyncPigStatusClient client = new AsyncPigStatusClient(blocking, 10, OverflowPolicy.MERGE, 60000);
+
+        for (int i = 0; i < 20; i++) {
+            client.saveStatus("uuid", statusForJob("job_" + (i % 3), i + 1));
+        }
+        Assert.assertTrue(client.close(10000));
+
+        // The first status goes out right away, the rest wait out the
+        // interval and are sent as one update when flushed.
+        Assert.assertTrue(blocking.statuses.size() <= 2);
+        P2jPlanStatus last = blocking.statuses.get(blocking.statuses.size() - 1);
+        Assert.assertEquals(last.getProgress(), 20);
+    }
+
+    @Test
+    public void testUnchangedJobsAreSuppressed() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        blocking.release.countDown();
+        AsyncPigStatusClient client = new AsyncPigStatusClient(blocking);
+
+        P2jJobStatus running = new P2jJobStatus();
+        running.setJobId("job_0");
+        running.setMapProgress(0.5f);
+
+        client.saveStatus("uuid", new P2jPlanStatus().setProgress(10).updateWith(running));
+        Assert.assertTrue(client.flush(10000));
+        client.saveStatus("uuid", new P2jPlanStatus().setProgress(20).updateWith(running));
+        Assert.assertTrue(client.flush(10000));
+        running.setMapProgress(1.0f);
+        client.saveStatus("uuid", new P2jPlanStatus().setProgress(30).updateWith(running));
+        Assert.assertTrue(client.close(10000));
+
+        Assert.assertEquals(blocking.statuses.size(), 3);
+        Assert.assertTrue(blocking.statuses.get(0).hasJob("job_0"));
+        Assert.assertFalse(blocking.statuses.get(1).hasJob("job_0"));
+        Assert.assertEquals(blocking.statuses.get(1).getProgress(), 20);
+        Assert.assertTrue(blocking.statuses.get(2).hasJob("job_0"));
+    }
+
+    @Test
+    public void testQueuedStatusIsACopy() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        AsyncPigStatusClient client = new AsyncPigStatusClient(blocking);
+
+        P2jJobStatus job = new P2jJobStatus();
+        job.setJobId("job_0");
+        job.setMapProgress(0.5f);
+        P2jPlanStatus status = new P2jPlanStatus().setProgress(10).updateWith(job);
+        client.saveStatus("uuid", status);
+
+        status.setProgress(20);
+        job.setMapProgress(0.9f);
+        status.getJobStatusMap().clear();
+
+        blocking.release.countDown();
+        Assert.assertTrue(client.close(10000));
+
+        P2jPlanStatus sent = blocking.statuses.get(0);
+        Assert.assertEquals(sent.getProgress(), 10);
+        Assert.assertEquals(sent.getJob("job_0").getMapProgress(), 0.5f);
+    }
+
+    @Test
+    public void testMergedStatusIsACopy() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        AsyncPigStatusClient client = new AsyncPigStatusClient(blocking, 10, OverflowPolicy.MERGE);
+
+        client.saveStatus("uuid", statusForJob("job_0", 1));
+        while (!client.queue.isEmpty()) {
+            Thread.sleep(10);
+        }
+        client.saveStatus("uuid", statusForJob("job_1", 2));
+
+        P2jJobStatus job = new P2jJobStatus();
+        job.setJobId("job_2");
+        job.setMapProgress(0.5f);
+        client.saveStatus("uuid", new P2jPlanStatus().setProgress(3).updateWith(job));
+        job.setMapProgress(0.9f);
+
+        blocking.release.countDown();
+        Assert.assertTrue(client.close(10000));
+
+        P2jPlanStatus merged = blocking.statuses.get(1);
+        Assert.assertTrue(merged.hasJob("job_1"));
+        Assert.assertEquals(merged.getJob("job_2").getMapProgress(), 0.5f);
+    }
+
+    @Test
+    public void testStatusAfterCloseIsSentSynchronously() throws Exception {
+        BlockingClient blocking = new BlockingClient();
+        blocking.release.countDown();
+        AsyncPigStatusClient client = new AsyncPigStatusClient(blocking);
+        Assert.assertTrue(client.close(10000));
+
+        client.saveStatus("uuid", statusForJob("job_0", 100));
+        Assert.assertEquals(blocking.statuses.size(), 1);
+    }
+}
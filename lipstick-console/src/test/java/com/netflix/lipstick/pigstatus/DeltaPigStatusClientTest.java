@@ -0,0 +1,167 @@
+package com.netflix.lipstick.pigstatus;
+
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.lipstick.model.P2jCounters;
+import com.netflix.lipstick.model.P2jJobStatus;
+import com.netflix.lipstick.model.P2jPlanPackage;
+import com.netflix.lipstick.model.P2jPlanStatus;
+import com.netflix.lipstick.model.P2jPlanStatusDelta;
+import com.netflix.lipstick.model.P2jSampleOutputList;
+
+public class DeltaPigStatusClientTest {
+
+    /* Mimics the server: merges full statuses, applies deltas in sequence. */
+    static class ServerClient implements PigStatusClient {
+        final ObjectMapper om = new ObjectMapper();
+        final P2jPlanStatus stored = new P2jPlanStatus();
+        final List<P2jPlanStatusDelta> deltas = Lists.newArrayList();
+        int fullUpdates = 0;
+        boolean loseNextDelta = false;
+
+        @Override
+        public String savePlan(P2jPlanPackage plans) {
+            return plans.getUuid();
+        }
+
+        @Override
+        public void saveStatus(String uuid, P2jPlanStatus status) {
+            fullUpdates++;
+            stored.updateWith(roundTrip(status, P2jPlanStatus.class));
+        }
+
+        @Override
+        public DeltaResult saveStatusDelta(String uuid, P2jPlanStatusDelta delta) {
+            delta = roundTrip(delta, P2jPlanStatusDelta.class);
+            if (loseNextDelta) {
+                loseNextDelta = false;
+                return DeltaResult.APPLIED;
+            }
+            if (delta.getBaseSequence() != stored.getSequence()) {
+                return DeltaResult.REJECTED;
+            }
+            deltas.add(delta);
+            stored.applyDelta(delta);
+            return DeltaResult.APPLIED;
+        }
+
+        @Override
+        public void saveSampleOutput(String uuid, String jobId, P2jSampleOutputList sampleOutputList) {
+        }
+
+        <T> T roundTrip(Object obj, Class<T> cls) {
+            try {
+                return om.readValue(om.writeValueAsString(obj), cls);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private P2jJobStatus job(String jobId, float mapProgress, long records) {
+        P2jJobStatus job = new P2jJobStatus();
+        job.setJobId(jobId);
+        job.setMapProgress(mapProgress);
+        Map<String, P2jCounters> counters = Maps.newHashMap();
+        for (int g = 0; g < 5; g++) {
+            P2jCounters group = new P2jCounters();
+            for (int c = 0; c < 20; c++) {
+                group.getCounters().put("counter_" + c, (long) c);
+            }
+            counters.put("group_" + g, group);
+        }
+        counters.get("group_0").getCounters().put("records", records);
+        job.setCounters(counters);
+        return job;
+    }
+
+    @Test
+    public void testDeltasOnlyCarryChanges() {
+        ServerClient server = new ServerClient();
+        DeltaPigStatusClient client = new DeltaPigStatusClient(server);
+
+        client.saveStatus("uuid", new P2jPlanStatus().setProgress(10).updateWith(job("job_1", 0.1f, 100)));
+        client.saveStatus("uuid", new P2jPlanStatus().setProgress(20).updateWith(job("job_1", 0.5f, 500)));
+        client.saveStatus("uuid", new P2jPlanStatus().setProgress(20).updateWith(job("job_1", 0.5f, 500)));
+
+        Assert.assertEquals(server.fullUpdates, 1);
+        Assert.assertEquals(server.deltas.size(), 2);
+
+        P2jPlanStatusDelta changed = server.deltas.get(0);
+        Assert.assertEquals(changed.getProgress(), Integer.valueOf(20));
+        Assert.assertEquals(changed.getJobs().get("job_1").getCounters().size(), 1);
+        Assert.assertEquals(changed.getJobs().get("job_1").getCounters().get("group_0").size(), 1);
+        Assert.assertTrue(server.deltas.get(1).getJobs().isEmpty());
+
+        Assert.assertEquals(server.stored.getJob("job_1"), job("job_1", 0.5f, 500));
+        Assert.assertEquals(server.stored.getProgress(), 20);
+    }
+
+    @Test
+    public void testGapForcesFullResync() {
+        ServerClient server = new ServerClient();
+        DeltaPigStatusClient client = new DeltaPigStatusClient(server);
+
+        client.saveStatus("uuid", new P2jPlanStatus().setProgress(10).updateWith(job("job_1", 0.1f, 100)));
+        server.loseNextDelta = true;
+        client.saveStatus("uuid", new P2jPlanStatus().setProgress(20).updateWith(job("job_1", 0.2f, 200)));
+        client.saveStatus("uuid", new P2jPlanStatus().setProgress(30).updateWith(job("job_1", 0.3f, 300)));
+
+        Assert.assertEquals(server.fullUpdates, 2);
+        Assert.assertEquals(server.stored.getJob("job_1"), job("job_1", 0.3f, 300));
+
+        client.saveStatus("uuid", new P2jPlanStatus().setProgress(40).updateWith(job("job_1", 0.4f, 400)));
+        Assert.assertEquals(server.fullUpdates, 2);
+        Assert.assertEquals(server.stored.getJob("job_1"), job("job_1", 0.4f, 400));
+        Assert.assertEquals(server.stored.getProgress(), 40);
+    }
+
+    @Test
+    public void testRepeatedFailuresDisableDeltas() {
+        ServerClient server = new ServerClient() {
+            @Override
+            public DeltaResult saveStatusDelta(String uuid, P2jPlanStatusDelta delta) {
+                return DeltaResult.REJECTED;
+            }
+        };
+        DeltaPigStatusClient client = new DeltaPigStatusClient(server);
+        for (int i = 1; i <= 10; i++) {
+            client.saveStatus("uuid", new P2jPlanStatus().setProgress(i));
+        }
+        Assert.assertEquals(server.fullUpdates, 10);
+        Assert.assertFalse(client.deltasEnabled);
+    }
+
+    @Test
+    public void testUnreachableServerKeepsDeltas() {
+        final boolean[] reachable = { false };
+        ServerClient server = new ServerClient() {
+            @Override
+            public DeltaResult saveStatusDelta(String uuid, P2jPlanStatusDelta delta) {
+                if (!reachable[0]) {
+                    return DeltaResult.FAILED;
+                }
+                return super.saveStatusDelta(uuid, delta);
+            }
+        };
+        DeltaPigStatusClient client = new DeltaPigStatusClient(server);
+        for (int i = 1; i <= 10; i++) {
+            client.saveStatus("uuid", new P2jPlanStatus().setProgress(i));
+        }
+        Assert.assertEquals(server.fullUpdates, 10);
+        Assert.assertTrue(client.deltasEnabled);
+
+        reachable[0] = true;
+        client.saveStatus("uuid", new P2jPlanStatus().setProgress(11));
+        Assert.assertEquals(server.fullUpdates, 10);
+        Assert.assertEquals(server.deltas.size(), 1);
+        Assert.assertEquals(server.stored.getProgress(), 11);
+    }
+}
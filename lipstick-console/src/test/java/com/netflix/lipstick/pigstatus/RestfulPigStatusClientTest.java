@@ -0,0 +1,125 @@
+package com.netflix.lipstick.pigstatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.netflix.lipstick.model.P2jPlanStatus;
+import com.netflix.lipstick.model.P2jPlanStatusDelta;
+import com.netflix.lipstick.pigstatus.PigStatusClient.DeltaResult;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class RestfulPigStatusClientTest {
+
+    private HttpServer server;
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private final List<String> bodies = Lists.newCopyOnWriteArrayList();
+    private volatile long responseDelay = 0;
+    private volatile int responseCode = 200;
+    private volatile String responseBody = "{}";
+
+    @BeforeMethod
+    public void startServer() throws IOException {
+        clientPorts.clear();
+        bodies.clear();
+        responseDelay = 0;
+        responseCode = 200;
+        responseBody = "{}";
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                InputStream in = exchange.getRequestBody();
+                bodies.add(new String(ByteStreams.toByteArray(in), "UTF-8"));
+                in.close();
+                try {
+                    Thread.sleep(responseDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] response = responseBody.getBytes("UTF-8");
+                exchange.sendResponseHeaders(responseCode, response.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @AfterMethod
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private String serverUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @Test
+    public void testConnectionIsReused() {
+        RestfulPigStatusClient client = new RestfulPigStatusClient(serverUrl());
+        for (int i = 0; i < 5; i++) {
+            client.saveStatus("uuid", new P2jPlanStatus().setProgress(i));
+        }
+        Assert.assertEquals(bodies.size(), 5);
+        Assert.assertTrue(bodies.get(4).contains("\"progress\":4"));
+        Assert.assertEquals(clientPorts.size(), 1);
+    }
+
+    @Test
+    public void testCloseStopsHealthChecks() {
+        RestfulPigStatusClient client = new RestfulPigStatusClient(serverUrl() + "," + serverUrl() + "/");
+        Assert.assertNotNull(client.lipstickServers.healthChecker);
+        client.close();
+        Assert.assertNull(client.lipstickServers.healthChecker);
+
+        client.saveStatus("uuid", new P2jPlanStatus().setProgress(1));
+        Assert.assertEquals(bodies.size(), 1);
+    }
+
+    @Test
+    public void testReadTimeout() {
+        responseDelay = 2000;
+        RestfulPigStatusClient client = new RestfulPigStatusClient(serverUrl(), 1000, 200);
+        long start = System.currentTimeMillis();
+        Assert.assertNull(client.makeRequest("/job/uuid", new P2jPlanStatus(),
+                                             RestfulPigStatusClient.RequestVerb.PUT));
+        Assert.assertTrue(System.currentTimeMillis() - start < 1500);
+    }
+
+    @Test
+    public void testDeltaResults() {
+        RestfulPigStatusClient client = new RestfulPigStatusClient(serverUrl());
+        Assert.assertEquals(client.saveStatusDelta("uuid", new P2jPlanStatusDelta()), DeltaResult.APPLIED);
+
+        responseBody = "{\"resync\":true,\"sequence\":3}";
+        Assert.assertEquals(client.saveStatusDelta("uuid", new P2jPlanStatusDelta()), DeltaResult.REJECTED);
+
+        // a server without the delta endpoint
+        responseCode = 404;
+        responseBody = "not found";
+        Assert.assertEquals(client.saveStatusDelta("uuid", new P2jPlanStatusDelta()), DeltaResult.REJECTED);
+
+        responseCode = 503;
+        Assert.assertEquals(client.saveStatusDelta("uuid", new P2jPlanStatusDelta()), DeltaResult.FAILED);
+
+        server.stop(0);
+        Assert.assertEquals(client.saveStatusDelta("uuid", new P2jPlanStatusDelta()), DeltaResult.FAILED);
+    }
+}
@@ -0,0 +1,98 @@
+package com.netflix.lipstick.pigstatus;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.netflix.lipstick.pigstatus.ServerSelector.Server;
+
+public class ServerSelectorTest {
+
+    @Test
+    public void testFasterServerIsPreferred() {
+        ServerSelector selector = new ServerSelector("http://a,http://b");
+        List<Server> servers = selector.getServers();
+        Assert.assertEquals(servers.get(0).getUrl(), "http://a");
+
+        selector.success(servers.get(0), 200);
+        selector.success(servers.get(1), 20);
+        Assert.assertEquals(selector.getBest().getUrl(), "http://b");
+    }
+
+    @Test
+    public void testFailurePenaltyDecays() throws Exception {
+        ServerSelector selector = new ServerSelector("http://a,http://b", 50);
+        Server a = selector.getBest();
+        Server b = selector.getServers().get(1);
+        selector.success(a, 10);
+        selector.success(b, 100);
+
+        selector.failure(a);
+        Assert.assertEquals(selector.getBest(), b);
+
+        Thread.sleep(500);
+        Assert.assertEquals(selector.getBest(), a);
+    }
+
+    @Test
+    public void testHealthCheckRestoresServer() throws Exception {
+        ServerSelector selector = new ServerSelector("http://a,http://b", Long.MAX_VALUE);
+        Server a = selector.getBest();
+        selector.failure(a);
+        Assert.assertEquals(selector.getBest().getUrl(), "http://b");
+
+        final AtomicInteger probes = new AtomicInteger();
+        selector.startHealthChecks(new ServerSelector.HealthCheck() {
+            @Override
+            public boolean isHealthy(String url) {
+                Assert.assertEquals(url, "http://a");
+                return probes.incrementAndGet() > 1;
+            }
+        }, 10);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (a.getFailures() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        selector.stopHealthChecks();
+
+        Assert.assertEquals(probes.get(), 2);
+        Assert.assertEquals(a.getFailures(), 0);
+        Assert.assertEquals(selector.getBest(), a);
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final ServerSelector selector = new ServerSelector("http://a,http://b,http://c");
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 10000; i++) {
+                            List<Server> servers = selector.getServers();
+                            Assert.assertEquals(servers.size(), 3);
+                            Server s = servers.get((i + seed) % 3);
+                            if (i % 7 == 0) {
+                                selector.failure(s);
+                            } else {
+                                selector.success(s, i % 50);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(errors.get(), 0);
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.pigtolipstick;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Maps;
+import com.netflix.lipstick.model.P2jJobStatus;
+
+public class JobStatusCollectorTest {
+
+    @Test
+    public void fetchesAllJobsInParallel() throws Exception {
+        JobStatusCollector collector = new JobStatusCollector(4, 10, 10000);
+        try {
+            // every fetch waits for all four to have started
+            final CountDownLatch started = new CountDownLatch(4);
+            Map<String, Callable<P2jJobStatus>> fetches = Maps.newHashMap();
+            for (int i = 0; i < 4; i++) {
+                final String jobId = "job_" + i;
+                fetches.put(jobId, new Callable<P2jJobStatus>() {
+                    @Override
+                    public P2jJobStatus call() throws Exception {
+                        started.countDown();
+                        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+                        return status(jobId);
+                    }
+                });
+            }
+            Map<String, P2jJobStatus> statuses = collector.collect(fetches);
+            Assert.assertEquals(statuses.keySet(), fetches.keySet());
+            Assert.assertEquals(statuses.get("job_2").getJobId(), "job_2");
+        } finally {
+            collector.shutdown();
+        }
+    }
+
+    @Test
+    public void fetchesLeastRecentlyFetchedWithinBudget() throws Exception {
+        JobStatusCollector collector = new JobStatusCollector(2, 2, 10000);
+        try {
+            Map<String, Callable<P2jJobStatus>> fetches = Maps.newTreeMap();
+            final Map<String, AtomicInteger> counts = Maps.newHashMap();
+            for (int i = 0; i < 5; i++) {
+                final String jobId = "job_" + i;
+                counts.put(jobId, new AtomicInteger());
+                fetches.put(jobId, new Callable<P2jJobStatus>() {
+                    @Override
+                    public P2jJobStatus call() {
+                        counts.get(jobId).incrementAndGet();
+                        return status(jobId);
+                    }
+                });
+            }
+            Assert.assertEquals(collector.collect(fetches).size(), 2);
+            Assert.assertEquals(collector.collect(fetches).size(), 2);
+            Assert.assertEquals(collector.collect(fetches).size(), 2);
+            // five jobs, two per tick: every job has been fetched once, one twice
+            int total = 0;
+            for (AtomicInteger count : counts.values()) {
+                Assert.assertTrue(count.get() >= 1 && count.get() <= 2, counts.toString());
+                total += count.get();
+            }
+            Assert.assertEquals(total, 6);
+        } finally {
+            collector.shutdown();
+        }
+    }
+
+    @Test
+    public void slowFetchIsPickedUpLater() throws Exception {
+        JobStatusCollector collector = new JobStatusCollector(2, 10, 100);
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            final AtomicInteger slowCalls = new AtomicInteger();
+            Map<String, Callable<P2jJobStatus>> fetches = Maps.newHashMap();
+            fetches.put("fast", new Callable<P2jJobStatus>() {
+                @Override
+                public P2jJobStatus call() {
+                    return status("fast");
+                }
+            });
+            fetches.put("slow", new Callable<P2jJobStatus>() {
+                @Override
+                public P2jJobStatus call() throws Exception {
+                    slowCalls.incrementAndGet();
+                    release.await();
+                    return status("slow");
+                }
+            });
+
+            Assert.assertEquals(collector.collect(fetches).keySet(), Collections.singleton("fast"));
+            release.countDown();
+            Thread.sleep(50);
+            Map<String, P2jJobStatus> statuses = collector.collect(fetches);
+            Assert.assertTrue(statuses.containsKey("slow"));
+            // the slow fetch still in flight was not started again
+            Assert.assertEquals(slowCalls.get(), 1);
+        } finally {
+            collector.shutdown();
+        }
+    }
+
+    @Test
+    public void finishedJobFetchIsCancelled() throws Exception {
+        JobStatusCollector collector = new JobStatusCollector(1, 10, 50);
+        try {
+            final CountDownLatch interrupted = new CountDownLatch(1);
+            Map<String, Callable<P2jJobStatus>> fetches = Maps.newHashMap();
+            fetches.put("stuck", new Callable<P2jJobStatus>() {
+                @Override
+                public P2jJobStatus call() {
+                    try {
+                        Thread.sleep(60000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                    return null;
+                }
+            });
+            Assert.assertTrue(collector.collect(fetches).isEmpty());
+            Map<String, Callable<P2jJobStatus>> none = Maps.newHashMap();
+            Assert.assertTrue(collector.collect(none).isEmpty());
+            Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        } finally {
+            collector.shutdown();
+        }
+    }
+
+    private static P2jJobStatus status(String jobId) {
+        P2jJobStatus status = new P2jJobStatus();
+        status.setJobId(jobId);
+        return status;
+    }
+}
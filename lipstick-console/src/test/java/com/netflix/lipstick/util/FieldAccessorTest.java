@@ -0,0 +1,66 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.util;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class FieldAccessorTest {
+
+    static class Base {
+        private String secret = "base";
+    }
+
+    static class Child extends Base {
+    }
+
+    static class Shadowing extends Base {
+        private String secret = "child";
+    }
+
+    @Test
+    public void readsInheritedField() throws Exception {
+        FieldAccessor accessor = new FieldAccessor("secret");
+        Assert.assertEquals(accessor.get(new Child()), "base");
+        Assert.assertEquals(accessor.get(new Base()), "base");
+    }
+
+    @Test
+    public void readsClosestDeclaration() throws Exception {
+        Assert.assertEquals(new FieldAccessor("secret").get(new Shadowing()), "child");
+    }
+
+    @Test
+    public void cachesLookupPerClass() throws Exception {
+        FieldAccessor accessor = new FieldAccessor("secret");
+        Assert.assertSame(accessor.getField(Child.class), accessor.getField(Child.class));
+        Assert.assertEquals(accessor.getField(Child.class), accessor.getField(Base.class));
+        Assert.assertSame(FieldAccessor.of("secret"), FieldAccessor.of("secret"));
+    }
+
+    @Test
+    public void missingFieldFallsBack() throws Exception {
+        FieldAccessor accessor = new FieldAccessor("noSuchField");
+        Assert.assertEquals(accessor.get(new Child(), "default"), "default");
+        Assert.assertNull(accessor.get(new Child(), null));
+        try {
+            accessor.get(new Child());
+            Assert.fail("expected NoSuchFieldException");
+        } catch (NoSuchFieldException e) {
+            Assert.assertEquals(e.getMessage(), "noSuchField");
+        }
+    }
+}
@@ -16,27 +16,45 @@
 package com.netflix.lipstick.util;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.pig.LoadFunc;
+import org.apache.pig.builtin.PigStorage;
 import org.apache.pig.backend.hadoop.executionengine.physicalLayer.relationalOperators.POStore;
 import org.apache.pig.data.Tuple;
 import org.apache.pig.impl.io.InterStorage;
 import org.apache.pig.impl.io.InterStorage.InterInputFormat;
+import org.apache.pig.impl.io.ReadToEndLoader;
 import org.apache.pig.impl.logicalLayer.schema.Schema;
 import org.apache.pig.tools.pigstats.JobStats;
 import org.apache.pig.tools.pigstats.mapreduce.MRJobStats;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 import com.netflix.lipstick.util.OutputSampler;
 import com.netflix.lipstick.util.OutputSampler.SampleOutput;
 
@@ -96,6 +114,302 @@ public class OutputSamplerTest {
         Assert.assertEquals(outputs.get(0).getSchema(), schema);
     }
 
+    @Test
+    public void getSampleOutputsInParallel() throws Exception {
+        final String schema = "{blah: chararray}";
+        int recordCount = 1000;
+        int byteCount = 256;
+
+        final InterStorage is = getInterStorage(createRecords(recordCount));
+        JobStats js = getJobStats();
+        addStoresToJobStats(js, Lists.newLinkedList(Lists.newArrayList(getPOStore(is, schema))));
+        OutputSampler os = getOutputSamplerWithOverriddenLoader(is, js);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<SampleOutput> outputs = os.getSampleOutputs(recordCount, byteCount, executor, 10000, 10000);
+            Assert.assertEquals(outputs.size(), 1);
+            List<SampleOutput> expected = getSampleOutputs(getInterStorage(createRecords(recordCount)), schema,
+                                                           recordCount, byteCount);
+            Assert.assertEquals(outputs.get(0).getOutput(), expected.get(0).getOutput());
+            Assert.assertTrue(outputs.get(0).getOutput().length() <= byteCount);
+            Assert.assertEquals(outputs.get(0).getSchema(), schema);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void getSampleOutputsStopsSlowStoreAtDeadline() throws Exception {
+        final String schema = "{blah: chararray}";
+        final InterStorage is = getInterStorage(createRecords(10));
+        final LoadFunc slow = getSlowLoader(is, 2, 60000);
+        JobStats js = getJobStats();
+        addStoresToJobStats(js, Lists.newLinkedList(Lists.newArrayList(getPOStore(is, schema))));
+        OutputSampler os = new OutputSampler(js) {
+            @Override
+            protected LoadFunc getLoader(POStore pos) {
+                return slow;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            long start = System.currentTimeMillis();
+            List<SampleOutput> outputs = os.getSampleOutputs(10, 1024, executor, 200, 10000);
+            Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+            // the rows read before the deadline are kept
+            Assert.assertEquals(outputs.size(), 1);
+            Assert.assertEquals(outputs.get(0).getOutput(), "testRecord0\ntestRecord1");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void getSampleOutputsStopsAllStoresAtJobDeadline() throws Exception {
+        final String schema = "{blah: chararray}";
+        final InterStorage is = getInterStorage(createRecords(10));
+        final LoadFunc slow = getSlowLoader(is, 0, 60000);
+        JobStats js = getJobStats();
+        List<POStore> stores = Lists.newLinkedList();
+        for (int i = 0; i < 4; i++) {
+            stores.add(getPOStore(is, schema));
+        }
+        addStoresToJobStats(js, stores);
+        OutputSampler os = new OutputSampler(js) {
+            @Override
+            protected LoadFunc getLoader(POStore pos) {
+                return slow;
+            }
+        };
+
+        // fewer threads than stores, so some stores never start
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            long start = System.currentTimeMillis();
+            List<SampleOutput> outputs = os.getSampleOutputs(10, 1024, executor, 10000, 300);
+            Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+            Assert.assertEquals(outputs.size(), 4);
+            for (SampleOutput output : outputs) {
+                Assert.assertEquals(output.getOutput(), "");
+            }
+            // cancelled stores are interrupted, freeing the threads
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void getFirstPartFileSkipsHiddenAndEmptyFiles() throws Exception {
+        File dir = Files.createTempDir();
+        try {
+            Files.write("", new File(dir, "_SUCCESS"), Charsets.UTF_8);
+            Files.write("x", new File(dir, ".part-r-00000.crc"), Charsets.UTF_8);
+            Files.write("", new File(dir, "part-r-00000"), Charsets.UTF_8);
+            new File(dir, "_logs").mkdir();
+            Files.write("row", new File(dir, "part-r-00001"), Charsets.UTF_8);
+
+            OutputSampler sampler = new OutputSampler(null);
+            Configuration conf = new Configuration();
+            String part = sampler.getFirstPartFile(dir.getPath(), conf);
+            Assert.assertEquals(new Path(part).getName(), "part-r-00001");
+            // a file is read as it is
+            Assert.assertEquals(sampler.getFirstPartFile(part, conf), part);
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void getFirstPartFileEmptyOutput() throws Exception {
+        File dir = Files.createTempDir();
+        try {
+            Files.write("", new File(dir, "part-m-00000"), Charsets.UTF_8);
+            Assert.assertNull(new OutputSampler(null).getFirstPartFile(dir.getPath(), new Configuration()));
+        } finally {
+            new File(dir, "part-m-00000").delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void getSampleOutputReservoir() throws Exception {
+        final InterStorage is = getInterStorage(createRecords(1000));
+        JobStats js = getJobStats();
+        addStoresToJobStats(js, Lists.newLinkedList(Lists.newArrayList(getPOStore(is, "{blah: chararray}"))));
+        OutputSampler os = getOutputSamplerWithOverriddenLoader(is, js);
+        os.setStrategy(OutputSampler.Strategy.RESERVOIR);
+        os.random = new Random(42);
+
+        String output = os.getSampleOutputs(10, 1024).get(0).getOutput();
+        List<String> rows = Arrays.asList(output.split("\n"));
+        Assert.assertEquals(rows.size(), 10);
+        Assert.assertEquals(Sets.newHashSet(rows).size(), 10);
+        Assert.assertFalse(rows.equals(createRecords(10)), "expected rows past the head");
+        Assert.assertTrue(createRecords(1000).containsAll(rows));
+    }
+
+    @Test
+    public void getSampleOutputReservoirStopsAtReadBudget() throws Exception {
+        final InterStorage is = getInterStorage(createRecords(1000));
+        JobStats js = getJobStats();
+        addStoresToJobStats(js, Lists.newLinkedList(Lists.newArrayList(getPOStore(is, "{blah: chararray}"))));
+        OutputSampler os = getOutputSamplerWithOverriddenLoader(is, js);
+        os.setStrategy(OutputSampler.Strategy.RESERVOIR);
+        // "testRecordN" plus delimiter is 12 bytes, so 20 rows are read
+        os.setMaxBytesRead(240);
+
+        String output = os.getSampleOutputs(10, 1024).get(0).getOutput();
+        Assert.assertEquals(output.split("\n").length, 10);
+        Assert.assertTrue(createRecords(20).containsAll(Arrays.asList(output.split("\n"))));
+        verify(is, times(20)).getNext();
+    }
+
+    @Test
+    public void getSampleOutputStratified() throws Exception {
+        final List<LoadFunc> loaders = Lists.newArrayList();
+        for (int i = 0; i < 3; i++) {
+            List<String> records = Lists.newArrayList();
+            for (String record : createRecords(100)) {
+                records.add("part" + i + record);
+            }
+            loaders.add(getInterStorage(records));
+        }
+        final InterStorage is = getInterStorage(createRecords(1));
+        JobStats js = getJobStats();
+        addStoresToJobStats(js, Lists.newLinkedList(Lists.newArrayList(getPOStore(is, "{blah: chararray}"))));
+        OutputSampler os = new OutputSampler(js) {
+            @Override
+            protected List<LoadFunc> getLoaders(POStore pos, int count) {
+                Assert.assertEquals(count, 3);
+                return loaders;
+            }
+        };
+        os.setStrategy(OutputSampler.Strategy.STRATIFIED);
+        os.setPartFiles(3);
+
+        String output = os.getSampleOutputs(10, 1024).get(0).getOutput();
+        Assert.assertEquals(output, "part0testRecord0\npart0testRecord1\npart0testRecord2\npart0testRecord3\n"
+                + "part1testRecord0\npart1testRecord1\npart1testRecord2\npart1testRecord3\n"
+                + "part2testRecord0\npart2testRecord1");
+    }
+
+    @Test
+    public void choosePartFilesIsBoundedByCount() throws Exception {
+        File dir = Files.createTempDir();
+        try {
+            Files.write("", new File(dir, "_SUCCESS"), Charsets.UTF_8);
+            Files.write("", new File(dir, "part-r-00000"), Charsets.UTF_8);
+            for (int i = 1; i <= 20; i++) {
+                Files.write("row", new File(dir, String.format("part-r-%05d", i)), Charsets.UTF_8);
+            }
+
+            OutputSampler sampler = new OutputSampler(null);
+            sampler.random = new Random(42);
+            List<String> parts = sampler.choosePartFiles(dir.getPath(), new Configuration(), 4);
+            Assert.assertEquals(parts.size(), 4);
+            Assert.assertEquals(Sets.newHashSet(parts).size(), 4);
+            List<String> sorted = Lists.newArrayList(parts);
+            Collections.sort(sorted);
+            Assert.assertEquals(parts, sorted);
+            for (String part : parts) {
+                Assert.assertFalse(part.endsWith("_SUCCESS") || part.endsWith("part-r-00000"), part);
+            }
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void closeReleasesReaderOfPartlyReadLoader() throws Exception {
+        File dir = Files.createTempDir();
+        try {
+            // more rows than the reader buffers, so reading on has to
+            // hit the closed stream
+            File part = new File(dir, "part-m-00000");
+            StringBuilder rows = new StringBuilder();
+            for (int i = 0; i < 100000; i++) {
+                rows.append("row").append(i).append('\n');
+            }
+            Files.write(rows, part, Charsets.UTF_8);
+            LoadFunc loader = new ReadToEndLoader(new PigStorage(), new Configuration(), part.getPath(), 0);
+            Assert.assertEquals(loader.getNext().get(0).toString(), "row0");
+
+            new OutputSampler(null).close(loader);
+            try {
+                while (loader.getNext() != null) {
+                }
+                Assert.fail("reader should be closed");
+            } catch (Exception expected) {
+                // the local file system drops a closed stream
+            }
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void cancelledSampleClosesItsLoader() throws Exception {
+        final InterStorage is = getInterStorage(createRecords(100));
+        final LoadFunc slow = getSlowLoader(is, 2, 10000);
+        final List<LoadFunc> closed = Lists.newCopyOnWriteArrayList();
+        JobStats js = getJobStats();
+        addStoresToJobStats(js, Lists.newLinkedList(Lists.newArrayList(getPOStore(is, "{blah: chararray}"))));
+        OutputSampler os = new OutputSampler(js) {
+            @Override
+            protected LoadFunc getLoader(POStore pos) {
+                return slow;
+            }
+
+            @Override
+            protected void close(LoadFunc loader) {
+                closed.add(loader);
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            os.getSampleOutputs(10, 1024, executor, 200, 0);
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+            Assert.assertEquals(closed, Lists.newArrayList(slow));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns a loader returning the rows of loader, that blocks for
+     * delayMillis before every row after the first fastRows rows.
+     */
+    private LoadFunc getSlowLoader(final LoadFunc loader, final int fastRows, final long delayMillis) throws IOException {
+        LoadFunc slow = mock(LoadFunc.class);
+        when(slow.getNext()).thenAnswer(new Answer<Tuple>() {
+            private int rows = 0;
+
+            @Override
+            public Tuple answer(InvocationOnMock invocation) throws Throwable {
+                if (rows++ >= fastRows) {
+                    Thread.sleep(delayMillis);
+                }
+                return loader.getNext();
+            }
+        });
+        return slow;
+    }
+
     private List<SampleOutput> getSampleOutputs(InterStorage is, String schema) throws Exception {
         return getSampleOutputs(is, schema, 10, 1024);
     }
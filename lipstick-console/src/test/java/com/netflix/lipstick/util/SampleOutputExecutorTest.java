@@ -0,0 +1,78 @@
+/**
+ * Copyright 2013 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.lipstick.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.netflix.lipstick.util.OutputSampler.SampleOutput;
+
+public class SampleOutputExecutorTest {
+
+    private static OutputSampler sampler(final long delayMillis) {
+        return new OutputSampler(null) {
+            @Override
+            public List<SampleOutput> getSampleOutputs(int maxRowsPerEntry, int maxBytesPerEntry,
+                                                       ExecutorService executor, long storeTimeoutMillis,
+                                                       long jobTimeoutMillis) throws InterruptedException {
+                Thread.sleep(delayMillis);
+                return Collections.singletonList(new SampleOutput("", "row"));
+            }
+        };
+    }
+
+    @Test
+    public void shutdownWaitsForQueuedJobs() {
+        SampleOutputExecutor executor = new SampleOutputExecutor(1, 1000, 1000);
+        final AtomicInteger sampled = new AtomicInteger();
+        SampleOutputExecutor.Callback callback = new SampleOutputExecutor.Callback() {
+            @Override
+            public void sampled(List<SampleOutput> sampleOutputs) {
+                sampled.incrementAndGet();
+            }
+        };
+        executor.submit("scope-1", sampler(50), 10, 1024, callback);
+        executor.submit("scope-2", sampler(50), 10, 1024, callback);
+        Assert.assertTrue(executor.shutdown(5000).isEmpty());
+        Assert.assertEquals(sampled.get(), 2);
+    }
+
+    @Test
+    public void shutdownReportsAbandonedJobs() {
+        SampleOutputExecutor executor = new SampleOutputExecutor(1, 1000, 1000);
+        final AtomicInteger sampled = new AtomicInteger();
+        SampleOutputExecutor.Callback callback = new SampleOutputExecutor.Callback() {
+            @Override
+            public void sampled(List<SampleOutput> sampleOutputs) {
+                sampled.incrementAndGet();
+            }
+        };
+        executor.submit("scope-1", sampler(0), 10, 1024, callback);
+        executor.submit("scope-2", sampler(60000), 10, 1024, callback);
+        executor.submit("scope-3", sampler(0), 10, 1024, callback);
+        long start = System.currentTimeMillis();
+        List<String> abandoned = executor.shutdown(200);
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        Assert.assertEquals(abandoned, Arrays.asList("scope-2", "scope-3"));
+        Assert.assertEquals(sampled.get(), 1);
+    }
+}
@@ -18,6 +18,7 @@ import 'org.codehaus.jackson.map.ObjectMapper'
 import 'org.codehaus.jackson.map.annotate.JsonSerialize'
 import 'com.netflix.lipstick.Pig2DotGenerator'
 import 'com.netflix.lipstick.model.P2jPlanStatus'
+import 'com.netflix.lipstick.model.P2jPlanStatusDelta'
 import 'com.netflix.lipstick.model.P2jPlanPackage'
 import 'com.netflix.lipstick.model.P2jSampleOutputList'
 
@@ -46,6 +47,21 @@ class PlanService
     return ser
   end
 
+  #
+  # Copy interned schemas back onto the operators of a P2jPlanPackage,
+  # the UI reads each operator's schema inline
+  # @param json [String] JSON encoded P2jPlanPackage, or a subset of
+  #   its fields
+  # @return [String]
+  #
+  def self.inline_schemas json
+    data = JSON.parse(json)
+    ['optimized', 'unoptimized'].each do |type|
+      Lipstick::Adapter::P2jPlanPackage::P2jPlan.inline_schemas(data[type]) if data[type]
+    end
+    data.to_json
+  end
+
   def self.get_max_uid plan
     # take advantage of the fact that uid values are just
     # stringified integers
@@ -101,6 +117,11 @@ class PlanService
     
     p1_optimized_plan.put_all(p2_optimized)
     p1_unoptimized_plan.put_all(p2_unoptimized)
+
+    # schema ids are numbered per plan, intern the merged plans
+    # again rather than resolving p2's ids against p1's table
+    p1_optimized.intern_schemas
+    p1_unoptimized.intern_schemas
     p1_optimized.set_plan(p1_optimized_plan)
     p1_unoptimized.set_plan(p1_unoptimized_plan)
     
@@ -296,6 +317,43 @@ class PlanService
     end    
   end
 
+  #
+  # @deprecated
+  # Applies a status delta to a P2jPlanPackage object. The delta
+  # is rejected if it doesn't apply on top of the last status
+  # update the plan received, the client then has to send a full
+  # P2jPlanStatus to resync.
+  # @param params [Hash] Request parameters. Requires :id
+  # @param json [String] JSON encoded P2jPlanStatusDelta object
+  # @return [Hash]
+  #
+  def self.update_delta params, json
+    plan = @@es.get(params[:id], 'plan')
+    return unless plan
+
+    plan = p2j_from_json(plan, P2jPlanPackage.java_class)
+    return unless plan
+
+    delta = p2j_from_json(json, P2jPlanStatusDelta.java_class)
+    return unless delta
+
+    if plan.status.sequence != delta.base_sequence
+      return {:resync => true, :sequence => plan.status.sequence}
+    end
+
+    plan.status.apply_delta(delta)
+    updated = @@om.write_value_as_string(plan)
+
+    # Update {Lipstick::Graph} representation
+    update_p2j_graph(params, updated)
+
+    if @@es.save(params[:id], 'plan', updated)
+      return {:status => "updated uuid #{params[:id]}", :sequence => delta.sequence}
+    else
+      return
+    end
+  end
+
   def self.update_graph_node params, json
     graph = @@es.get(params[:id], 'graph')
     return unless graph
@@ -423,6 +481,7 @@ class PlanService
       
       ret = @@es.get_fields(params[:id], fields)
       return unless ret
+      ret = inline_schemas(ret) if (params[:optimized] || params[:unoptimized])
 
       if params[:sampleOutput]
         temp = p2j_from_json(@@es.get(params[:id], 'plan'), P2jPlanPackage.java_class)
@@ -434,6 +493,7 @@ class PlanService
       return ret
     else
       plan = @@es.get(params[:id], 'plan')
+      plan = inline_schemas(plan) if plan
     end
     return plan
   end
@@ -715,6 +775,26 @@ put '/job/:id' do
   ret.to_json
 end
 
+# @method update_job_delta
+# @overload PUT "/job/:id/delta"
+# Update a P2jPlanPackage with the changes to its status since
+# the last update
+# @param id [String] The uuid of the plan to update
+# @param body [String] JSON serialization of a P2jPlanStatusDelta
+# @return [String] A json string with keys "status" and "sequence"
+#   if the delta was applied, "resync" and "sequence" if the delta
+#   doesn't follow the last update the plan received (the
+#   client should then send a full status), "error" otherwise
+# @deprecated
+put '/job/:id/delta' do
+  request.body.rewind
+  ret = PlanService.update_delta(params, request.body.read)
+  if !ret
+    return [404, {:error => "plan #{params[:id]} not found"}]
+  end
+  ret.to_json
+end
+
 # @method update_sample_output
 # @overload PUT "/job/:id/sampleOutput/:jobId"
 # Update the sample output data for a single map-reduce job for a single plan
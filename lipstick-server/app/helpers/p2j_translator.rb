@@ -273,7 +273,25 @@ module Lipstick
         def initialize plan
           @plan = plan
         end    
+        #
+        # Copy interned schemas back onto the operators that
+        # reference them by schemaId
+        # @param data [Hash] Parsed P2jPlan
+        # @return [Hash]
+        #
+        def self.inline_schemas data
+          if data['schemas'] && data['plan']
+            data['plan'].each_value do |op|
+              if op['schemaId'] && !op['schema']
+                op['schema'] = data['schemas'][op['schemaId']]
+              end
+            end
+          end
+          data
+        end
+
         def self.from_hash data
+          inline_schemas(data)
           plan_map = data['plan'].inject({}) do |plan, op|            
             case op.last['operator']
             when 'LOCogroup', 'LOGroup' then
@@ -95,10 +95,99 @@ class JobControllerTest < Test::Unit::TestCase
         ]
       }
     }
+    @schema_name  = [{'alias' => 'name', 'type' => 'CHARARRAY'}]
+    @schema_value = [{'alias' => 'value', 'type' => 'INTEGER'}]
+    @schema_score = [{'alias' => 'score', 'type' => 'DOUBLE'}]
     PlanService.save_graph({}, @graph.to_json)
     ElasticSearchAdaptor.instance.refresh!
   end
 
+  def p2j_operator uid, name, schema_id, successors, predecessors
+    {
+      '@class'       => 'com.netflix.lipstick.model.operators.P2jLogicalRelationalOperator',
+      'uid'          => uid,
+      'alias'        => name,
+      'operator'     => 'LOForEach',
+      'successors'   => successors,
+      'predecessors' => predecessors,
+      'schemaId'     => schema_id,
+      'location'     => {'line' => 1, 'filename' => 'test.pig', 'macro' => []},
+      'mapReduce'    => {'jobId' => 'scope-1', 'stepType' => 'MAPPER'}
+    }
+  end
+
+  #
+  # A P2jPlanPackage with two operators whose schemas are interned
+  # the way the console client sends them
+  #
+  def p2j_plan_package uuid, first_schema, second_schema
+    plan = {
+      'plan' => {
+        '1' => p2j_operator('1', 'one', '1', ['2'], []),
+        '2' => p2j_operator('2', 'two', '2', [], ['1'])
+      },
+      'schemas' => {'1' => first_schema, '2' => second_schema}
+    }
+    {
+      'uuid'        => uuid,
+      'userName'    => 'user',
+      'jobName'     => 'job',
+      'optimized'   => plan,
+      'unoptimized' => JSON.parse(plan.to_json)
+    }
+  end
+
+  def p2j_to_json ser
+    om = ObjectMapper.new
+    om.set_serialization_inclusion(JsonSerialize::Inclusion::NON_NULL)
+    om.write_value_as_string(ser)
+  end
+
+  def operator_schemas p2j_plan
+    p2j_plan['plan'].keys.sort_by{|uid| uid.to_i}.map{|uid| p2j_plan['plan'][uid]['schema']}
+  end
+
+  def test_get_job_inlines_interned_schemas
+    json = p2j_plan_package('interned', @schema_name, @schema_value).to_json
+    ser  = PlanService.p2j_from_json(json, P2jPlanPackage.java_class)
+    ElasticSearchAdaptor.instance.save('interned', 'plan', p2j_to_json(ser))
+    ElasticSearchAdaptor.instance.refresh!
+
+    # the requests the UI makes for each plan
+    get '/job/interned?optimized=1&scripts=1'
+    assert last_response.ok?
+    optimized = JSON.parse(last_response.body)['optimized']
+    assert_equal [@schema_name, @schema_value], operator_schemas(optimized)
+
+    get '/job/interned?unoptimized=1'
+    assert last_response.ok?
+    unoptimized = JSON.parse(last_response.body)['unoptimized']
+    assert_equal [@schema_name, @schema_value], operator_schemas(unoptimized)
+
+    get '/job/interned'
+    assert last_response.ok?
+    plan = JSON.parse(last_response.body)
+    assert_equal [@schema_name, @schema_value], operator_schemas(plan['optimized'])
+  end
+
+  def test_combine_keeps_schemas_of_both_packages
+    first  = p2j_plan_package('combined', @schema_name, @schema_value).to_json
+    second = p2j_plan_package('combined', @schema_score, @schema_name).to_json
+    combined = PlanService.combine(
+      PlanService.p2j_from_json(first, P2jPlanPackage.java_class),
+      PlanService.p2j_from_json(second, P2jPlanPackage.java_class))
+
+    plan = JSON.parse(PlanService.inline_schemas(p2j_to_json(combined)))
+    ['optimized', 'unoptimized'].each do |type|
+      assert_equal(
+        [@schema_name, @schema_value, @schema_score, @schema_name],
+        operator_schemas(plan[type])
+        )
+      # equal schemas from both packages share one table entry
+      assert_equal 3, plan[type]['schemas'].size
+    end
+  end
+
   def test_should_list_jobs
     get '/v1/job'
     assert last_response.ok?